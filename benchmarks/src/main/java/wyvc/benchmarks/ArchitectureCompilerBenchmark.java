@@ -0,0 +1,58 @@
+package wyvc.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wyil.lang.WyilFile.FunctionOrMethod;
+import wyvc.builder.ArchitectureCompiler;
+import wyvc.builder.ElementCompiler;
+import wyvc.lang.Architecture;
+import wyvc.lang.Entity;
+
+/**
+ * Measures the compilation of the body of a function made of a large block of
+ * assignments, expression DAG and hoisting included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = Settings.FORKS, jvmArgsAppend = {Settings.XMS, Settings.XMX})
+@Warmup(iterations = Settings.WARMUP_ITERATIONS, time = Settings.ITERATION_TIME)
+@Measurement(iterations = Settings.MEASUREMENT_ITERATIONS, time = Settings.ITERATION_TIME)
+public class ArchitectureCompilerBenchmark {
+	@Param({"100", "1000", "10000"})
+	public int statements;
+
+	private FunctionOrMethod function;
+	private Entity entity;
+
+	@Setup(Level.Trial)
+	public void compileSource() throws Exception {
+		InMemoryProject project = new InMemoryProject();
+		project.addSource("block", Sources.block("block", statements));
+		project.compileWhiley();
+		function = project.getFunction("block", "block");
+	}
+
+	@Setup(Level.Invocation)
+	public void createEntity() {
+		entity = new Entity(function.name(), ElementCompiler.compileInterface(function.name(), function.type()));
+	}
+
+	@Benchmark
+	public Architecture compile() throws Exception {
+		return new ArchitectureCompiler(entity).compile(function.getBody());
+	}
+}
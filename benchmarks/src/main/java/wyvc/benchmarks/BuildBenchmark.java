@@ -0,0 +1,69 @@
+package wyvc.benchmarks;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wybs.util.StdProject;
+import wycc.util.Logger;
+import wyfs.lang.Path;
+import wyvc.builder.VHDLCompileTask;
+
+/**
+ * Measures whole builds of modules of WyIL files into VHDL files, read and
+ * written in memory, without build cache nor entity store.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = Settings.FORKS, jvmArgsAppend = {Settings.XMS, Settings.XMX})
+@Warmup(iterations = Settings.WARMUP_ITERATIONS, time = Settings.ITERATION_TIME)
+@Measurement(iterations = Settings.MEASUREMENT_ITERATIONS, time = Settings.ITERATION_TIME)
+public class BuildBenchmark {
+	@Param({"1", "16"})
+	public int modules;
+
+	@Param({"32"})
+	public int functions;
+
+	@Param({"100"})
+	public int statements;
+
+	@Param({"1", "4"})
+	public int parallelism;
+
+	@Param({"false", "true"})
+	public boolean streaming;
+
+	private InMemoryProject project;
+	private VHDLCompileTask task;
+
+	@Setup(Level.Trial)
+	public void compileSources() throws Exception {
+		project = new InMemoryProject();
+		for (int k = 0; k < modules; ++k)
+			project.addSource("m" + k, Sources.module(functions, statements));
+		project.compileWhiley();
+		task = new VHDLCompileTask(new StdProject(Collections.<Path.Root>emptyList()));
+		task.setLogger(Logger.NULL);
+		task.setParallelism(parallelism);
+		task.setStreaming(streaming);
+	}
+
+	@Benchmark
+	public void build() throws Exception {
+		project.compileVHDL(task);
+	}
+}
@@ -0,0 +1,118 @@
+package wyvc.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wyil.lang.Bytecode;
+import wyil.lang.SyntaxTree.Location;
+import wyil.lang.WyilFile.FunctionOrMethod;
+import wyvc.benchmarks.TokenBenchmark.NullOutputStream;
+import wyvc.builder.ArchitectureCompiler;
+import wyvc.builder.ElementCompiler;
+import wyvc.builder.ExpressionCompiler;
+import wyvc.io.TextualOutputStream;
+import wyvc.io.Tokenisable.Token;
+import wyvc.lang.Entity;
+import wyvc.lang.Expression;
+
+/**
+ * Measures the compilation, the tokenisation and the writing of a chain of a
+ * million operators, far deeper than the stack of the benchmark thread could
+ * hold with a recursive walk : each of them failing with a StackOverflowError
+ * fails the benchmark.
+ *
+ * The Whiley compiler recurses once per level of the chain, so the WyIL file
+ * is compiled, once per trial, on a thread of its own with a large stack.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = Settings.FORKS, jvmArgsAppend = {Settings.XMS, Settings.XMX})
+@Warmup(iterations = Settings.WARMUP_ITERATIONS)
+@Measurement(iterations = Settings.MEASUREMENT_ITERATIONS)
+public class DeepExpressionBenchmark {
+	/**
+	 * Stack size of the thread running the Whiley compiler, in bytes.
+	 */
+	private static final long SETUP_STACK_SIZE = 1L << 30;
+
+	@Param({"1048576"})
+	public int operators;
+
+	private FunctionOrMethod function;
+	private Location<?> location;
+	private Entity entity;
+	private Expression expression;
+	private Token chain;
+
+	@Setup(Level.Trial)
+	public void compileSource() throws Exception {
+		function = onLargeStack(() -> {
+			InMemoryProject project = new InMemoryProject();
+			project.addSource("deep", Sources.deep("deep", operators));
+			project.compileWhiley();
+			return project.getFunction("deep", "deep");
+		});
+		Location<Bytecode.Block> body = function.getBody();
+		location = body.getOperand(body.numberOfOperands() - 1).getOperand(0);
+		createEntity();
+		expression = compile();
+		chain = tokenise();
+	}
+
+	/**
+	 * Each invocation compiles the expression into a fresh architecture, so
+	 * that no expression is shared with the previous invocation.
+	 */
+	@Setup(Level.Invocation)
+	public void createEntity() {
+		entity = new Entity(function.name(), ElementCompiler.compileInterface(function.name(), function.type()));
+	}
+
+	@Benchmark
+	public Expression compile() throws Exception {
+		return new ExpressionCompiler(new ArchitectureCompiler(entity).getArchitecture()).compile(location);
+	}
+
+	@Benchmark
+	public Token tokenise() {
+		Token.StartToken start = new Token.StartToken();
+		expression.addTokens(start);
+		return start;
+	}
+
+	@Benchmark
+	public int write() throws IOException {
+		TextualOutputStream output = new TextualOutputStream(new NullOutputStream());
+		int tokens = chain.write(output, false);
+		output.flush();
+		return tokens;
+	}
+
+	private static <T> T onLargeStack(Callable<T> callable) throws Exception {
+		FutureTask<T> task = new FutureTask<>(callable);
+		Thread thread = new Thread(null, task, "wyvc-benchmark-setup", SETUP_STACK_SIZE);
+		thread.start();
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package wyvc.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wyvc.benchmarks.TokenBenchmark.NullOutputStream;
+import wyvc.io.TextualOutputStream;
+import wyvc.io.VHDLFileWritter;
+import wyvc.lang.Entity;
+import wyvc.lang.VHDLFile;
+
+/**
+ * Compares the writing of a VHDL file in pretty and compact mode, over an
+ * entity whose port lists, signal list and port map are long : the lists the
+ * pretty mode aligns, and the compact mode writes in a single pass.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = Settings.FORKS, jvmArgsAppend = {Settings.XMS, Settings.XMX})
+@Warmup(iterations = Settings.WARMUP_ITERATIONS, time = Settings.ITERATION_TIME)
+@Measurement(iterations = Settings.MEASUREMENT_ITERATIONS, time = Settings.ITERATION_TIME)
+public class EmissionModeBenchmark {
+	@Param({"100", "10000"})
+	public int ports;
+
+	@Param({"false", "true"})
+	public boolean compact;
+
+	private VHDLFile file;
+
+	@Setup(Level.Trial)
+	public void createFile() throws Exception {
+		file = new VHDLFile(new Entity[]{Entities.wired("wired", ports)});
+	}
+
+	@Benchmark
+	public long write() throws IOException {
+		TextualOutputStream output = new TextualOutputStream(new NullOutputStream());
+		new VHDLFileWritter(output, compact).write(file);
+		return output.getWritten();
+	}
+}
@@ -0,0 +1,108 @@
+package wyvc.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import wyvc.lang.Architecture;
+import wyvc.lang.Component;
+import wyvc.lang.Entity;
+import wyvc.lang.Expression;
+import wyvc.lang.Expression.Access;
+import wyvc.lang.Expression.Add;
+import wyvc.lang.Expression.Sub;
+import wyvc.lang.Expression.Value;
+import wyvc.lang.Expression.Xor;
+import wyvc.lang.Interface;
+import wyvc.lang.LexicalElement.VHDLException;
+import wyvc.lang.Statement.ComponentInstance;
+import wyvc.lang.Statement.ConcurrentStatement;
+import wyvc.lang.Statement.Process;
+import wyvc.lang.Statement.SequentialStatement;
+import wyvc.lang.Statement.SignalAssignment;
+import wyvc.lang.Statement.VariableAssignment;
+import wyvc.lang.Type;
+import wyvc.lang.TypedValue.Constant;
+import wyvc.lang.TypedValue.Port;
+import wyvc.lang.TypedValue.Port.Mode;
+import wyvc.lang.TypedValue.Signal;
+import wyvc.lang.TypedValue.Variable;
+import wyvc.lang.VHDLFile;
+
+/**
+ * The Entities class builds the VHDL files written by the benchmarks of the
+ * output, without going through the compiler. Their entities hold a process
+ * of a given number of assignments, and only depend on their sizes.
+ */
+public final class Entities {
+	private Entities() {
+	}
+
+	public static Entity entity(String name, int statements) throws VHDLException {
+		return entity(name, statements, 1);
+	}
+
+	/**
+	 * Builds an entity whose process holds <c>statements</c> assignments, each
+	 * adding <c>terms</c> differences to a variable.
+	 */
+	public static Entity entity(String name, int statements, int terms) throws VHDLException {
+		Type type = Type.Signed.of(31, 0);
+		Port[] ports = {
+			new Port("s_" + name + "_in_0", type, Mode.IN),
+			new Port("s_" + name + "_in_1", type, Mode.IN),
+			new Port("s_" + name + "_out_0", type, Mode.OUT)};
+		Entity entity = new Entity(name, new Interface(ports));
+		Variable a = new Variable("v_a", type);
+		Variable b = new Variable("v_b", type);
+		List<SequentialStatement> process = new ArrayList<>();
+		process.add(new VariableAssignment(a, new Access(ports[0])));
+		process.add(new VariableAssignment(b, new Access(ports[1])));
+		for (int k = 0; k < statements; ++k) {
+			Expression e = new Access(a);
+			for (int t = 0; t < terms; ++t)
+				e = new Add(e, new Sub(new Access(b), new Value(type, Integer.toString(k * terms + t))));
+			process.add(new VariableAssignment(a, e));
+		}
+		process.add(new SignalAssignment(ports[2], new Xor(new Access(a), new Access(b))));
+		Signal signal = new Signal("s_internal", type);
+		Component component = new Component("callee", new Interface(new Port[]{
+			new Port("s_callee_in_0", type, Mode.IN),
+			new Port("s_callee_out_0", type, Mode.OUT)}));
+		entity.addArchitectures(new Architecture(entity, "Behavioural", new Signal[]{signal},
+			new Constant[]{new Constant("K", type)}, new Component[]{component}, new ConcurrentStatement[]{
+				new Process("main", new Variable[]{a, b}, new Signal[]{ports[0], ports[1]},
+					process.toArray(new SequentialStatement[0]))}));
+		return entity;
+	}
+
+	/**
+	 * Builds an entity of <c>ports</c> ports and as many signals, wired to the
+	 * ports of a component of the same size : its port lists, signal list and
+	 * port map are as long as the number of ports.
+	 */
+	public static Entity wired(String name, int ports) throws VHDLException {
+		Type type = Type.Signed.of(31, 0);
+		Port[] interface_ = new Port[ports];
+		Port[] calleeInterface = new Port[ports];
+		Signal[] signals = new Signal[ports];
+		for (int k = 0; k < ports; ++k) {
+			Mode mode = k % 2 == 0 ? Mode.IN : Mode.OUT;
+			interface_[k] = new Port("s_" + name + "_port_" + k, type, mode);
+			calleeInterface[k] = new Port("s_callee_port_" + k, type, mode);
+			signals[k] = new Signal("s_wire_" + k, type);
+		}
+		Entity entity = new Entity(name, new Interface(interface_));
+		Component component = new Component("callee", new Interface(calleeInterface));
+		entity.addArchitectures(new Architecture(entity, "Structural", signals, new Constant[0],
+			new Component[]{component}, new ConcurrentStatement[]{
+				new ComponentInstance("instance", component, signals)}));
+		return entity;
+	}
+
+	public static VHDLFile file(int entities, int statements) throws VHDLException {
+		Entity[] file = new Entity[entities];
+		for (int k = 0; k < entities; ++k)
+			file[k] = entity("f" + k, statements);
+		return new VHDLFile(file);
+	}
+}
@@ -0,0 +1,73 @@
+package wyvc.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wyil.lang.Bytecode;
+import wyil.lang.SyntaxTree.Location;
+import wyil.lang.WyilFile.FunctionOrMethod;
+import wyvc.builder.ArchitectureCompiler;
+import wyvc.builder.ElementCompiler;
+import wyvc.builder.ExpressionCompiler;
+import wyvc.lang.Entity;
+import wyvc.lang.Expression;
+
+/**
+ * Measures the compilation of the expression returned by a function, over
+ * balanced trees (<c>wide</c>) and chains (<c>deep</c>) of operators.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = Settings.FORKS, jvmArgsAppend = {Settings.XMS, Settings.XMX})
+@Warmup(iterations = Settings.WARMUP_ITERATIONS, time = Settings.ITERATION_TIME)
+@Measurement(iterations = Settings.MEASUREMENT_ITERATIONS, time = Settings.ITERATION_TIME)
+public class ExpressionCompilerBenchmark {
+	@Param({"wide", "deep"})
+	public String shape;
+
+	@Param({"64", "1024", "16384"})
+	public int operators;
+
+	private FunctionOrMethod function;
+	private Location<?> expression;
+	private Entity entity;
+
+	@Setup(Level.Trial)
+	public void compileSource() throws Exception {
+		InMemoryProject project = new InMemoryProject();
+		project.addSource("expression", shape.equals("wide")
+			? Sources.wide("expression", operators + 1)
+			: Sources.deep("expression", operators));
+		project.compileWhiley();
+		function = project.getFunction("expression", "expression");
+		Location<Bytecode.Block> body = function.getBody();
+		expression = body.getOperand(body.numberOfOperands() - 1).getOperand(0);
+	}
+
+	/**
+	 * Each invocation compiles the expression into a fresh architecture, so
+	 * that no expression is shared with the previous invocation.
+	 */
+	@Setup(Level.Invocation)
+	public void createEntity() {
+		entity = new Entity(function.name(), ElementCompiler.compileInterface(function.name(), function.type()));
+	}
+
+	@Benchmark
+	public Expression compile() throws Exception {
+		return new ExpressionCompiler(new ArchitectureCompiler(entity).getArchitecture()).compile(expression);
+	}
+}
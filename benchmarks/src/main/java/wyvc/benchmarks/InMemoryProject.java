@@ -0,0 +1,83 @@
+package wyvc.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import wybs.util.StdBuildGraph;
+import wybs.util.StdBuildRule;
+import wybs.util.StdProject;
+import wyc.builder.CompileTask;
+import wyc.lang.WhileyFile;
+import wycc.util.Pair;
+import wyfs.lang.Content;
+import wyfs.lang.Path;
+import wyfs.util.Trie;
+import wyfs.util.VirtualRoot;
+import wyil.lang.WyilFile;
+import wyvc.builder.VHDLCompileTask;
+
+/**
+ * The InMemoryProject class holds Whiley sources, the WyIL files compiled from
+ * them and the VHDL files compiled from those in memory, so that the
+ * benchmarks do not measure the file system.
+ */
+public class InMemoryProject {
+	private final Content.Registry registry = new wyc.Activator.Registry();
+	private final VirtualRoot whileyRoot = new VirtualRoot(registry);
+	private final VirtualRoot wyilRoot = new VirtualRoot(registry);
+	private final VirtualRoot vhdlRoot = new VirtualRoot(registry);
+	private final List<Path.Entry<WhileyFile>> sources = new ArrayList<>();
+	private final List<Path.Entry<WyilFile>> wyilFiles = new ArrayList<>();
+
+	public void addSource(String module, String source) throws IOException {
+		Path.Entry<WhileyFile> entry = whileyRoot.create(Trie.fromString(module), WhileyFile.ContentType);
+		try (OutputStream output = entry.outputStream()) {
+			output.write(source.getBytes(StandardCharsets.UTF_8));
+		}
+		sources.add(entry);
+	}
+
+	/**
+	 * Compiles the sources into WyIL files with the Whiley compiler.
+	 */
+	public void compileWhiley() throws Exception {
+		StdProject project = new StdProject(Arrays.<Path.Root>asList(whileyRoot, wyilRoot));
+		project.add(new StdBuildRule(new CompileTask(project), whileyRoot,
+			Content.filter("**", WhileyFile.ContentType), null, wyilRoot));
+		project.build(sources);
+		wyilRoot.flush();
+		wyilFiles.clear();
+		for (Path.Entry<WhileyFile> source : sources)
+			wyilFiles.add(wyilRoot.get(source.id(), WyilFile.ContentType));
+	}
+
+	public List<Path.Entry<WyilFile>> getWyilFiles() {
+		return wyilFiles;
+	}
+
+	/**
+	 * Returns the function of the given name, read from the WyIL file of the
+	 * module.
+	 */
+	public WyilFile.FunctionOrMethod getFunction(String module, String name) throws IOException {
+		WyilFile file = wyilRoot.get(Trie.fromString(module), WyilFile.ContentType).read();
+		for (WyilFile.FunctionOrMethod function : file.functionOrMethods())
+			if (function.name().equals(name))
+				return function;
+		throw new IllegalArgumentException("No function " + name + " in module " + module);
+	}
+
+	/**
+	 * Runs the task over every WyIL file, writing the VHDL files in memory.
+	 */
+	public void compileVHDL(VHDLCompileTask task) throws IOException {
+		List<Pair<Path.Entry<?>, Path.Root>> delta = new ArrayList<>();
+		for (Path.Entry<WyilFile> wyil : wyilFiles)
+			delta.add(new Pair<Path.Entry<?>, Path.Root>(wyil, vhdlRoot));
+		task.build(delta, new StdBuildGraph());
+	}
+}
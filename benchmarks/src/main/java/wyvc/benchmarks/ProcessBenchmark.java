@@ -0,0 +1,68 @@
+package wyvc.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wyvc.benchmarks.TokenBenchmark.NullOutputStream;
+import wyvc.io.TextualOutputStream;
+import wyvc.io.Tokenisable.Token;
+import wyvc.lang.Entity;
+import wyvc.lang.VHDLFile;
+
+/**
+ * Measures the building and the writing of the token chain of a single entity
+ * whose process holds a hundred thousand assignments, of one term, or of
+ * enough terms for each assignment to be a long chain of its own. The chain
+ * of the file holds millions of tokens, which building by walking to the end
+ * of the chain, or writing by recursing once per token, cannot handle.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = Settings.FORKS, jvmArgsAppend = {Settings.XMS, Settings.XMX})
+@Warmup(iterations = Settings.WARMUP_ITERATIONS, time = Settings.ITERATION_TIME)
+@Measurement(iterations = Settings.MEASUREMENT_ITERATIONS, time = Settings.ITERATION_TIME)
+public class ProcessBenchmark {
+	@Param({"100000"})
+	public int statements;
+
+	@Param({"1", "16"})
+	public int terms;
+
+	private VHDLFile file;
+	private Token chain;
+
+	@Setup(Level.Trial)
+	public void createFile() throws Exception {
+		file = new VHDLFile(new Entity[]{Entities.entity("process", statements, terms)});
+		chain = tokenise();
+	}
+
+	@Benchmark
+	public Token tokenise() {
+		Token.StartToken start = new Token.StartToken();
+		file.addTokens(start);
+		return start;
+	}
+
+	@Benchmark
+	public int write() throws IOException {
+		TextualOutputStream output = new TextualOutputStream(new NullOutputStream());
+		int tokens = chain.write(output, false);
+		output.flush();
+		return tokens;
+	}
+}
@@ -0,0 +1,129 @@
+package wyvc.benchmarks;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+
+import wybs.util.StdProject;
+import wycc.util.Logger;
+import wyfs.lang.Path;
+import wyvc.benchmarks.Workload.Dimension;
+import wyvc.builder.VHDLCompileTask;
+
+/**
+ * The ScalingReport class measures how the time and the peak heap of a build
+ * grow when each dimension of a {@link Workload} is doubled, the others being
+ * left to their base value. A dimension whose time grows faster than
+ * <c>n^{@value #SUPERLINEAR_EXPONENT}</c> is reported as superlinear.
+ *
+ * Only the VHDL build is measured : the WyIL files are compiled by wyc before
+ * the measures. Each point is the median of several builds, after warmup
+ * builds.
+ *
+ * Usage : <c>ScalingReport [steps [runs [report.csv]]]</c>
+ */
+public class ScalingReport {
+	private static final Workload BASE = new Workload(8, 32, 4, 2, 4);
+	private static final int MODULES = 4;
+	private static final int WARMUP_RUNS = 2;
+	private static final double SUPERLINEAR_EXPONENT = 1.2;
+
+	private final int steps;
+	private final int runs;
+
+	public ScalingReport(int steps, int runs) {
+		this.steps = steps;
+		this.runs = runs;
+	}
+
+	public static void main(String[] args) throws Exception {
+		ScalingReport report = new ScalingReport(
+			args.length > 0 ? Integer.parseInt(args[0]) : 5,
+			args.length > 1 ? Integer.parseInt(args[1]) : 5);
+		if (args.length > 2) {
+			try (PrintWriter csv = new PrintWriter(Files.newBufferedWriter(Paths.get(args[2]), StandardCharsets.UTF_8))) {
+				report.run(System.out, csv);
+			}
+		}
+		else
+			report.run(System.out, null);
+	}
+
+	/**
+	 * Measures every dimension, printing a table to the output and, if given,
+	 * one CSV line per point.
+	 */
+	public void run(PrintStream out, PrintWriter csv) throws Exception {
+		out.println("Base workload : " + BASE + ", " + MODULES + " module(s)");
+		if (csv != null)
+			csv.println("dimension,value,time_ms,peak_heap_mb,exponent");
+		for (Dimension dimension : Dimension.values()) {
+			out.println();
+			out.println(String.format("%-10s %8s %12s %12s %9s", dimension.name().toLowerCase(), "value", "time (ms)",
+				"heap (MB)", "exponent"));
+			int value = Math.max(BASE.get(dimension), 1);
+			double previousTime = 0;
+			for (int step = 0; step < steps; ++step, value *= 2) {
+				double[] measure = measure(BASE.with(dimension, value));
+				// Growth of the time relative to the growth of the dimension, which doubles at each step.
+				double exponent = step == 0 ? Double.NaN : Math.log(measure[0] / previousTime) / Math.log(2);
+				previousTime = measure[0];
+				out.println(String.format("%-10s %8d %12.2f %12.1f %9s", "", value, measure[0], measure[1],
+					Double.isNaN(exponent) ? "" : String.format("%.2f%s", exponent,
+						exponent > SUPERLINEAR_EXPONENT ? " !" : "")));
+				if (csv != null)
+					csv.println(dimension.name().toLowerCase() + "," + value + "," + measure[0] + "," + measure[1] + ","
+						+ (Double.isNaN(exponent) ? "" : Double.toString(exponent)));
+			}
+		}
+		out.println();
+		out.println("! : time grows faster than n^" + SUPERLINEAR_EXPONENT);
+	}
+
+	/**
+	 * Returns the median time of the builds of the workload, in milliseconds,
+	 * and their largest peak of heap usage, in megabytes.
+	 */
+	private double[] measure(Workload workload) throws Exception {
+		InMemoryProject project = new InMemoryProject();
+		workload.addTo(project, MODULES);
+		project.compileWhiley();
+		VHDLCompileTask task = new VHDLCompileTask(new StdProject(Collections.<Path.Root>emptyList()));
+		task.setLogger(Logger.NULL);
+		for (int k = 0; k < WARMUP_RUNS; ++k)
+			project.compileVHDL(task);
+		double[] times = new double[runs];
+		long peak = 0;
+		for (int k = 0; k < runs; ++k) {
+			System.gc();
+			resetPeakHeap();
+			long start = System.nanoTime();
+			project.compileVHDL(task);
+			times[k] = (System.nanoTime() - start) / 1e6;
+			peak = Math.max(peak, peakHeap());
+		}
+		Arrays.sort(times);
+		return new double[]{times[runs / 2], peak / (1024. * 1024.)};
+	}
+
+	private static void resetPeakHeap() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+	}
+
+	private static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		return peak;
+	}
+}
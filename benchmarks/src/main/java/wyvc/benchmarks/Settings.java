@@ -0,0 +1,26 @@
+package wyvc.benchmarks;
+
+/**
+ * The Settings class holds the parameters shared by every benchmark, which
+ * have to stay the same across releases for their results to be comparable.
+ */
+final class Settings {
+	static final int FORKS = 3;
+	static final int WARMUP_ITERATIONS = 5;
+	static final int MEASUREMENT_ITERATIONS = 10;
+
+	/**
+	 * Duration of an iteration, in seconds.
+	 */
+	static final int ITERATION_TIME = 1;
+
+	/**
+	 * Options of the forked JVMs. The heap is fixed so that the collector
+	 * behaves the same from one run to the other.
+	 */
+	static final String XMS = "-Xms2g";
+	static final String XMX = "-Xmx2g";
+
+	private Settings() {
+	}
+}
@@ -0,0 +1,82 @@
+package wyvc.benchmarks;
+
+/**
+ * The Sources class generates the Whiley sources compiled by the benchmarks.
+ * Every function takes {@link #PARAMETERS} integers and returns one, and only
+ * uses the constructs the compiler supports. The sources only depend on their
+ * sizes, so that every run compiles the same code.
+ */
+public final class Sources {
+	public static final int PARAMETERS = 8;
+
+	private Sources() {
+	}
+
+	private static String header(String name) {
+		StringBuilder header = new StringBuilder("function ").append(name).append('(');
+		for (int k = 0; k < PARAMETERS; ++k)
+			header.append(k == 0 ? "" : ", ").append("int x").append(k);
+		return header.append(") -> (int r):\n").toString();
+	}
+
+	/**
+	 * Generates a function returning a balanced tree of additions and
+	 * subtractions of <c>leaves</c> parameters.
+	 */
+	public static String wide(String name, int leaves) {
+		StringBuilder source = new StringBuilder(header(name)).append("    return ");
+		appendTree(source, 0, leaves, 0);
+		return source.append('\n').toString();
+	}
+
+	private static void appendTree(StringBuilder source, int from, int to, int depth) {
+		if (to - from == 1) {
+			source.append('x').append(from % PARAMETERS);
+			return;
+		}
+		int middle = (from + to) / 2;
+		source.append('(');
+		appendTree(source, from, middle, depth + 1);
+		source.append(depth % 2 == 0 ? " + " : " - ");
+		appendTree(source, middle, to, depth + 1);
+		source.append(')');
+	}
+
+	/**
+	 * Generates a function returning a chain of <c>depth</c> additions and
+	 * subtractions, which the parser nests to the left.
+	 */
+	public static String deep(String name, int depth) {
+		StringBuilder source = new StringBuilder(header(name)).append("    return x0");
+		for (int k = 1; k <= depth; ++k)
+			source.append(k % 2 == 0 ? " - x" : " + x").append(k % PARAMETERS);
+		return source.append('\n').toString();
+	}
+
+	/**
+	 * Generates a function whose body is a block of <c>statements</c>
+	 * assignments, reading the variables assigned by the previous ones.
+	 */
+	public static String block(String name, int statements) {
+		StringBuilder source = new StringBuilder(header(name))
+			.append("    int a = x0 + x1\n")
+			.append("    int b = x2 - x3\n");
+		for (int k = 0; k < statements; ++k)
+			if (k % 2 == 0)
+				source.append("    a = a + b - x").append(k % PARAMETERS).append('\n');
+			else
+				source.append("    b = b - a + ").append(k).append('\n');
+		return source.append("    return a + b\n").toString();
+	}
+
+	/**
+	 * Generates a module of <c>functions</c> functions, each a block of
+	 * <c>statements</c> assignments.
+	 */
+	public static String module(int functions, int statements) {
+		StringBuilder source = new StringBuilder();
+		for (int k = 0; k < functions; ++k)
+			source.append(block("f" + k, statements)).append('\n');
+		return source.toString();
+	}
+}
@@ -0,0 +1,123 @@
+package wyvc.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wyvc.benchmarks.TokenBenchmark.NullOutputStream;
+import wyvc.io.TextualOutputStream;
+
+/**
+ * Measures the emission of lines of text through a TextualOutputStream, to a
+ * byte stream and to a channel, both discarding their bytes, and to a file.
+ * The lines are indented and padded, as the lines of a VHDL file are.
+ *
+ * The <c>file</c> benchmark reports its throughput in bytes per second, as the
+ * <c>bytes</c> counter, which divided by a million gives the MB/s of the
+ * emission, system calls included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = Settings.FORKS, jvmArgsAppend = {Settings.XMS, Settings.XMX})
+@Warmup(iterations = Settings.WARMUP_ITERATIONS, time = Settings.ITERATION_TIME)
+@Measurement(iterations = Settings.MEASUREMENT_ITERATIONS, time = Settings.ITERATION_TIME)
+public class TextualOutputStreamBenchmark {
+	/**
+	 * Channel discarding what is written to it.
+	 */
+	static final class NullChannel implements WritableByteChannel {
+		@Override
+		public int write(ByteBuffer src) {
+			int written = src.remaining();
+			src.position(src.limit());
+			return written;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * Counts the bytes written by the invocations of an iteration.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters
+	public static class Bytes {
+		public long bytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			bytes = 0;
+		}
+	}
+
+	@Param({"10000"})
+	public int lines;
+
+	private File file;
+
+	@Setup(Level.Trial)
+	public void createFile() throws IOException {
+		file = File.createTempFile("wyvc-benchmark", ".vhd");
+		file.deleteOnExit();
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteFile() {
+		file.delete();
+	}
+
+	@Benchmark
+	public long stream() throws IOException {
+		return emit(new TextualOutputStream(new NullOutputStream()));
+	}
+
+	@Benchmark
+	public long channel() throws IOException {
+		return emit(new TextualOutputStream(new NullChannel()));
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public long file(Bytes counter) throws IOException {
+		try (FileOutputStream output = new FileOutputStream(file)) {
+			long written = emit(new TextualOutputStream(output));
+			counter.bytes += written;
+			return written;
+		}
+	}
+
+	private long emit(TextualOutputStream output) throws IOException {
+		output.indent();
+		for (int k = 0; k < lines; ++k)
+			output.w("v_a_").w(k).w(" := v_a_").w(k).fill(4).w("+ s_input").semiColon().endLine();
+		output.dedent().flush();
+		return output.getWritten();
+	}
+}
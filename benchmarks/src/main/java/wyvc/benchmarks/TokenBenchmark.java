@@ -0,0 +1,82 @@
+package wyvc.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import wyvc.io.TextualOutputStream;
+import wyvc.io.Tokenisable.Token;
+import wyvc.lang.VHDLFile;
+
+/**
+ * Measures the building of the token chain of a VHDL file, and its writing,
+ * aligned or compact, to a stream discarding its bytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = Settings.FORKS, jvmArgsAppend = {Settings.XMS, Settings.XMX})
+@Warmup(iterations = Settings.WARMUP_ITERATIONS, time = Settings.ITERATION_TIME)
+@Measurement(iterations = Settings.MEASUREMENT_ITERATIONS, time = Settings.ITERATION_TIME)
+public class TokenBenchmark {
+	/**
+	 * Output stream discarding what is written to it.
+	 */
+	static final class NullOutputStream extends OutputStream {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+
+	@Param({"10", "100"})
+	public int entities;
+
+	@Param({"10", "1000"})
+	public int statements;
+
+	@Param({"false", "true"})
+	public boolean compact;
+
+	private VHDLFile file;
+	private Token chain;
+
+	@Setup(Level.Trial)
+	public void createFile() throws Exception {
+		file = Entities.file(entities, statements);
+		chain = tokenise();
+	}
+
+	@Benchmark
+	public Token tokenise() {
+		Token.StartToken start = new Token.StartToken();
+		file.addTokens(start);
+		return start;
+	}
+
+	@Benchmark
+	public int write() throws IOException {
+		TextualOutputStream output = new TextualOutputStream(new NullOutputStream());
+		if (compact)
+			output.setIndentationSize(0);
+		int tokens = chain.write(output, compact);
+		output.flush();
+		return tokens;
+	}
+}
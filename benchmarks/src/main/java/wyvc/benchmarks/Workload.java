@@ -0,0 +1,127 @@
+package wyvc.benchmarks;
+
+import java.io.IOException;
+
+/**
+ * The Workload class generates modules of functions whose size is set along
+ * independent dimensions, to measure how the compiler scales with each of
+ * them (see {@link ScalingReport}).
+ *
+ * The function <c>f&lt;k&gt;</c> of a module declares {@link #variables}
+ * variables, assigns them in {@link #statements} statements whose expressions
+ * are chains of {@link #depth} operators, and calls the {@link #fanIn}
+ * functions preceding it, so that each function is called by up to
+ * {@link #fanIn} others. The modules only depend on the dimensions.
+ */
+public final class Workload {
+	public static enum Dimension {
+		FUNCTIONS,
+		STATEMENTS,
+		DEPTH,
+		FAN_IN,
+		VARIABLES
+	}
+
+	public final int functions;
+	public final int statements;
+	public final int depth;
+	public final int fanIn;
+	public final int variables;
+
+	public Workload(int functions, int statements, int depth, int fanIn, int variables) {
+		if (functions < 1 || statements < 0 || depth < 0 || fanIn < 0 || variables < 1)
+			throw new IllegalArgumentException("Invalid workload " + functions + " function(s), " + statements
+				+ " statement(s), depth " + depth + ", fan-in " + fanIn + ", " + variables + " variable(s)");
+		this.functions = functions;
+		this.statements = statements;
+		this.depth = depth;
+		this.fanIn = fanIn;
+		this.variables = variables;
+	}
+
+	public int get(Dimension dimension) {
+		switch (dimension) {
+		case FUNCTIONS:		return functions;
+		case STATEMENTS:	return statements;
+		case DEPTH:			return depth;
+		case FAN_IN:		return fanIn;
+		case VARIABLES:		return variables;
+		default:			throw new IllegalArgumentException("Unknown dimension " + dimension);
+		}
+	}
+
+	/**
+	 * Returns the workload with the dimension set to the value, and the
+	 * other dimensions unchanged.
+	 */
+	public Workload with(Dimension dimension, int value) {
+		return new Workload(
+			dimension == Dimension.FUNCTIONS ? value : functions,
+			dimension == Dimension.STATEMENTS ? value : statements,
+			dimension == Dimension.DEPTH ? value : depth,
+			dimension == Dimension.FAN_IN ? value : fanIn,
+			dimension == Dimension.VARIABLES ? value : variables);
+	}
+
+	/**
+	 * Adds the given number of modules of the workload to the project.
+	 */
+	public void addTo(InMemoryProject project, int modules) throws IOException {
+		String source = module();
+		for (int k = 0; k < modules; ++k)
+			project.addSource("w" + k, source);
+	}
+
+	public String module() {
+		StringBuilder source = new StringBuilder();
+		for (int k = 0; k < functions; ++k)
+			appendFunction(source, k);
+		return source.toString();
+	}
+
+	private void appendFunction(StringBuilder source, int k) {
+		source.append("function f").append(k).append('(');
+		for (int p = 0; p < Sources.PARAMETERS; ++p)
+			source.append(p == 0 ? "" : ", ").append("int x").append(p);
+		source.append(") -> (int r):\n");
+		for (int v = 0; v < variables; ++v)
+			source.append("    int v").append(v).append(" = x").append(v % Sources.PARAMETERS).append('\n');
+		int calls = Math.min(fanIn, k);
+		for (int s = 0; s < statements; ++s) {
+			source.append("    v").append(s % variables).append(" = ");
+			// The calls are spread over the statements, to the preceding functions.
+			if (s * calls / statements != (s + 1) * calls / statements)
+				appendCall(source, k - 1 - s * calls / statements, s);
+			else
+				appendVariable(source, s);
+			for (int d = 1; d <= depth; ++d) {
+				source.append(d % 2 == 0 ? " - " : " + ");
+				appendVariable(source, s + d);
+			}
+			source.append('\n');
+		}
+		source.append("    return v0");
+		for (int v = 1; v < variables; ++v)
+			source.append(" + v").append(v);
+		source.append("\n\n");
+	}
+
+	private void appendVariable(StringBuilder source, int k) {
+		source.append('v').append(k % variables);
+	}
+
+	private void appendCall(StringBuilder source, int callee, int s) {
+		source.append('f').append(callee).append('(');
+		for (int p = 0; p < Sources.PARAMETERS; ++p) {
+			source.append(p == 0 ? "" : ", ");
+			appendVariable(source, s + p);
+		}
+		source.append(')');
+	}
+
+	@Override
+	public String toString() {
+		return functions + " function(s), " + statements + " statement(s), depth " + depth + ", fan-in " + fanIn
+			+ ", " + variables + " variable(s)";
+	}
+}
@@ -0,0 +1,25 @@
+/**
+ * JMH benchmarks of the hot paths of the compiler : the compilation of
+ * expressions and blocks, the building and writing of token chains, the
+ * emission of text, and whole builds.
+ *
+ * The benchmarks are run from the shaded jar of the module, after installing
+ * the compiler into the local repository :
+ * <pre>
+ * mvn -B install
+ * cd benchmarks
+ * mvn -B package
+ * java -jar target/benchmarks.jar -rf json -rff results.json
+ * </pre>
+ * Their inputs are generated deterministically by {@link wyvc.benchmarks.Sources}
+ * and {@link wyvc.benchmarks.Entities}, and their forks, warmup and heap size
+ * are fixed by {@link wyvc.benchmarks.Settings}, so that the results of two
+ * releases measured on the same machine can be compared.
+ *
+ * {@link wyvc.benchmarks.ScalingReport} measures how builds scale with the
+ * dimensions of a generated {@link wyvc.benchmarks.Workload} :
+ * <pre>
+ * java -cp target/benchmarks.jar wyvc.benchmarks.ScalingReport 5 5 scaling.csv
+ * </pre>
+ */
+package wyvc.benchmarks;
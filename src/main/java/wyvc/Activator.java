@@ -31,11 +31,15 @@ public class Activator implements Module.Activator {
 			return new VHDLFile();//reader.readClass();
 		}
 
+		/**
+		 * Files are written through their channel, as ASCII bytes. Any other
+		 * output goes through a character stream.
+		 */
 		@Override
 		public void write(OutputStream output, VHDLFile module)
 				throws IOException {
 
-			VHDLFileWritter writer = new VHDLFileWritter(new TextualOutputStream(output));
+			VHDLFileWritter writer = new VHDLFileWritter(TextualOutputStream.open(output));
 			writer.write(module);
 		}
 
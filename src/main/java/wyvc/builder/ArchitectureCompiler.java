@@ -4,6 +4,7 @@ package wyvc.builder;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import wyil.lang.Bytecode;
@@ -29,7 +30,6 @@ import wyvc.lang.TypedValue.Port.Mode;
 import wyvc.lang.TypedValue.PortException;
 import wyvc.lang.TypedValue.Signal;
 import wyvc.lang.TypedValue.Variable;
-import wyvc.lang.Expression.Access;
 import wyvc.lang.Expression.TypesMismatchException;
 import wyvc.builder.Utils;
 
@@ -37,7 +37,7 @@ public class ArchitectureCompiler {
 
 	public static class ArchitectureData {
 		public final Entity entity;
-		public Map<Integer, TypedValue> values = new HashMap<Integer, TypedValue>();
+		public final ValueTable values = new ValueTable();
 		public ArrayList<Signal> signals = new ArrayList<>();
 		public ArrayList<Signal> sensitive = new ArrayList<>();
 		public ArrayList<Variable> variables = new ArrayList<>();
@@ -45,64 +45,200 @@ public class ArchitectureCompiler {
 		public Map<String, Component> components = new HashMap<String, Component>();
 		public ArrayList<ConcurrentStatement> statements = new ArrayList<>();
 		public ArrayList<SequentialStatement> processStatements = new ArrayList<>();
+		public ArrayList<Invocation> invocations = new ArrayList<>();
+		public final ExpressionDAG expressions = new ExpressionDAG();
+		public final Timing timing;
+		public final Arithmetic arithmetic;
+		public final Widths widths;
+		public final ArithmeticMapper mapper;
+		public final Simplifier simplifier;
+
+		/**
+		 * Number of locations visited by the compilers.
+		 */
+		public int locations = 0;
 
 		public ArchitectureData(Entity entity) {
+			this(entity, Timing.COMBINATIONAL);
+		}
+
+		public ArchitectureData(Entity entity, Timing timing) {
+			this(entity, timing, new Widths());
+		}
+
+		public ArchitectureData(Entity entity, Timing timing, Widths widths) {
+			this(entity, timing, widths, Arithmetic.DEFAULT);
+		}
+
+		public ArchitectureData(Entity entity, Timing timing, Widths widths, Arithmetic arithmetic) {
 			this.entity = entity;
+			this.timing = timing;
+			this.widths = widths;
+			this.arithmetic = arithmetic;
+			this.mapper = new ArithmeticMapper(this, arithmetic);
+			this.simplifier = new Simplifier(widths, mapper);
+		}
+
+		/**
+		 * Adds the assignment of the variable to the process.
+		 */
+		public void assign(Variable variable, Expression expr) throws TypesMismatchException, PortException {
+			processStatements.add(new VariableAssignment(variable, expr));
+			expressions.assigned(variable);
+			simplifier.assigned(variable, expr);
 		}
 	}
 
 
+	/**
+	 * A component invoked by an entity in handshake mode. Its arguments are
+	 * assigned to signals by the process, and its results read from other
+	 * ones : its instance is built along with the handshakes, once the whole
+	 * datapath is known (see {@link HandshakeBuilder}).
+	 */
+	public static class Invocation {
+		public final String ident;
+		public final Component component;
+		public final List<Signal> arguments = new ArrayList<>();
+		public final List<Signal> results = new ArrayList<>();
+
+		public Invocation(String ident, Component component) {
+			this.ident = ident;
+			this.component = component;
+		}
+	}
+
+
+	/**
+	 * Compiles a statement of a given opcode.
+	 */
+	@FunctionalInterface
+	public static interface Handler {
+		void compile(ArchitectureCompiler compiler, Location<?> location) throws VHDLCompilationException, VHDLException;
+	}
+
+	private static final OpcodeTable<Handler> handlers = registerHandlers(new OpcodeTable.Builder<>("statement")).build();
+
+	@SuppressWarnings("unchecked")
+	private static OpcodeTable.Builder<Handler> registerHandlers(OpcodeTable.Builder<Handler> handlers) {
+		return handlers
+			.register(Bytecode.OPCODE_vardecl, (ArchitectureCompiler c, Location<?> l) -> c.compileVariableDeclaration((Location<Bytecode.VariableDeclaration>) l))
+			.register(Bytecode.OPCODE_vardeclinit, (ArchitectureCompiler c, Location<?> l) -> c.compileVariableDeclaration((Location<Bytecode.VariableDeclaration>) l))
+			.register(Bytecode.OPCODE_return, (ArchitectureCompiler c, Location<?> l) -> c.compileReturn((Location<Bytecode.Return>) l))
+			.register(Bytecode.OPCODE_block, (ArchitectureCompiler c, Location<?> l) -> c.compileBlock((Location<Bytecode.Block>) l))
+			.register(Bytecode.OPCODE_assign, (ArchitectureCompiler c, Location<?> l) -> c.compileAssign((Location<Bytecode.Assign>) l));
+	}
+
 	private ArchitectureData architecture;
+	private final Diagnostics diagnostics;
+
+	/**
+	 * Whether the compilation of the entity is traced.
+	 */
+	private final boolean tracing;
 
-	public ArchitectureCompiler(Entity entity) throws TypesMismatchException, PortException {
-		this.architecture = new ArchitectureData(entity);
+	/**
+	 * Control ports of a synchronous entity, by name.
+	 */
+	private final Map<String, Port> controls = new HashMap<>();
+
+	public ArchitectureData getArchitecture() {
+		return architecture;
+	}
+
+	public ExpressionDAG getExpressions() {
+		return architecture.expressions;
+	}
+
+	public ArchitectureCompiler(Entity entity) throws VHDLException {
+		this(entity, Diagnostics.NONE);
+	}
+
+	public ArchitectureCompiler(Entity entity, Diagnostics diagnostics) throws VHDLException {
+		this(entity, diagnostics, Timing.COMBINATIONAL);
+	}
+
+	public ArchitectureCompiler(Entity entity, Diagnostics diagnostics, Timing timing) throws VHDLException {
+		this(entity, diagnostics, timing, new Widths());
+	}
+
+	public ArchitectureCompiler(Entity entity, Diagnostics diagnostics, Timing timing, Widths widths) throws VHDLException {
+		this(entity, diagnostics, timing, widths, Arithmetic.DEFAULT);
+	}
+
+	/**
+	 * The inputs of the entity are read into variables of the narrowest type
+	 * holding the ranges of the parameters given by the widths. The
+	 * multiplicative operations are mapped as the arithmetic describes.
+	 */
+	public ArchitectureCompiler(Entity entity, Diagnostics diagnostics, Timing timing, Widths widths,
+			Arithmetic arithmetic) throws VHDLException {
+		this.architecture = new ArchitectureData(entity, timing, widths, arithmetic);
+		this.diagnostics = diagnostics;
+		this.tracing = diagnostics.traces(entity.ident);
 		int inPort = 0;
-		int outPort = 1;
 		for(Port p : entity.interface_.ports) {
-			if (p.mode == Mode.IN) {
-				Variable v = new Variable("v_"+p.ident.substring(2), p.type);
+			if (timing.isSynchronous() && Timing.isControlPort(p))
+				controls.put(p.ident, p);
+			else if (p.mode == Mode.IN) {
+				Range range = widths.getParameter(inPort);
+				Variable v = new Variable("v_"+p.ident.substring(2), p.type instanceof Type.Signed ? Widths.type(range) : p.type);
 				architecture.variables.add(v);
 				architecture.sensitive.add(p);
 				architecture.values.put(inPort++, v);
-				architecture.processStatements.add(new VariableAssignment(v, new Access(p)));
+				architecture.assign(v, widths.fit(architecture.expressions, architecture.expressions.access(p), v.type));
+				widths.declare(v, range);
 			}
 			else
-				architecture.values.put(-outPort++, p);
+				architecture.values.addOutput(p);
 		}
 	}
 
 	public Architecture compile(Location<?> location) throws VHDLCompilationException, VHDLException {
 		compileStatements(location);
+		if (architecture.timing.isSynchronous())
+			return compilePipeline();
+		List<SequentialStatement> processStatements = architecture.expressions.hoist(architecture.processStatements, architecture.variables);
 		architecture.statements.add(new Process("main", architecture.variables.toArray(new Variable[0]), architecture.sensitive.toArray(new Signal[0]),
-			architecture.processStatements.toArray(new SequentialStatement[0])));
+			processStatements.toArray(new SequentialStatement[0])));
 		return new Architecture(architecture.entity, "Behavioural", architecture.signals.toArray(new Signal[0]), architecture.constants.toArray(new Constant[0]),
 			architecture.components.values().toArray(new Component[0]), architecture.statements.toArray(new ConcurrentStatement[0]));
 	}
 
-	@SuppressWarnings("unchecked")
-	private void compileStatements(Location<?> location) throws VHDLCompilationException, VHDLException {
-		Bytecode bytecode = location.getBytecode();
-		System.out.println(location.toString());
-		if (bytecode instanceof Bytecode.VariableDeclaration)
-			compileVariableDeclaration((Location<Bytecode.VariableDeclaration>) location);
-		else if (bytecode instanceof Bytecode.Return)
-			compileReturn((Location<Bytecode.Return>) location);
-		else if (bytecode instanceof Bytecode.Block)
-			compileBlock((Location<Bytecode.Block>) location);
-		else if (bytecode instanceof Bytecode.Assign)
-			compileAssign((Location<Bytecode.Assign>) location);
+	/**
+	 * Builds the architecture of a synchronous entity, whose datapath is cut
+	 * into stages by the {@link Pipeliner}, and wrapped into handshakes by the
+	 * {@link HandshakeBuilder} in handshake mode, and sets the latency of the
+	 * entity.
+	 */
+	private Architecture compilePipeline() throws VHDLException {
+		Pipeliner.Dataflow dataflow = Pipeliner.resolve(architecture);
+		if (architecture.timing.handshake)
+			architecture.statements.add(new HandshakeBuilder(architecture, controls, dataflow).build());
+		else
+			architecture.statements.add(Pipeliner.build(architecture, dataflow, controls.get(Timing.CLOCK),
+				controls.get(Timing.RESET), architecture.timing.depth, new ArrayList<>()));
+		return new Architecture(architecture.entity, "Pipelined", architecture.signals.toArray(new Signal[0]), architecture.constants.toArray(new Constant[0]),
+			architecture.components.values().toArray(new Component[0]), architecture.statements.toArray(new ConcurrentStatement[0]));
+	}
+
+	public void compileStatements(Location<?> location) throws VHDLCompilationException, VHDLException {
+		if (tracing)
+			diagnostics.trace(architecture.entity.ident, location.toString());
+		architecture.locations++;
+		handlers.get(location.getBytecode()).compile(this, location);
 	}
 
 	private void compileVariableDeclaration(Location<Bytecode.VariableDeclaration> location) throws VHDLCompilationException, VHDLException {
 		Bytecode.VariableDeclaration var = location.getBytecode();
-		Variable v = new Variable(var.getName()+"_"+architecture.values.size(),new Type.Signed(31, 0));
+		Variable v = new Variable(var.getName()+"_"+architecture.values.size(), architecture.widths.type(location.getType()));
 		architecture.values.put(location.getIndex(), v);
 		architecture.variables.add(v);
+		architecture.widths.declare(v, architecture.widths.range(location.getType()));
 		if (location.numberOfOperands() == 1) {
 			ExpressionCompiler expr = new ExpressionCompiler(architecture);
-			architecture.processStatements.add(new VariableAssignment(v, expr.compile(location.getOperand(0))));
+			architecture.assign(v, architecture.widths.fit(architecture.expressions, expr.compile(location.getOperand(0)), v.type));
 		}
-		// TODO Type !!
 	}
 
 
@@ -110,7 +246,9 @@ public class ArchitectureCompiler {
 	private void compileAssign(Location<Bytecode.Assign> location) throws VHDLCompilationException, VHDLException {
 		Location<?>[] lhs = location.getOperandGroup(SyntaxTree.LEFTHANDSIDE);
 		Location<?>[] rhs = location.getOperandGroup(SyntaxTree.RIGHTHANDSIDE);
-		Utils.printLocation(location, "");
+		if (tracing)
+			for (String line : Utils.describeLocation(location))
+				diagnostics.trace(architecture.entity.ident, line);
 		ExpressionCompiler expr = new ExpressionCompiler(architecture);
 		ArrayList<Expression> crhs = new ArrayList<>();
 		for (Location<?> l : rhs) {
@@ -119,16 +257,20 @@ public class ArchitectureCompiler {
 			else
 				crhs.add(expr.compile(l));
 		}
-		for (int k = 0; k < lhs.length; ++k)
-			architecture.processStatements.add(new VariableAssignment((Variable) architecture.values.get(lhs[k].getOperand(0).getIndex()),
-				crhs.get(k)));
+		for (int k = 0; k < lhs.length; ++k) {
+			Variable v = (Variable) architecture.values.get(lhs[k].getOperand(0).getIndex());
+			architecture.assign(v, architecture.widths.fit(architecture.expressions, crhs.get(k), v.type));
+		}
 	}
 
 	private void compileReturn(Location<Bytecode.Return> location) throws VHDLCompilationException, VHDLException {
 		ExpressionCompiler expr = new ExpressionCompiler(architecture);
 		int k = 0;
-		for(Location<?> l : location.getOperands())
-			architecture.processStatements.add(new SignalAssignment((Port) architecture.values.get(-++k), expr.compile(l)));
+		for(Location<?> l : location.getOperands()) {
+			Port output = architecture.values.getOutput(++k);
+			architecture.processStatements.add(new SignalAssignment(output,
+				architecture.widths.fit(architecture.expressions, expr.compile(l), output.type)));
+		}
 	}
 
 	private void compileBlock(Location<Bytecode.Block> location) throws VHDLCompilationException, VHDLException {
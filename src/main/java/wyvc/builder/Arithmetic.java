@@ -0,0 +1,67 @@
+package wyvc.builder;
+
+/**
+ * The Arithmetic class describes how the multiplicative operations are mapped
+ * onto the hardware by the {@link ArithmeticMapper} :
+ * <ul>
+ * <li> the products of two variables are left to the synthesis tools, which
+ * map them onto DSP blocks. In synchronous mode, the operands of the products
+ * of DSP blocks can be taken from registers and their results given to
+ * registers, which the DSP blocks absorb, so that a product is computed in a
+ * stage of its own.</li>
+ * <li> the products by a constant whose canonical signed digit form has at
+ * most <c>shiftAddTerms</c> non zero digits are sums of shifts of the other
+ * operand, and the other ones products of a DSP block.</li>
+ * <li> the quotients and remainders by a constant are computed from products
+ * by its reciprocal.</li>
+ * <li> in handshake mode, the quotients and remainders by a variable can be
+ * computed by a multi-cycle divider, which finds a bit of the quotient at
+ * each clock cycle. Otherwise they are left to the synthesis tools.</li>
+ * </ul>
+ */
+public final class Arithmetic {
+	public static final int DEFAULT_SHIFT_ADD_TERMS = 4;
+
+	public static final Arithmetic DEFAULT = new Arithmetic(false, false, DEFAULT_SHIFT_ADD_TERMS, false);
+
+	/**
+	 * Whether the operands of the products of DSP blocks are registered.
+	 */
+	public final boolean inputRegisters;
+
+	/**
+	 * Whether the products of DSP blocks are registered.
+	 */
+	public final boolean outputRegisters;
+
+	/**
+	 * Maximal number of non zero digits of a constant factor decomposed into
+	 * shifts and additions, 0 to map every product onto DSP blocks.
+	 */
+	public final int shiftAddTerms;
+
+	/**
+	 * Whether the divisions by a variable are computed by a multi-cycle
+	 * divider in handshake mode.
+	 */
+	public final boolean multiCycleDivider;
+
+	public Arithmetic(boolean inputRegisters, boolean outputRegisters, int shiftAddTerms, boolean multiCycleDivider) {
+		if (shiftAddTerms < 0)
+			throw new IllegalArgumentException("Number of shift-add terms cannot be negative, got "+shiftAddTerms);
+		this.inputRegisters = inputRegisters;
+		this.outputRegisters = outputRegisters;
+		this.shiftAddTerms = shiftAddTerms;
+		this.multiCycleDivider = multiCycleDivider;
+	}
+
+	/**
+	 * Describes the mapping in the configuration of the compiler, when it is
+	 * not the default one.
+	 */
+	public String describe() {
+		return (inputRegisters ? " dsp-input-registers" : "") + (outputRegisters ? " dsp-output-registers" : "")
+			+ (shiftAddTerms != DEFAULT_SHIFT_ADD_TERMS ? " shift-add " + shiftAddTerms : "")
+			+ (multiCycleDivider ? " multicycle-divider" : "");
+	}
+}
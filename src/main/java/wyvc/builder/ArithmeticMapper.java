@@ -0,0 +1,267 @@
+package wyvc.builder;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import wyvc.builder.ArchitectureCompiler.ArchitectureData;
+import wyvc.builder.ArchitectureCompiler.Invocation;
+import wyvc.lang.Component;
+import wyvc.lang.Entity;
+import wyvc.lang.Expression;
+import wyvc.lang.Expression.BinaryOperation;
+import wyvc.lang.Expression.Div;
+import wyvc.lang.Expression.Mul;
+import wyvc.lang.Expression.Rem;
+import wyvc.lang.LexicalElement.VHDLException;
+import wyvc.lang.Statement.SignalAssignment;
+import wyvc.lang.Type.Signed;
+import wyvc.lang.Type.VectorType;
+import wyvc.lang.TypedValue.Port;
+import wyvc.lang.TypedValue.Port.Mode;
+import wyvc.lang.TypedValue.Signal;
+
+/**
+ * The ArithmeticMapper class maps the multiplicative operations that the
+ * {@link Simplifier} leaves onto the hardware, as the {@link Arithmetic} of
+ * the compiler describes :
+ * <ul>
+ * <li> a product by a constant is a sum of shifts of the other operand, one
+ * for each non zero digit of the non adjacent form of the constant, which has
+ * the fewest of them : <c>x * 7</c> is <c>shift_left(x, 3) - x</c>. The
+ * constants with too many digits, and the variables, are the factors of a
+ * product left to a DSP block.</li>
+ * <li> a quotient by a constant <c>d</c> is the product of the dividend by
+ * <c>M = ceil(2^s / |d|)</c> shifted right by <c>s</c> bits, plus one for a
+ * negative dividend. The shift <c>s</c> is the smallest one for which the
+ * error of <c>M</c> times the greatest dividend is below <c>2^s</c>, so that
+ * the quotient is exact over the range of the dividend. A quotient by a power
+ * of two is a shift of the dividend, biased by <c>|d| - 1</c> when it is
+ * negative, and a remainder by a constant is the dividend minus the product of
+ * the quotient by the constant.</li>
+ * <li> in handshake mode, the quotient and the remainder by a variable can be
+ * read from a multi-cycle divider (see {@link DividerBuilder}), invoked as a
+ * component, which the quotient and the remainder of the same operands
+ * share.</li>
+ * </ul>
+ * The other operations are built by the {@link Widths}. The operations mapped
+ * are counted by mapping, for the statistics of the entity.
+ */
+public class ArithmeticMapper {
+	private final ArchitectureData architecture;
+	private final Arithmetic arithmetic;
+	private final Widths widths;
+
+	/**
+	 * Quotient and remainder read from the divider invoked for the operands
+	 * of a division.
+	 */
+	private final Map<List<Expression>, List<Expression>> divisions = new HashMap<>();
+	private final Map<String, Integer> mapped = new TreeMap<>();
+
+	public ArithmeticMapper(ArchitectureData architecture, Arithmetic arithmetic) {
+		this.architecture = architecture;
+		this.arithmetic = arithmetic;
+		this.widths = architecture.widths;
+	}
+
+	/**
+	 * Describes the number of operations mapped onto each kind of hardware.
+	 */
+	public String describeMappedOperations() {
+		StringBuilder description = new StringBuilder();
+		for (Map.Entry<String, Integer> e : mapped.entrySet())
+			(description.length() == 0 ? description : description.append(", "))
+				.append(e.getKey()).append(' ').append(e.getValue());
+		return description.toString();
+	}
+
+	private Expression count(String mapping, Expression expr) {
+		mapped.merge(mapping, 1, Integer::sum);
+		return expr;
+	}
+
+	/**
+	 * Returns the multiplicative operation mapped onto the hardware.
+	 */
+	public Expression operation(ExpressionDAG dag, ExpressionDAG.Operator operator, Expression arg1, Expression arg2)
+			throws VHDLException {
+		if (!(arg1.getType() instanceof Signed) || !(arg2.getType() instanceof Signed))
+			return widths.operation(dag, operator, arg1, arg2);
+		BinaryOperation probe = operator.build(arg1, arg2);
+		BigInteger c1 = Simplifier.integer(arg1);
+		BigInteger c2 = Simplifier.integer(arg2);
+		if (probe instanceof Mul && (c1 == null) != (c2 == null)) {
+			BigInteger constant = c2 != null ? c2 : c1;
+			return count(isShiftAdd(constant) ? "shift-add" : "dsp",
+				product(dag, c2 != null ? arg1 : arg2, constant));
+		}
+		if (probe instanceof Mul)
+			return count("dsp", widths.operation(dag, operator, arg1, arg2));
+		boolean division = probe instanceof Div || probe instanceof Rem;
+		if (division && c1 == null && c2 != null && c2.signum() != 0) {
+			Expression quotient = quotient(dag, arg1, c2);
+			if (quotient != null)
+				return count("reciprocal", probe instanceof Div ? quotient : remainder(dag, arg1, c2, quotient));
+		}
+		if (division && c2 == null && architecture.timing.handshake && arithmetic.multiCycleDivider)
+			return count("divider", divide(dag, arg1, arg2).get(probe instanceof Div ? 0 : 1));
+		return widths.operation(dag, operator, arg1, arg2);
+	}
+
+	/**
+	 * Checks whether the constant has few enough non zero digits for its
+	 * products to be sums of shifts.
+	 */
+	private boolean isShiftAdd(BigInteger constant) {
+		int terms = 0;
+		for (int digit : nonAdjacentForm(constant))
+			terms += Math.abs(digit);
+		return terms <= arithmetic.shiftAddTerms;
+	}
+
+	/**
+	 * Returns the product of the expression by the constant, as a sum of
+	 * shifts of the expression when the constant has few enough digits. The
+	 * product is not counted, since it may be part of another mapping.
+	 */
+	private Expression product(ExpressionDAG dag, Expression expr, BigInteger constant) throws VHDLException {
+		if (!isShiftAdd(constant))
+			return widths.operation(dag, ExpressionCompiler.MUL, expr, widths.literal(dag, constant));
+		int[] digits = nonAdjacentForm(constant);
+		Expression sum = null;
+		for (int sign = 1; sign >= -1; sign -= 2)
+			for (int k = digits.length - 1; k >= 0; --k)
+				if (digits[k] == sign) {
+					Expression term = k == 0 ? expr : widths.shiftLeft(dag, expr, k);
+					sum = sum == null ? (sign > 0 ? term : widths.operation(dag, ExpressionCompiler.SUB,
+						widths.literal(dag, BigInteger.ZERO), term))
+						: widths.operation(dag, sign > 0 ? ExpressionCompiler.ADD : ExpressionCompiler.SUB, sum, term);
+				}
+		return widths.restrict(dag, sum, widths.range(expr).multiply(Range.of(constant)));
+	}
+
+	/**
+	 * Returns the digits of the non adjacent form of the constant, from the
+	 * least significant one : each digit is -1, 0 or 1, no two consecutive
+	 * digits are non zero, and the number of non zero digits is minimal.
+	 */
+	private static int[] nonAdjacentForm(BigInteger constant) {
+		int[] digits = new int[constant.abs().bitLength() + 1];
+		for (int k = 0; constant.signum() != 0; ++k, constant = constant.shiftRight(1))
+			if (constant.testBit(0)) {
+				digits[k] = constant.testBit(1) ? -1 : 1;
+				constant = constant.subtract(BigInteger.valueOf(digits[k]));
+			}
+		return digits;
+	}
+
+	/**
+	 * Returns the quotient, truncated toward zero, of the expression by the
+	 * constant, or null when the factor of its reciprocal does not fit in a
+	 * VHDL integer.
+	 */
+	private Expression quotient(ExpressionDAG dag, Expression expr, BigInteger divisor) throws VHDLException {
+		Range range = widths.range(expr);
+		BigInteger d = divisor.abs();
+		int length = ((VectorType) expr.getType()).lenght();
+		Expression quotient;
+		if (d.bitCount() == 1) {
+			int k = d.bitLength() - 1;
+			if (k == 0)
+				quotient = expr;
+			else if (range.isNonNegative())
+				quotient = widths.shiftRight(dag, expr, k);
+			else {
+				Expression bias = widths.operation(dag, ExpressionCompiler.AND, widths.shiftRight(dag, expr, length - 1),
+					widths.literal(dag, d.subtract(BigInteger.ONE)));
+				quotient = widths.shiftRight(dag, widths.operation(dag, ExpressionCompiler.ADD, expr, bias), k);
+			}
+		}
+		else {
+			BigInteger greatest = range.magnitude();
+			int shift = 0;
+			BigInteger factor;
+			while (true) {
+				BigInteger power = BigInteger.ONE.shiftLeft(shift);
+				factor = power.add(d).subtract(BigInteger.ONE).divide(d);
+				if (factor.multiply(d).subtract(power).multiply(greatest).compareTo(power) < 0)
+					break;
+				++shift;
+			}
+			if (factor.bitLength() >= Widths.DEFAULT_WIDTH)
+				return null;
+			Expression product = dag.operation(ExpressionCompiler.MUL, expr,
+				widths.fit(dag, widths.literal(dag, factor), Widths.type(Range.of(factor))));
+			product = widths.restrict(dag, product, range.multiply(Range.of(factor)));
+			quotient = widths.shiftRight(dag, product, shift);
+			if (!range.isNonNegative())
+				quotient = widths.operation(dag, ExpressionCompiler.SUB, quotient, widths.shiftRight(dag, expr, length - 1));
+		}
+		if (divisor.signum() < 0)
+			quotient = widths.operation(dag, ExpressionCompiler.SUB, widths.literal(dag, BigInteger.ZERO), quotient);
+		return widths.restrict(dag, quotient, range.divide(Range.of(divisor)));
+	}
+
+	/**
+	 * Returns the remainder of the expression by the constant, from their
+	 * quotient.
+	 */
+	private Expression remainder(ExpressionDAG dag, Expression expr, BigInteger divisor, Expression quotient)
+			throws VHDLException {
+		Expression remainder = widths.operation(dag, ExpressionCompiler.SUB, expr, product(dag, quotient, divisor));
+		return widths.restrict(dag, remainder, widths.range(expr).remainder(Range.of(divisor)));
+	}
+
+	/**
+	 * Returns the quotient and the remainder of the operands, read from an
+	 * invocation of the multi-cycle divider of their width. The arguments are
+	 * assigned by the process and the invocation is added to the
+	 * architecture, as the {@link ExpressionCompiler} does for the invoked
+	 * functions. The dividers are declared along with the entity.
+	 */
+	private List<Expression> divide(ExpressionDAG dag, Expression dividend, Expression divisor) throws VHDLException {
+		List<Expression> key = Arrays.asList(dividend, divisor);
+		List<Expression> results = divisions.get(key);
+		if (results != null)
+			return results;
+		Range quotientRange = widths.range(dividend).divide(widths.range(divisor));
+		Range remainderRange = widths.range(dividend).remainder(widths.range(divisor));
+		int width = Math.max(Widths.width(quotientRange), Math.max(((VectorType) dividend.getType()).lenght(),
+			((VectorType) divisor.getType()).lenght()));
+		String ident = architecture.entity.ident + "_divider_" + width;
+		if (!architecture.components.containsKey(ident)) {
+			Entity divider = DividerBuilder.build(ident, width, architecture.timing);
+			architecture.entity.addDependency(divider);
+			architecture.components.put(ident, new Component(ident, divider.interface_));
+		}
+		Invocation invocation = new Invocation(ident + "_" + architecture.invocations.size(), architecture.components.get(ident));
+		results = new ArrayList<>();
+		for (Port p : invocation.component.interface_.ports) {
+			if (Timing.isControlPort(p))
+				continue;
+			Signal s = new Signal(invocation.ident + "_" + (p.mode == Mode.IN
+				? "in_" + invocation.arguments.size() : "out_" + invocation.results.size()), p.type);
+			architecture.signals.add(s);
+			if (p.mode == Mode.IN)
+				invocation.arguments.add(s);
+			else {
+				Range range = invocation.results.isEmpty() ? quotientRange : remainderRange;
+				invocation.results.add(s);
+				widths.declare(s, range);
+				results.add(widths.narrow(dag, dag.access(s), range));
+			}
+		}
+		architecture.processStatements.add(new SignalAssignment(invocation.arguments.get(0),
+			widths.fit(dag, dividend, invocation.arguments.get(0).type)));
+		architecture.processStatements.add(new SignalAssignment(invocation.arguments.get(1),
+			widths.fit(dag, divisor, invocation.arguments.get(1).type)));
+		architecture.invocations.add(invocation);
+		divisions.put(key, results);
+		return results;
+	}
+}
@@ -0,0 +1,400 @@
+package wyvc.builder;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import wyfs.lang.Path;
+
+/**
+ * The BuildCache class records, for each compiled WyIL file, a hash of its
+ * contents and a hash of the VHDL file generated from it. It is persisted in a
+ * manifest file between builds, so that a WyIL file which has not changed
+ * since the previous build, and whose VHDL file is still the one that was
+ * generated, is neither compiled nor written again.
+ *
+ * Within a file that has changed, the cache also records the fingerprint of
+ * each function (see {@link FunctionFingerprint}) along with the VHDL code of
+ * its entity, so that only the functions that have changed are compiled again.
+ * The code of the entities is kept in a directory next to the manifest, in one
+ * file per entity named after the hash of its contents.
+ *
+ * The manifest is a text file starting with the configuration of the compiler
+ * which generated the files :
+ * <pre> configuration	description </pre>
+ * followed by one line per source file :
+ * <pre> source_id	wyil_hash	vhdl_hash </pre>
+ * followed by one line per function of these files :
+ * <pre> entity	source_id	function_key	body_hash	interface_hash	callees	entity_hash </pre>
+ * where callees lists the <c>name=interface_hash</c> pairs of the invoked
+ * functions, separated by commas.
+ */
+public class BuildCache {
+	private static final String HASH_ALGORITHM = "SHA-256";
+
+	private static final String ENTITY_RECORD = "entity";
+	private static final String CONFIGURATION_RECORD = "configuration";
+	private static final String FRAGMENT_SUFFIX = ".vhd";
+
+	private static class Record {
+		public final String wyilHash;
+		public final String vhdlHash;
+
+		public Record(String wyilHash, String vhdlHash) {
+			this.wyilHash = wyilHash;
+			this.vhdlHash = vhdlHash;
+		}
+	}
+
+	public static class FunctionRecord {
+		public final String bodyHash;
+		public final String interfaceHash;
+		public final Map<String, String> callees;
+		public final String entityHash;
+
+		public FunctionRecord(FunctionFingerprint fingerprint, String entityHash) {
+			this(fingerprint.bodyHash, fingerprint.interfaceHash, fingerprint.callees, entityHash);
+		}
+
+		private FunctionRecord(String bodyHash, String interfaceHash, Map<String, String> callees, String entityHash) {
+			this.bodyHash = bodyHash;
+			this.interfaceHash = interfaceHash;
+			this.callees = callees;
+			this.entityHash = entityHash;
+		}
+
+		public boolean matches(FunctionFingerprint fingerprint) {
+			return bodyHash.equals(fingerprint.bodyHash) && interfaceHash.equals(fingerprint.interfaceHash)
+				&& callees.equals(fingerprint.callees);
+		}
+	}
+
+	private final File manifest;
+	private final File entities;
+	private final Map<String, Record> records = new HashMap<>();
+	private final Map<String, Map<String, FunctionRecord>> functions = new HashMap<>();
+	private boolean modified = false;
+
+	/**
+	 * Configuration of the compiler which generated the recorded files.
+	 */
+	private String configuration = null;
+
+	/**
+	 * Modification time of the manifest when it was last loaded or saved.
+	 */
+	private long manifestTime = 0;
+	private int hits = 0;
+	private int misses = 0;
+	private int functionHits = 0;
+	private int functionMisses = 0;
+
+	private BuildCache(File manifest) {
+		this.manifest = manifest;
+		this.entities = new File(manifest.getPath() + ".entities");
+	}
+
+	/**
+	 * Loads the cache from its manifest. A missing manifest gives an empty
+	 * cache, and the manifest is created by the first call to save. The
+	 * records of a manifest which does not tell the configuration of the
+	 * compiler are dropped, since nothing tells whether their files were
+	 * generated in the mode of the build, compact or not.
+	 */
+	public static BuildCache load(File manifest) throws IOException {
+		BuildCache cache = new BuildCache(manifest);
+		if (manifest.exists()) {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+					Files.newInputStream(manifest.toPath()), StandardCharsets.UTF_8))) {
+				for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+					String[] fields = line.split("\t", -1);
+					if (fields.length == 2 && fields[0].equals(CONFIGURATION_RECORD))
+						cache.configuration = fields[1];
+					else if (fields.length == 3)
+						cache.records.put(fields[0], new Record(fields[1], fields[2]));
+					else if (fields.length == 7 && fields[0].equals(ENTITY_RECORD))
+						cache.functionsOf(fields[1]).put(fields[2],
+							new FunctionRecord(fields[3], fields[4], parseCallees(fields[5]), fields[6]));
+				}
+			}
+			cache.manifestTime = manifest.lastModified();
+			if (cache.configuration == null && !(cache.records.isEmpty() && cache.functions.isEmpty())) {
+				cache.records.clear();
+				cache.functions.clear();
+				cache.modified = true;
+			}
+		}
+		return cache;
+	}
+
+	public synchronized void save() throws IOException {
+		if (!modified)
+			return;
+		File parent = manifest.getAbsoluteFile().getParentFile();
+		if (parent != null)
+			parent.mkdirs();
+		File temporary = new File(manifest.getPath() + ".tmp");
+		try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+				Files.newOutputStream(temporary.toPath()), StandardCharsets.UTF_8))) {
+			if (configuration != null)
+				writer.append(CONFIGURATION_RECORD).append('\t').append(configuration).append('\n');
+			for (Map.Entry<String, Record> e : records.entrySet())
+				writer.append(e.getKey()).append('\t').append(e.getValue().wyilHash).append('\t')
+					.append(e.getValue().vhdlHash).append('\n');
+			for (Map.Entry<String, Map<String, FunctionRecord>> s : functions.entrySet())
+				for (Map.Entry<String, FunctionRecord> f : s.getValue().entrySet())
+					writer.append(ENTITY_RECORD).append('\t').append(s.getKey()).append('\t').append(f.getKey())
+						.append('\t').append(f.getValue().bodyHash).append('\t').append(f.getValue().interfaceHash)
+						.append('\t').append(formatCallees(f.getValue().callees)).append('\t')
+						.append(f.getValue().entityHash).append('\n');
+		}
+		Files.move(temporary.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		deleteUnusedEntities();
+		modified = false;
+		manifestTime = manifest.lastModified();
+	}
+
+	/**
+	 * Sets the configuration of the compiler of the build. The records of the
+	 * files generated with another configuration are dropped, since their
+	 * code is not the one the build would generate.
+	 */
+	public synchronized void setConfiguration(String configuration) {
+		if (configuration.equals(this.configuration))
+			return;
+		records.clear();
+		functions.clear();
+		this.configuration = configuration;
+		modified = true;
+	}
+
+	/**
+	 * Checks whether the manifest was changed by someone else since it was
+	 * loaded or saved by this cache, in which case the cache has to be loaded
+	 * again.
+	 */
+	public synchronized boolean isStale() {
+		return manifest.lastModified() != manifestTime;
+	}
+
+	/**
+	 * Resets the counters of hits and misses, so that a cache kept between
+	 * builds reports the figures of each build.
+	 */
+	public synchronized void resetCounters() {
+		hits = 0;
+		misses = 0;
+		functionHits = 0;
+		functionMisses = 0;
+	}
+
+	private void deleteUnusedEntities() {
+		File[] files = entities.listFiles();
+		if (files == null)
+			return;
+		Set<String> used = new HashSet<>();
+		for (Map<String, FunctionRecord> f : functions.values())
+			for (FunctionRecord r : f.values())
+				used.add(r.entityHash + FRAGMENT_SUFFIX);
+		for (File file : files)
+			if (!used.contains(file.getName()))
+				file.delete();
+	}
+
+	private Map<String, FunctionRecord> functionsOf(String source) {
+		Map<String, FunctionRecord> records = functions.get(source);
+		if (records == null)
+			functions.put(source, records = new HashMap<>());
+		return records;
+	}
+
+	private static Map<String, String> parseCallees(String field) {
+		Map<String, String> callees = new TreeMap<>();
+		if (!field.isEmpty())
+			for (String callee : field.split(",")) {
+				int i = callee.indexOf('=');
+				callees.put(callee.substring(0, i), callee.substring(i + 1));
+			}
+		return callees;
+	}
+
+	private static String formatCallees(Map<String, String> callees) {
+		StringBuilder field = new StringBuilder();
+		for (Map.Entry<String, String> e : callees.entrySet())
+			(field.length() == 0 ? field : field.append(',')).append(e.getKey()).append('=').append(e.getValue());
+		return field.toString();
+	}
+
+	/**
+	 * Checks whether the manifest holds a record for the source with the given
+	 * hash, without checking the target.
+	 */
+	public synchronized boolean matches(Path.Entry<?> source, String wyilHash) {
+		Record record = records.get(key(source));
+		return record != null && record.wyilHash.equals(wyilHash);
+	}
+
+	/**
+	 * Checks whether the target was generated, during a previous build, from a
+	 * source with the given hash, and has not been modified since.
+	 *
+	 * @param source	The WyIL file
+	 * @param wyilHash	Hash of the current contents of the source
+	 * @param target	The VHDL file derived from the source, or null if it
+	 * 					does not exist
+	 */
+	public boolean isUpToDate(Path.Entry<?> source, String wyilHash, Path.Entry<?> target) throws IOException {
+		Record record;
+		synchronized (this) {
+			record = records.get(key(source));
+		}
+		boolean upToDate = record != null && target != null && record.wyilHash.equals(wyilHash)
+				&& record.vhdlHash.equals(hash(readAll(target.inputStream())));
+		synchronized (this) {
+			if (upToDate)
+				hits++;
+			else
+				misses++;
+		}
+		return upToDate;
+	}
+
+	public synchronized void record(Path.Entry<?> source, String wyilHash, String vhdlHash) {
+		records.put(key(source), new Record(wyilHash, vhdlHash));
+		modified = true;
+	}
+
+	/**
+	 * Drops the record of the source, whose target is then generated again by
+	 * the next build.
+	 */
+	public synchronized void forget(Path.Entry<?> source) {
+		if (records.remove(key(source)) != null)
+			modified = true;
+	}
+
+	/**
+	 * Returns the record of the function if it has not changed since it was
+	 * recorded, and null otherwise.
+	 */
+	public synchronized FunctionRecord getFunction(Path.Entry<?> source, FunctionFingerprint fingerprint) {
+		Map<String, FunctionRecord> records = functions.get(key(source));
+		FunctionRecord record = records == null ? null : records.get(fingerprint.key);
+		return record != null && record.matches(fingerprint) ? record : null;
+	}
+
+	/**
+	 * Returns the code of the entity of a function record, or null if it is no
+	 * longer available.
+	 */
+	public String readEntity(FunctionRecord record) {
+		try {
+			return new String(readAll(Files.newInputStream(entityFile(record.entityHash).toPath())),
+				StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	public synchronized void countFunction(boolean hit) {
+		if (hit)
+			functionHits++;
+		else
+			functionMisses++;
+	}
+
+	/**
+	 * Stores the code of an entity compiled from the function, and returns the
+	 * record to pass to {@link #recordFunctions}.
+	 */
+	public FunctionRecord putEntity(FunctionFingerprint fingerprint, String text) throws IOException {
+		byte[] contents = text.getBytes(StandardCharsets.UTF_8);
+		String entityHash = hash(contents);
+		File file = entityFile(entityHash);
+		if (!file.exists()) {
+			entities.mkdirs();
+			File temporary = File.createTempFile(entityHash, ".tmp", entities);
+			Files.write(temporary.toPath(), contents);
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		return new FunctionRecord(fingerprint, entityHash);
+	}
+
+	/**
+	 * Replaces the records of the functions of the source by the given ones.
+	 */
+	public synchronized void recordFunctions(Path.Entry<?> source, Map<String, FunctionRecord> records) {
+		functions.put(key(source), records);
+		modified = true;
+	}
+
+	private File entityFile(String entityHash) {
+		return new File(entities, entityHash + FRAGMENT_SUFFIX);
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	public synchronized int getFunctionHits() {
+		return functionHits;
+	}
+
+	public synchronized int getFunctionMisses() {
+		return functionMisses;
+	}
+
+	private static String key(Path.Entry<?> source) {
+		return source.id().toString();
+	}
+
+
+	public static byte[] readAll(InputStream input) throws IOException {
+		try (InputStream in = input) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			for (int n = in.read(buffer); n != -1; n = in.read(buffer))
+				bytes.write(buffer, 0, n);
+			return bytes.toByteArray();
+		}
+	}
+
+	public static String hash(byte[] contents) {
+		return toHex(newDigest().digest(contents));
+	}
+
+	public static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to provide SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static String toHex(byte[] digest) {
+		StringBuilder hex = new StringBuilder(2 * digest.length);
+		for (byte b : digest)
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		return hex.toString();
+	}
+}
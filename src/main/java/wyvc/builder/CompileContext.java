@@ -0,0 +1,67 @@
+package wyvc.builder;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The CompileContext class gathers what the compilation of the files of a
+ * build shares : the pool compiling the functions, and the caches of the
+ * entities compiled previously. Each of them is optional and left null when
+ * disabled.
+ */
+public class CompileContext {
+	public final ForkJoinPool pool;
+	public final BuildCache cache;
+	public final EntityStore store;
+
+	/**
+	 * Description of every setting of the compiler that can change the
+	 * generated code, used to key the entities of the store.
+	 */
+	public final String configuration;
+
+	/**
+	 * Whether the code is written without indentation nor alignment.
+	 */
+	public final boolean compact;
+
+	/**
+	 * How the entities are clocked.
+	 */
+	public final Timing timing;
+
+	/**
+	 * How the multiplicative operations are mapped onto the hardware.
+	 */
+	public final Arithmetic arithmetic;
+
+	/**
+	 * Receiver of the errors, statistics and traces of the compilation.
+	 */
+	public final Diagnostics diagnostics;
+
+	/**
+	 * Measures of the build.
+	 */
+	public final CompileMetrics metrics;
+
+	public CompileContext(ForkJoinPool pool, BuildCache cache, EntityStore store, String configuration,
+			boolean compact, Timing timing, Arithmetic arithmetic, Diagnostics diagnostics, CompileMetrics metrics) {
+		this.pool = pool;
+		this.cache = cache;
+		this.store = store;
+		this.configuration = configuration;
+		this.compact = compact;
+		this.timing = timing;
+		this.arithmetic = arithmetic;
+		this.diagnostics = diagnostics;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Checks whether the functions have to be fingerprinted, to look up their
+	 * entities in a cache.
+	 */
+	public boolean usesCaches() {
+		return cache != null || store != null;
+	}
+}
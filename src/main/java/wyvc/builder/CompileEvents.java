@@ -0,0 +1,53 @@
+package wyvc.builder;
+
+/**
+ * The CompileEvents class emits the phases of a build and the compilation and
+ * writing of each entity as JFR events, so that a flight recording shows them
+ * along with the activity of the JVM. The events are defined by
+ * {@link JfrEvents}, which is only loaded when the JVM has the
+ * <c>jdk.jfr</c> API : on other JVMs, this class emits nothing.
+ *
+ * An event is begun before the work it measures, and passed back once the
+ * work is done : a null event is one that is not recorded.
+ */
+class CompileEvents {
+	static final CompileEvents INSTANCE;
+
+	static {
+		boolean available;
+		try {
+			Class.forName("jdk.jfr.Event");
+			available = true;
+		} catch (ClassNotFoundException e) {
+			available = false;
+		}
+		INSTANCE = available ? JfrEvents.create() : new CompileEvents();
+	}
+
+	Object beginPhase() {
+		return null;
+	}
+
+	/**
+	 * Ends the event of a phase run on a source file.
+	 */
+	void endPhase(Object event, CompileMetrics.Phase phase, String source) {
+	}
+
+	Object beginEntity() {
+		return null;
+	}
+
+	/**
+	 * Ends the event of the compilation of an entity, or of its lookup in the
+	 * caches.
+	 */
+	void endEntity(Object event, EntityStatistics statistics, boolean failed) {
+	}
+
+	/**
+	 * Emits the event of the writing of an entity, once it is written.
+	 */
+	void written(EntityStatistics statistics) {
+	}
+}
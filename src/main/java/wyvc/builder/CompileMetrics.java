@@ -0,0 +1,198 @@
+package wyvc.builder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import wyvc.io.VHDLFileWritter;
+import wyvc.lang.Entity;
+
+/**
+ * The CompileMetrics class measures a build : the time spent in each phase of
+ * the compilation, and the statistics of each entity (see
+ * {@link EntityStatistics}). It is shared by the stages of the pipeline, and
+ * listens to the writers of the VHDL files to measure the writing of the
+ * entities.
+ *
+ * Times are summed over the threads running a phase, so the time of a phase
+ * running in parallel can exceed the time of the build.
+ *
+ * The measures can be written as a JSON or CSV report, to find the functions
+ * which dominate the time of a build. The phases run on each file and the
+ * entities are also emitted as JFR events (see {@link CompileEvents}).
+ */
+public class CompileMetrics implements VHDLFileWritter.Listener {
+	public static enum Phase {
+		READ,
+		COMPILE,
+		TOKENISE,
+		WRITE
+	}
+
+	private final AtomicLongArray times = new AtomicLongArray(Phase.values().length);
+	private final List<EntityStatistics> entities = new ArrayList<>();
+	private final Map<Entity, EntityStatistics> written = new IdentityHashMap<>();
+
+	/**
+	 * Adds the time, in nanoseconds, to the phase.
+	 */
+	public void add(Phase phase, long time) {
+		times.addAndGet(phase.ordinal(), time);
+	}
+
+	public long getTime(Phase phase) {
+		return times.get(phase.ordinal());
+	}
+
+	/**
+	 * Adds the statistics of a compiled entity, to which the figures of its
+	 * writing are added once it is written.
+	 */
+	public synchronized void add(Entity entity, EntityStatistics statistics) {
+		entities.add(statistics);
+		written.put(entity, statistics);
+	}
+
+	public synchronized List<EntityStatistics> getEntities() {
+		return new ArrayList<>(entities);
+	}
+
+	@Override
+	public void written(Entity entity, int tokens, long characters, long tokenisation, long writing) {
+		add(Phase.TOKENISE, tokenisation);
+		add(Phase.WRITE, writing);
+		EntityStatistics statistics;
+		synchronized (this) {
+			statistics = written.remove(entity);
+		}
+		if (statistics != null) {
+			statistics.tokens = tokens;
+			statistics.bytes = characters;
+			statistics.tokeniseTime = tokenisation;
+			statistics.writeTime = writing;
+			CompileEvents.INSTANCE.written(statistics);
+		}
+	}
+
+	/**
+	 * Describes the time of each phase, in milliseconds.
+	 */
+	public String describePhases() {
+		StringBuilder description = new StringBuilder();
+		for (Phase phase : Phase.values())
+			(description.length() == 0 ? description : description.append(", "))
+				.append(phase.name().toLowerCase()).append(' ').append(getTime(phase) / 1000000).append(" ms");
+		return description.toString();
+	}
+
+	/**
+	 * Writes the report to the file, in JSON when its name ends with
+	 * <c>.json</c> and in CSV otherwise.
+	 */
+	public void writeReport(File file) throws IOException {
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+				Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8))) {
+			if (file.getName().endsWith(".json"))
+				writeJson(writer);
+			else
+				writeCsv(writer);
+		}
+	}
+
+	/**
+	 * Writes the report as a JSON object holding the time of each phase, in
+	 * nanoseconds, and the list of the statistics of the entities. The
+	 * variable latencies are written as <c>-1</c>.
+	 */
+	public void writeJson(Writer writer) throws IOException {
+		writer.append("{\n  \"phases\": {");
+		for (Phase phase : Phase.values())
+			writer.append(phase.ordinal() == 0 ? "" : ",").append("\n    ").append(quote(phase.name().toLowerCase()))
+				.append(": ").append(Long.toString(getTime(phase)));
+		writer.append("\n  },\n  \"entities\": [");
+		List<EntityStatistics> entities = sortedEntities();
+		for (int k = 0; k < entities.size(); ++k) {
+			EntityStatistics e = entities.get(k);
+			writer.append(k == 0 ? "\n    {" : ",\n    {")
+				.append("\"source\": ").append(quote(e.source))
+				.append(", \"entity\": ").append(quote(e.entity))
+				.append(", \"cached\": ").append(Boolean.toString(e.cached))
+				.append(", \"compileTime\": ").append(Long.toString(e.compileTime))
+				.append(", \"locations\": ").append(Integer.toString(e.locations))
+				.append(", \"expressions\": ").append(Integer.toString(e.nodes))
+				.append(", \"eliminatedNodes\": ").append(Integer.toString(e.eliminatedNodes))
+				.append(", \"hoistedNodes\": ").append(Integer.toString(e.hoistedNodes))
+				.append(", \"simplifiedNodes\": ").append(Integer.toString(e.simplifiedNodes))
+				.append(", \"simplifiedOperators\": ").append(quote(e.simplifiedOperators))
+				.append(", \"mappedOperators\": ").append(quote(e.mappedOperators))
+				.append(", \"signals\": ").append(Integer.toString(e.signals))
+				.append(", \"processes\": ").append(Integer.toString(e.processes))
+				.append(", \"latency\": ").append(Integer.toString(e.latency))
+				.append(", \"tokens\": ").append(Integer.toString(e.tokens))
+				.append(", \"bytes\": ").append(Long.toString(e.bytes))
+				.append(", \"tokeniseTime\": ").append(Long.toString(e.tokeniseTime))
+				.append(", \"writeTime\": ").append(Long.toString(e.writeTime))
+				.append('}');
+		}
+		writer.append(entities.isEmpty() ? "]\n}\n" : "\n  ]\n}\n");
+	}
+
+	/**
+	 * Writes the report as CSV, with one line per entity. Times are in
+	 * nanoseconds, and the variable latencies are written as <c>-1</c>.
+	 */
+	public void writeCsv(Writer writer) throws IOException {
+		writer.append("source,entity,cached,compile_time,locations,expressions,eliminated_nodes,hoisted_nodes,"
+			+ "simplified_nodes,simplified_operators,mapped_operators,signals,processes,latency,tokens,bytes,tokenise_time,write_time\n");
+		for (EntityStatistics e : sortedEntities())
+			writer.append(csv(e.source)).append(',').append(csv(e.entity)).append(',')
+				.append(Boolean.toString(e.cached)).append(',').append(Long.toString(e.compileTime)).append(',')
+				.append(Integer.toString(e.locations)).append(',').append(Integer.toString(e.nodes)).append(',')
+				.append(Integer.toString(e.eliminatedNodes)).append(',').append(Integer.toString(e.hoistedNodes))
+				.append(',').append(Integer.toString(e.simplifiedNodes)).append(',').append(csv(e.simplifiedOperators))
+				.append(',').append(csv(e.mappedOperators))
+				.append(',').append(Integer.toString(e.signals)).append(',').append(Integer.toString(e.processes))
+				.append(',').append(Integer.toString(e.latency)).append(',').append(Integer.toString(e.tokens)).append(',').append(Long.toString(e.bytes))
+				.append(',').append(Long.toString(e.tokeniseTime)).append(',').append(Long.toString(e.writeTime))
+				.append('\n');
+	}
+
+	/**
+	 * Returns the statistics of the entities, the longest to compile first.
+	 */
+	private List<EntityStatistics> sortedEntities() {
+		List<EntityStatistics> entities = getEntities();
+		Collections.sort(entities, (EntityStatistics a, EntityStatistics b) -> Long.compare(b.compileTime, a.compileTime));
+		return entities;
+	}
+
+	private static String quote(String s) {
+		StringBuilder quoted = new StringBuilder(s.length() + 2).append('"');
+		for (int k = 0; k < s.length(); ++k) {
+			char c = s.charAt(k);
+			if (c == '"' || c == '\\')
+				quoted.append('\\').append(c);
+			else if (c < 0x20)
+				quoted.append(String.format("\\u%04x", (int) c));
+			else
+				quoted.append(c);
+		}
+		return quoted.append('"').toString();
+	}
+
+	private static String csv(String s) {
+		if (s.indexOf(',') == -1 && s.indexOf('"') == -1 && s.indexOf('\n') == -1)
+			return s;
+		return '"' + s.replace("\"", "\"\"") + '"';
+	}
+}
@@ -0,0 +1,373 @@
+package wyvc.builder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import wybs.lang.Build.Graph;
+import wycc.util.Pair;
+import wyfs.lang.Path;
+import wyil.lang.WyilFile;
+import wyvc.Activator;
+import wyvc.builder.Diagnostics.Level;
+import wyvc.io.TextualOutputStream;
+import wyvc.io.VHDLFileWritter;
+import wyvc.lang.Entity;
+import wyvc.lang.VHDLFile;
+
+/**
+ * The CompilePipeline class runs the three stages of the compilation of a
+ * build delta concurrently :
+ * <ul>
+ * <li> the loading of the WyIL files, on a dedicated reader thread,</li>
+ * <li> the compilation of their functions into entities, on the calling
+ * thread (which forks the functions out to the pool of the context when it
+ * has one),</li>
+ * <li> the serialization of the VHDL files, on a dedicated writer thread.</li>
+ * </ul>
+ * The stages communicate through bounded queues, so that disk accesses overlap
+ * with compilation without the whole delta being held in memory. Files go
+ * through each stage in the order of the delta.
+ *
+ * In streaming mode, the compilation stage writes the entities of a file as
+ * they are compiled, one function at a time, and the writer stage is left
+ * idle : only one entity of the file is held in memory at a time.
+ *
+ * When a {@link BuildCache} is given, the hash of each WyIL file is computed as
+ * it is loaded, and files whose VHDL file is up to date are only registered as
+ * derived, without being compiled nor written.
+ */
+public class CompilePipeline {
+	private static final Job END = new Job(null, null);
+
+	/**
+	 * Builder of virtual threads and its methods, looked up reflectively so
+	 * that the compiler still runs on the JDKs without them, or null.
+	 */
+	private static final Object VIRTUAL_BUILDER;
+	private static final Method BUILDER_NAME;
+	private static final Method BUILDER_UNSTARTED;
+
+	static {
+		Object builder = null;
+		Method name = null;
+		Method unstarted = null;
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			name = builderClass.getMethod("name", String.class);
+			unstarted = builderClass.getMethod("unstarted", Runnable.class);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			builder = null;
+		}
+		VIRTUAL_BUILDER = builder;
+		BUILDER_NAME = name;
+		BUILDER_UNSTARTED = unstarted;
+	}
+
+	private static class Job {
+		public final Path.Entry<WyilFile> source;
+		public final Path.Root root;
+		public byte[] bytes = null;
+		public String wyilHash = null;
+		public WyilFile wyil = null;
+		public Path.Entry<VHDLFile> target = null;
+		public VHDLFile contents = null;
+
+		/**
+		 * Whether every function of the file compiled : the files missing some
+		 * entities are not recorded in the cache, so that they are compiled
+		 * again and their errors reported by the next build.
+		 */
+		public boolean complete = true;
+
+		public Job(Path.Entry<WyilFile> source, Path.Root root) {
+			this.source = source;
+			this.root = root;
+		}
+	}
+
+	private final CompileContext context;
+	private final BuildCache cache;
+	private final boolean streaming;
+	private final BlockingQueue<Job> loaded;
+	private final BlockingQueue<Job> compiled;
+	private volatile IOException failure = null;
+
+	/**
+	 * @param context	The pool used to compile functions and the caches of the
+	 * 					previous builds
+	 * @param capacity	Number of files each queue can hold between two stages
+	 * @param streaming	Whether the entities of a file are written as soon as
+	 * 					they are compiled
+	 */
+	public CompilePipeline(CompileContext context, int capacity, boolean streaming) {
+		this.context = context;
+		this.cache = context.cache;
+		this.streaming = streaming;
+		this.loaded = new ArrayBlockingQueue<>(capacity);
+		this.compiled = new ArrayBlockingQueue<>(capacity);
+	}
+
+	public Set<Path.Entry<?>> run(Collection<Pair<Path.Entry<?>, Path.Root>> delta, Graph graph) throws IOException {
+		HashSet<Path.Entry<?>> generatedFiles = new HashSet<Path.Entry<?>>();
+		Thread reader = startStage("wyvc-reader", () -> read(delta));
+		Thread writer = startStage("wyvc-writer", this::write);
+		boolean completed = false;
+		try {
+			for (Job job = loaded.take(); job != END; job = loaded.take()) {
+				boolean upToDate = cache != null && isUpToDate(job);
+				if (!upToDate) {
+					Object event = CompileEvents.INSTANCE.beginPhase();
+					if (streaming)
+						stream(job);
+					else
+						compile(job);
+					CompileEvents.INSTANCE.endPhase(event, CompileMetrics.Phase.COMPILE, job.source.id().toString());
+				}
+				graph.registerDerivation(job.source, job.target);
+				generatedFiles.add(job.target);
+				if (!upToDate && !streaming)
+					compiled.put(job);
+			}
+			compiled.put(END);
+			reader.join();
+			writer.join();
+			completed = true;
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("VHDL compilation interrupted");
+		} finally {
+			if (!completed) {
+				reader.interrupt();
+				writer.interrupt();
+				joinUninterruptibly(reader);
+				joinUninterruptibly(writer);
+			}
+		}
+		if (failure != null)
+			throw failure;
+		return generatedFiles;
+	}
+
+	/**
+	 * Starts a stage on a virtual thread when the JDK has them (from Java 21),
+	 * since the stages mostly wait for the disk and the queues, and on a
+	 * daemon platform thread otherwise.
+	 */
+	private static Thread startStage(String name, Runnable stage) {
+		Thread thread = VIRTUAL_BUILDER == null ? null : virtualThread(name, stage);
+		if (thread == null) {
+			thread = new Thread(stage, name);
+			thread.setDaemon(true);
+		}
+		thread.start();
+		return thread;
+	}
+
+	private static Thread virtualThread(String name, Runnable stage) {
+		try {
+			return (Thread) BUILDER_UNSTARTED.invoke(BUILDER_NAME.invoke(VIRTUAL_BUILDER, name), stage);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Waits for an interrupted stage to finish what it is writing, so that no
+	 * file is written once the pipeline has failed. The interruption of the
+	 * calling thread is kept for its caller.
+	 */
+	private static void joinUninterruptibly(Thread thread) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				thread.join();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private synchronized void fail(IOException e) {
+		if (failure == null)
+			failure = e;
+	}
+
+	/**
+	 * Loads the files of the delta. The end of the delta is posted whatever
+	 * happens, so that the compilation stage never waits for a reader that
+	 * has died.
+	 */
+	private void read(Collection<Pair<Path.Entry<?>, Path.Root>> delta) {
+		try {
+			for (Pair<Path.Entry<?>, Path.Root> p : delta) {
+				if (failure != null)
+					break;
+				@SuppressWarnings("unchecked")
+				Job job = new Job((Path.Entry<WyilFile>) p.first(), p.second());
+				context.diagnostics.log(Level.VERBOSE, "Wyil => VHDL: reading " + p.first().id());
+				long start = System.nanoTime();
+				Object event = CompileEvents.INSTANCE.beginPhase();
+				if (cache == null)
+					job.wyil = job.source.read();
+				else
+					load(job);
+				context.metrics.add(CompileMetrics.Phase.READ, System.nanoTime() - start);
+				CompileEvents.INSTANCE.endPhase(event, CompileMetrics.Phase.READ, job.source.id().toString());
+				if (job.wyil != null && context.diagnostics.isEnabled(Level.TRACE))
+					context.diagnostics.log(Level.TRACE, job.wyil.toString());
+				loaded.put(job);
+			}
+		} catch (IOException e) {
+			fail(e);
+		} catch (RuntimeException e) {
+			fail(new IOException("Reading of the WyIL files failed", e));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			end(loaded);
+		}
+	}
+
+	/**
+	 * Posts the end of the files to the queue, unless the stage has been
+	 * interrupted, which only happens once nobody waits for it.
+	 */
+	private static void end(BlockingQueue<Job> queue) {
+		try {
+			queue.put(END);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Reads the contents of the source to hash them. They are only parsed when
+	 * the cache has no record of them : the contents of a file the cache knows
+	 * are kept until the compilation stage checks its target.
+	 */
+	private void load(Job job) throws IOException {
+		job.bytes = BuildCache.readAll(job.source.inputStream());
+		job.wyilHash = BuildCache.hash(job.bytes);
+		if (!cache.matches(job.source, job.wyilHash))
+			parse(job);
+	}
+
+	private void parse(Job job) throws IOException {
+		job.wyil = job.source.contentType().read(job.source, new ByteArrayInputStream(job.bytes));
+		job.bytes = null;
+	}
+
+	private boolean isUpToDate(Job job) throws IOException {
+		Path.Entry<VHDLFile> previous = job.root.get(job.source.id(), Activator.ContentType);
+		if (cache.isUpToDate(job.source, job.wyilHash, previous)) {
+			job.target = previous;
+			job.bytes = null;
+			return true;
+		}
+		if (job.wyil == null) {
+			long start = System.nanoTime();
+			Object event = CompileEvents.INSTANCE.beginPhase();
+			parse(job);
+			context.metrics.add(CompileMetrics.Phase.READ, System.nanoTime() - start);
+			CompileEvents.INSTANCE.endPhase(event, CompileMetrics.Phase.READ, job.source.id().toString());
+		}
+		return false;
+	}
+
+	private void compile(Job job) throws IOException {
+		List<Entity> entities = new ArrayList<>();
+		job.complete = VHDLCompileTask.compileEntities(job.wyil, context, job.source, entities);
+		job.wyil = null;
+		job.target = job.root.create(job.source.id(), Activator.ContentType);
+		job.contents = new VHDLFile(entities.toArray(new Entity[0]));
+	}
+
+	/**
+	 * Compiles and writes the entities of the file one at a time. With a
+	 * cache, the hash of the file is computed as it is written.
+	 */
+	private void stream(Job job) throws IOException {
+		job.target = job.root.create(job.source.id(), Activator.ContentType);
+		try (OutputStream output = job.target.outputStream()) {
+			MessageDigest digest = cache == null ? null : BuildCache.newDigest();
+			VHDLFileWritter writer = writer(output, digest);
+			writer.writeHeader();
+			job.complete = VHDLCompileTask.streamEntities(job.wyil, context, job.source, writer);
+			writer.flush();
+			job.wyil = null;
+			if (cache != null)
+				record(job, digest);
+		}
+	}
+
+	private void write() {
+		try {
+			for (Job job = compiled.take(); job != END; job = compiled.take()) {
+				// Once a write has failed, remaining files are only drained so that
+				// the compilation stage never blocks on a full queue.
+				if (failure == null) {
+					try {
+						store(job);
+					} catch (IOException e) {
+						fail(e);
+					} catch (RuntimeException e) {
+						fail(new IOException("Writing of " + job.target.id() + " failed", e));
+					}
+				}
+				job.contents = null;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writes the VHDL file. With a cache, the hash of the file is computed as
+	 * it is written.
+	 */
+	private void store(Job job) throws IOException {
+		Object event = CompileEvents.INSTANCE.beginPhase();
+		try (OutputStream output = job.target.outputStream()) {
+			MessageDigest digest = cache == null ? null : BuildCache.newDigest();
+			writer(output, digest).write(job.contents);
+			if (cache != null)
+				record(job, digest);
+		}
+		CompileEvents.INSTANCE.endPhase(event, CompileMetrics.Phase.WRITE, job.source.id().toString());
+	}
+
+	/**
+	 * Records the hashes of the file in the cache when every function of it
+	 * compiled, and drops its previous record otherwise.
+	 */
+	private void record(Job job, MessageDigest digest) {
+		if (job.complete)
+			cache.record(job.source, job.wyilHash, BuildCache.toHex(digest.digest()));
+		else
+			cache.forget(job.source);
+	}
+
+	/**
+	 * Opens a writer in the mode of the context, updating the digest with
+	 * what is written when it is not null.
+	 */
+	private VHDLFileWritter writer(OutputStream output, MessageDigest digest) {
+		VHDLFileWritter writer = new VHDLFileWritter(TextualOutputStream.open(output, digest), context.compact);
+		writer.setListener(context.metrics);
+		return writer;
+	}
+}
@@ -0,0 +1,81 @@
+package wyvc.builder;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import wycc.util.Logger;
+
+/**
+ * The Diagnostics class routes the messages of the compiler to a
+ * {@link Logger}, keeping those whose level does not exceed the verbosity of
+ * the build :
+ * <ul>
+ * <li> <c>ERROR</c> : the functions that failed to compile,</li>
+ * <li> <c>INFO</c> : a summary of each build,</li>
+ * <li> <c>VERBOSE</c> : the files read and the statistics of the entities,</li>
+ * <li> <c>TRACE</c> : the bytecode trees of the compiled functions.</li>
+ * </ul>
+ * Traces can be restricted to some functions. Compilers check whether they
+ * trace a function once, before compiling it, so that disabled traces cost
+ * nothing, not even the building of their messages.
+ */
+public class Diagnostics {
+	public static enum Level {
+		ERROR,
+		INFO,
+		VERBOSE,
+		TRACE
+	}
+
+	public static final Diagnostics NONE = new Diagnostics(Logger.NULL, Level.ERROR, null);
+
+	private final Logger logger;
+	private final Level level;
+	private final Set<String> tracedFunctions;
+
+	/**
+	 * @param logger			Logger receiving the messages
+	 * @param level				Verbosity of the build
+	 * @param tracedFunctions	Names of the functions traced at the TRACE
+	 * 							level, or null to trace every function
+	 */
+	public Diagnostics(Logger logger, Level level, Collection<String> tracedFunctions) {
+		this.logger = logger;
+		this.level = level;
+		this.tracedFunctions = tracedFunctions == null ? null : new HashSet<>(tracedFunctions);
+	}
+
+	public Level getLevel() {
+		return level;
+	}
+
+	public boolean isEnabled(Level level) {
+		return level.compareTo(this.level) <= 0;
+	}
+
+	/**
+	 * Checks whether the compilation of the function is traced.
+	 */
+	public boolean traces(String function) {
+		return isEnabled(Level.TRACE) && (tracedFunctions == null || tracedFunctions.contains(function));
+	}
+
+	public void log(Level level, String message) {
+		if (isEnabled(level))
+			logger.logTimedMessage(message, 0, 0);
+	}
+
+	public void log(Level level, String message, long time, long memory) {
+		if (isEnabled(level))
+			logger.logTimedMessage(message, time, memory);
+	}
+
+	/**
+	 * Logs a message about the compilation of the function, which has to be
+	 * traced.
+	 */
+	public void trace(String function, String message) {
+		logger.logTimedMessage("[" + function + "] " + message, 0, 0);
+	}
+}
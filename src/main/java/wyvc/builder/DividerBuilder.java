@@ -0,0 +1,187 @@
+package wyvc.builder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import wyvc.lang.Architecture;
+import wyvc.lang.Component;
+import wyvc.lang.Entity;
+import wyvc.lang.Expression;
+import wyvc.lang.Expression.Access;
+import wyvc.lang.Expression.Add;
+import wyvc.lang.Expression.Element;
+import wyvc.lang.Expression.Not;
+import wyvc.lang.Expression.Or;
+import wyvc.lang.Expression.Resize;
+import wyvc.lang.Expression.ShiftLeft;
+import wyvc.lang.Expression.ShiftRight;
+import wyvc.lang.Expression.Sub;
+import wyvc.lang.Expression.Value;
+import wyvc.lang.Expression.Xor;
+import wyvc.lang.Interface;
+import wyvc.lang.LexicalElement.VHDLException;
+import wyvc.lang.Statement.ClockedProcess;
+import wyvc.lang.Statement.ConcurrentStatement;
+import wyvc.lang.Statement.IfStatement;
+import wyvc.lang.Statement.SequentialStatement;
+import wyvc.lang.Statement.SignalAssignment;
+import wyvc.lang.Statement.VariableAssignment;
+import wyvc.lang.Type;
+import wyvc.lang.Type.Signed;
+import wyvc.lang.TypedValue.Constant;
+import wyvc.lang.TypedValue.Port;
+import wyvc.lang.TypedValue.Port.Mode;
+import wyvc.lang.TypedValue.Signal;
+import wyvc.lang.TypedValue.Variable;
+
+/**
+ * The DividerBuilder class builds the entity of a multi-cycle divider of
+ * signed values of a given width, with the interface of an entity in
+ * handshake mode (see {@link Timing}) : it takes a dividend and a divisor,
+ * and gives out their quotient, truncated toward zero, and their remainder.
+ *
+ * The divider divides the absolute values of its operands by restoring
+ * division, one bit of the quotient per clock cycle : a single register of
+ * <c>2 * width + 1</c> bits holds the partial remainder above the bits of the
+ * dividend not yet divided, which are replaced by the bits of the quotient as
+ * the register is shifted left. The signs of the results are restored once
+ * every bit is found, <c>width + 1</c> clock cycles after the operands are
+ * taken. The divider takes new operands once its results are taken.
+ */
+public class DividerBuilder {
+	private final String ident;
+	private final int width;
+	private final List<Signal> signals = new ArrayList<>();
+	private final List<Variable> variables = new ArrayList<>();
+
+	private DividerBuilder(String ident, int width) {
+		this.ident = ident;
+		this.width = width;
+	}
+
+	/**
+	 * Returns the entity of the divider, whose control ports are the ones of
+	 * the timing, which is in handshake mode.
+	 */
+	public static Entity build(String ident, int width, Timing timing) throws VHDLException {
+		return new DividerBuilder(ident, width).build(timing);
+	}
+
+	private Entity build(Timing timing) throws VHDLException {
+		Signed type = Signed.of(width - 1, 0);
+		List<Port> ports = new ArrayList<>(Arrays.asList(timing.controlPorts()));
+		Port dividend = new Port("s_" + ident + "_in_0", type, Mode.IN);
+		Port divisor = new Port("s_" + ident + "_in_1", type, Mode.IN);
+		Port quotient = new Port("s_" + ident + "_out_0", type, Mode.OUT);
+		Port remainder = new Port("s_" + ident + "_out_1", type, Mode.OUT);
+		ports.addAll(Arrays.asList(dividend, divisor, quotient, remainder));
+		Entity entity = new Entity(ident, new Interface(ports.toArray(new Port[0])));
+		Port clock = port(ports, Timing.CLOCK);
+		Port inValid = port(ports, Timing.IN_VALID);
+		Port outReady = port(ports, Timing.OUT_READY);
+
+		Signed operand = Signed.of(width, 0);
+		Signed wide = Signed.of(2 * width, 0);
+		int counterWidth = Integer.toBinaryString(width - 1).length() + 1;
+		Signed counter = Signed.of(counterWidth - 1, 0);
+		Signal busy = signal("s_busy", Type.Std_logic);
+		Signal done = signal("s_done", Type.Std_logic);
+		Signal count = signal("s_count", counter);
+		Signal partial = signal("s_partial", wide);
+		Signal shiftedDivisor = signal("s_divisor", wide);
+		Signal negativeQuotient = signal("s_negative_quotient", Type.Std_logic);
+		Signal negativeRemainder = signal("s_negative_remainder", Type.Std_logic);
+		Variable absDividend = variable("v_dividend", operand);
+		Variable absDivisor = variable("v_divisor", operand);
+		Variable shifted = variable("v_shifted", wide);
+		Variable difference = variable("v_difference", wide);
+		Variable absQuotient = variable("v_quotient", operand);
+		Variable absRemainder = variable("v_remainder", operand);
+
+		SequentialStatement[] finish = {
+			new VariableAssignment(absQuotient, resize(new Access(partial), operand)),
+			new VariableAssignment(absRemainder, resize(new ShiftRight(new Access(partial), length(wide, width)), operand)),
+			new IfStatement(new Access(negativeQuotient), new SequentialStatement[]{
+				new VariableAssignment(absQuotient, negate(absQuotient))}, new SequentialStatement[0]),
+			new IfStatement(new Access(negativeRemainder), new SequentialStatement[]{
+				new VariableAssignment(absRemainder, negate(absRemainder))}, new SequentialStatement[0]),
+			new SignalAssignment(quotient, resize(new Access(absQuotient), type)),
+			new SignalAssignment(remainder, resize(new Access(absRemainder), type)),
+			new SignalAssignment(busy, new Value(Type.Std_logic, "'0'")),
+			new SignalAssignment(done, new Value(Type.Std_logic, "'1'"))};
+		SequentialStatement[] step = {
+			new VariableAssignment(shifted, new ShiftLeft(new Access(partial), length(wide, 1))),
+			new VariableAssignment(difference, new Sub(new Access(shifted), new Access(shiftedDivisor))),
+			new IfStatement(new Element(difference, 2 * width),
+				new SequentialStatement[]{new SignalAssignment(partial, new Access(shifted))},
+				new SequentialStatement[]{new SignalAssignment(partial, new Add(new Access(difference), length(wide, 1)))}),
+			new SignalAssignment(count, new Sub(new Access(count), length(counter, 1)))};
+		SequentialStatement[] start = {
+			new VariableAssignment(absDividend, resize(new Access(dividend), operand)),
+			new VariableAssignment(absDivisor, resize(new Access(divisor), operand)),
+			new IfStatement(new Element(dividend, width - 1), new SequentialStatement[]{
+				new VariableAssignment(absDividend, negate(absDividend))}, new SequentialStatement[0]),
+			new IfStatement(new Element(divisor, width - 1), new SequentialStatement[]{
+				new VariableAssignment(absDivisor, negate(absDivisor))}, new SequentialStatement[0]),
+			new SignalAssignment(partial, resize(new Access(absDividend), wide)),
+			new SignalAssignment(shiftedDivisor, new ShiftLeft(resize(new Access(absDivisor), wide), length(wide, width))),
+			new SignalAssignment(negativeQuotient, new Xor(new Element(dividend, width - 1), new Element(divisor, width - 1))),
+			new SignalAssignment(negativeRemainder, new Element(dividend, width - 1)),
+			new SignalAssignment(count, new Value(counter, "to_signed(" + (width - 1) + ", " + counterWidth + ")")),
+			new SignalAssignment(busy, new Value(Type.Std_logic, "'1'"))};
+
+		SequentialStatement[] statements = {new IfStatement(new Access(busy),
+			new SequentialStatement[]{new IfStatement(new Element(count, counterWidth - 1), finish, step)},
+			new SequentialStatement[]{new IfStatement(new Access(done),
+				new SequentialStatement[]{new SignalAssignment(done, new Not(new Access(outReady)))},
+				new SequentialStatement[]{new IfStatement(new Access(inValid), start, new SequentialStatement[0])})})};
+		Signal[] registers = {busy, done, count, partial, shiftedDivisor, negativeQuotient, negativeRemainder,
+			quotient, remainder};
+
+		ConcurrentStatement[] architecture = {
+			new SignalAssignment(port(ports, Timing.IN_READY), new Not(new Or(new Access(busy), new Access(done)))),
+			new SignalAssignment(port(ports, Timing.OUT_VALID), new Access(done)),
+			new ClockedProcess("divider", clock, port(ports, Timing.RESET), variables.toArray(new Variable[0]),
+				registers, statements)};
+		entity.addArchitectures(new Architecture(entity, "Iterative", signals.toArray(new Signal[0]),
+			new Constant[0], new Component[0], architecture));
+		entity.setLatency(width + 1);
+		return entity;
+	}
+
+	private static Port port(List<Port> ports, String ident) {
+		for (Port p : ports)
+			if (p.ident.equals(ident))
+				return p;
+		throw new IllegalArgumentException("No port " + ident);
+	}
+
+	private Signal signal(String name, Type type) {
+		Signal s = new Signal(name, type);
+		signals.add(s);
+		return s;
+	}
+
+	private Variable variable(String name, Type type) {
+		Variable v = new Variable(name, type);
+		variables.add(v);
+		return v;
+	}
+
+	/**
+	 * Returns a length, or a number of bits, typed as the values it applies
+	 * to.
+	 */
+	private static Value length(Signed type, int length) {
+		return new Value(type, Integer.toString(length));
+	}
+
+	private static Expression resize(Expression expr, Signed type) throws VHDLException {
+		return new Resize(expr, length(type, type.lenght()));
+	}
+
+	private static Expression negate(Variable v) throws VHDLException {
+		return new Sub(new Value(v.type, "0"), new Access(v));
+	}
+}
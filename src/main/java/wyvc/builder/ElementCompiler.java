@@ -1,37 +1,86 @@
 package wyvc.builder;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import wyil.lang.Type;
 import wyil.lang.WyilFile.FunctionOrMethod;
+import wyvc.builder.ArchitectureCompiler.ArchitectureData;
 import wyvc.builder.VHDLCompileTask.VHDLCompilationException;
 import wyvc.lang.Entity;
 import wyvc.lang.Interface;
 import wyvc.lang.LexicalElement.VHDLException;
+import wyvc.lang.Statement.ConcurrentStatement;
+import wyvc.lang.Statement.Process;
 import wyvc.lang.TypedValue.Port;
 import wyvc.lang.TypedValue.Port.Mode;
 
 public class ElementCompiler {
 	public static Entity compileEntity(FunctionOrMethod function) throws VHDLException, VHDLCompilationException{
+		return compileEntity(function, new EntityStatistics("", function.name()), Diagnostics.NONE);
+	}
+
+	/**
+	 * Compiles the entity of the function, filling the statistics in.
+	 */
+	public static Entity compileEntity(FunctionOrMethod function, EntityStatistics statistics, Diagnostics diagnostics) throws VHDLException, VHDLCompilationException{
+		return compileEntity(function, statistics, diagnostics, Timing.COMBINATIONAL);
+	}
+
+	/**
+	 * Compiles the entity of the function with the given timing, filling the
+	 * statistics in.
+	 */
+	public static Entity compileEntity(FunctionOrMethod function, EntityStatistics statistics, Diagnostics diagnostics, Timing timing) throws VHDLException, VHDLCompilationException{
+		return compileEntity(function, statistics, diagnostics, timing, Arithmetic.DEFAULT);
+	}
+
+	/**
+	 * Compiles the entity of the function with the given timing and mapping
+	 * of the multiplicative operations, filling the statistics in.
+	 */
+	public static Entity compileEntity(FunctionOrMethod function, EntityStatistics statistics, Diagnostics diagnostics, Timing timing,
+			Arithmetic arithmetic) throws VHDLException, VHDLCompilationException{
 		Entity e =  new Entity(
 			function.name(),
-			compileInterface(function.name(), function.type())
+			compileInterface(function.name(), function.type(), timing)
 		);
-		ArchitectureCompiler ac = new ArchitectureCompiler(e);
+		ArchitectureCompiler ac = new ArchitectureCompiler(e, diagnostics, timing, Widths.of(function), arithmetic);
 		e.addArchitectures(ac.compile(function.getBody()));
+		ArchitectureData architecture = ac.getArchitecture();
+		statistics.locations += architecture.locations;
+		statistics.signals += architecture.signals.size();
+		for (ConcurrentStatement s : architecture.statements)
+			if (s instanceof Process)
+				statistics.processes++;
+		statistics.nodes += ac.getExpressions().getNodes();
+		statistics.eliminatedNodes += ac.getExpressions().getEliminatedNodes();
+		statistics.hoistedNodes += ac.getExpressions().getHoistedNodes();
+		statistics.simplifiedNodes += architecture.simplifier.getRemovedOperations();
+		statistics.simplifiedOperators = architecture.simplifier.describeRemovedOperations();
+		statistics.mappedOperators = architecture.mapper.describeMappedOperations();
+		statistics.latency = e.getLatency();
 		return e;
 	}
 
 
 	public static Interface compileInterface(String name, wyil.lang.Type.FunctionOrMethod type) {
-		ArrayList<Port> ports = new ArrayList<Port>();
+		return compileInterface(name, type, Timing.COMBINATIONAL);
+	}
+
+	/**
+	 * Compiles the interface of the function, which starts with the clock and
+	 * the reset ports in synchronous mode.
+	 */
+	public static Interface compileInterface(String name, wyil.lang.Type.FunctionOrMethod type, Timing timing) {
+		ArrayList<Port> ports = new ArrayList<Port>(Arrays.asList(timing.controlPorts()));
 		int i = 0;
 		for(Type t : type.params()){
-			ports.add(new Port("s_"+name+"_in_"+Integer.toString(i++), new wyvc.lang.Type.Signed(31,0), Mode.IN));
+			ports.add(new Port("s_"+name+"_in_"+Integer.toString(i++), Widths.interfaceType(t), Mode.IN));
 		}
 		i = 0;
 		for(Type t : type.returns()){
-			ports.add(new Port("s_"+name+"_out_"+Integer.toString(i++), new wyvc.lang.Type.Signed(31,0), Mode.OUT));
+			ports.add(new Port("s_"+name+"_out_"+Integer.toString(i++), Widths.interfaceType(t), Mode.OUT));
 		}
 		return new Interface(ports.toArray(new Port[0]));
 	}
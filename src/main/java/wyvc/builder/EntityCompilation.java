@@ -0,0 +1,204 @@
+package wyvc.builder;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.concurrent.RecursiveAction;
+
+import wyfs.lang.Path;
+import wyil.lang.WyilFile.FunctionOrMethod;
+import wyvc.builder.BuildCache.FunctionRecord;
+import wyvc.builder.Diagnostics.Level;
+import wyvc.builder.VHDLCompileTask.VHDLCompilationException;
+import wyvc.io.TextualOutputStream;
+import wyvc.io.VHDLFileWritter;
+import wyvc.lang.CachedEntity;
+import wyvc.lang.Entity;
+import wyvc.lang.LexicalElement.VHDLException;
+
+/**
+ * The EntityCompilation class holds the outcome of the compilation of a single
+ * function : either the resulting entity, or the error that prevented it from
+ * being produced.
+ *
+ * Keeping the error with its function allows a whole file to be compiled even
+ * when some of its functions fail, and the errors to be reported in the order
+ * of the source regardless of the order in which the functions were compiled.
+ *
+ * When the context holds caches, the entity compiled during a previous build
+ * is reused if the function has not changed. Otherwise it is looked up in the
+ * {@link EntityStore}, and only compiled if the store does not hold it either;
+ * a freshly compiled entity is then added to both caches. In every case, the
+ * entity is held as a {@link CachedEntity}.
+ */
+public class EntityCompilation {
+	public final FunctionOrMethod function;
+	private Entity entity = null;
+	private Exception error = null;
+
+	private final CompileContext context;
+	private final Path.Entry<?> source;
+	private final Map<String, String> interfaces;
+	private FunctionRecord record = null;
+	private final EntityStatistics statistics;
+
+	/**
+	 * @param function		The function to compile
+	 * @param context		The caches to use
+	 * @param source		The file declaring the function
+	 * @param interfaces	Hashes of the interfaces of the functions declared
+	 * 						in the source, by name, when caches are used
+	 */
+	public EntityCompilation(FunctionOrMethod function, CompileContext context, Path.Entry<?> source,
+			Map<String, String> interfaces) {
+		this.function = function;
+		this.context = context;
+		this.source = source;
+		this.interfaces = interfaces;
+		this.statistics = new EntityStatistics(source.id().toString(), function.name());
+	}
+
+	public Entity getEntity() {
+		return entity;
+	}
+
+	public boolean failed() {
+		return error != null;
+	}
+
+	/**
+	 * Returns the fingerprint of the function, with the code of its entity in
+	 * the cache, or null if no cache is used or if the entity could not be
+	 * stored.
+	 */
+	public FunctionRecord getRecord() {
+		return record;
+	}
+
+	public EntityStatistics getStatistics() {
+		return statistics;
+	}
+
+	public EntityCompilation compile() {
+		long start = System.nanoTime();
+		Object event = CompileEvents.INSTANCE.beginEntity();
+		try {
+			if (!context.usesCaches())
+				entity = ElementCompiler.compileEntity(function, statistics, context.diagnostics, context.timing,
+					context.arithmetic);
+			else
+				compileWithCache();
+		} catch (VHDLException | VHDLCompilationException | RuntimeException e) {
+			error = e;
+		}
+		statistics.compileTime = System.nanoTime() - start;
+		context.metrics.add(CompileMetrics.Phase.COMPILE, statistics.compileTime);
+		CompileEvents.INSTANCE.endEntity(event, statistics, error != null);
+		if (error == null)
+			context.metrics.add(entity, statistics);
+		return this;
+	}
+
+	private void compileWithCache() throws VHDLException, VHDLCompilationException {
+		BuildCache cache = context.cache;
+		EntityStore store = context.store;
+		FunctionFingerprint fingerprint = new FunctionFingerprint(function, interfaces);
+		String text = null;
+		if (cache != null) {
+			record = cache.getFunction(source, fingerprint);
+			text = record == null ? null : cache.readEntity(record);
+			cache.countFunction(text != null);
+		}
+		String key = store == null ? null : EntityStore.key(fingerprint.bodyHash, context.configuration);
+		if (text == null && store != null)
+			text = store.get(key);
+		statistics.cached = text != null;
+		if (text == null) {
+			text = render(ElementCompiler.compileEntity(function, statistics, context.diagnostics, context.timing,
+				context.arithmetic));
+			if (store != null) {
+				try {
+					store.put(key, text);
+				} catch (IOException e) {
+					// The store is only an optimization
+				}
+			}
+		}
+		if (cache != null && record == null) {
+			try {
+				record = cache.putEntity(fingerprint, text);
+			} catch (IOException e) {
+				// The entity is still written, it will be compiled again next time
+			}
+		}
+		entity = new CachedEntity(function.name(), ElementCompiler.compileInterface(function.name(), function.type(), context.timing), text);
+	}
+
+	/**
+	 * Renders the entity as it is written in a file, in the mode of the
+	 * context.
+	 */
+	private String render(Entity entity) {
+		StringWriter text = new StringWriter();
+		VHDLFileWritter writer = new VHDLFileWritter(new TextualOutputStream(text), context.compact);
+		try {
+			writer.write(entity);
+			writer.flush();
+		} catch (IOException e) {
+			// A StringWriter never fails
+			throw new IllegalStateException(e);
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Reports the error of the compilation, or the statistics of the entity
+	 * when it was compiled.
+	 */
+	public void report() {
+		Diagnostics diagnostics = context.diagnostics;
+		if (error == null) {
+			if (!statistics.cached && diagnostics.isEnabled(Level.VERBOSE))
+				diagnostics.log(Level.VERBOSE, "Wyil => VHDL: " + statistics);
+			return;
+		}
+		String description = error instanceof VHDLException ? ((VHDLException) error).describe()
+			: error instanceof VHDLCompilationException ? "Unsupported" : error.toString();
+		diagnostics.log(Level.ERROR, "Compilation of "+function.name()+" failed : "+description);
+		if (diagnostics.isEnabled(Level.VERBOSE)) {
+			StringWriter trace = new StringWriter();
+			error.printStackTrace(new PrintWriter(trace));
+			diagnostics.log(Level.VERBOSE, trace.toString());
+		}
+	}
+
+
+	/**
+	 * Compiles a range of functions by splitting it until each task holds a
+	 * single function.  Results are stored by index, so that the order of the
+	 * entities does not depend on the scheduling.
+	 */
+	public static class CompileRange extends RecursiveAction {
+		private static final long serialVersionUID = -1839413525218364212L;
+		private final EntityCompilation[] compilations;
+		private final int start;
+		private final int end;
+
+		public CompileRange(EntityCompilation[] compilations, int start, int end) {
+			this.compilations = compilations;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start == 1)
+				compilations[start].compile();
+			else if (end > start) {
+				int middle = (start + end) >>> 1;
+				invokeAll(new CompileRange(compilations, start, middle), new CompileRange(compilations, middle, end));
+			}
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package wyvc.builder;
+
+import wyvc.lang.Entity;
+
+/**
+ * The EntityStatistics class gathers figures about the compilation of the
+ * entity of a function, which are reported once the function is compiled, and
+ * figures about its writing, which are added once it is written.
+ *
+ * The figures of the compilation are left to 0 when the entity is found in a
+ * cache instead of being compiled.
+ */
+public class EntityStatistics {
+	public final String source;
+	public final String entity;
+
+	/**
+	 * Whether the entity was found in a cache.
+	 */
+	public boolean cached = false;
+
+	/**
+	 * Time spent compiling the entity, or looking it up in the caches, in
+	 * nanoseconds.
+	 */
+	public long compileTime = 0;
+
+	/**
+	 * Number of WyIL locations visited by the compilers.
+	 */
+	public int locations = 0;
+
+	/**
+	 * Number of nodes of the expression DAG of the architecture.
+	 */
+	public int nodes = 0;
+
+	/**
+	 * Number of expression nodes shared instead of being allocated again.
+	 */
+	public int eliminatedNodes = 0;
+
+	/**
+	 * Number of operations hoisted into variables of the process.
+	 */
+	public int hoistedNodes = 0;
+
+	/**
+	 * Number of operations removed by the simplification of the expressions,
+	 * and their number for each operator (see {@link Simplifier}).
+	 */
+	public int simplifiedNodes = 0;
+	public String simplifiedOperators = "";
+
+	/**
+	 * Number of multiplicative operations mapped onto each kind of hardware
+	 * (see {@link ArithmeticMapper}).
+	 */
+	public String mappedOperators = "";
+
+	/**
+	 * Number of clock cycles between the inputs and the outputs, 0 for a
+	 * combinational entity, or {@link Entity#VARIABLE_LATENCY}.
+	 */
+	public int latency = 0;
+
+	public int signals = 0;
+	public int processes = 0;
+
+	/**
+	 * Number of tokens written.
+	 */
+	public int tokens = 0;
+
+	/**
+	 * Number of bytes written.
+	 */
+	public long bytes = 0;
+
+	/**
+	 * Time spent building the tokens of the entity, in nanoseconds.
+	 */
+	public long tokeniseTime = 0;
+
+	/**
+	 * Time spent writing the tokens of the entity, in nanoseconds.
+	 */
+	public long writeTime = 0;
+
+	public EntityStatistics(String source, String entity) {
+		this.source = source;
+		this.entity = entity;
+	}
+
+	@Override
+	public String toString() {
+		return "entity " + entity + " : " + locations + " location(s), " + nodes + " expression node(s), "
+			+ eliminatedNodes + " eliminated, " + hoistedNodes + " hoisted, " + simplifiedNodes + " simplified"
+			+ (simplifiedNodes > 0 ? " (" + simplifiedOperators + ")" : "")
+			+ (mappedOperators.isEmpty() ? "" : ", mapped " + mappedOperators) + ", " + signals + " signal(s), "
+			+ processes + " process(es)" + (latency > 0 ? ", latency " + latency
+			: latency == Entity.VARIABLE_LATENCY ? ", latency variable" : "");
+	}
+}
@@ -0,0 +1,179 @@
+package wyvc.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The EntityStore class is a content-addressed store of the VHDL code of
+ * compiled entities, shared between the builds of several projects. An entity
+ * is stored under the hash of the syntax tree of the function it was compiled
+ * from and of the configuration of the compiler (see {@link #key}), so that it
+ * can be reused by any build compiling the same function the same way.
+ *
+ * The store is a plain directory holding one file per entity, and can be used
+ * by several JVMs at once :
+ * <ul>
+ * <li> entities are written to a temporary file which is then moved to its
+ * final name, so that a reader never sees a partial entity,</li>
+ * <li> when the store exceeds its maximal size, the least recently used
+ * entities are evicted while holding a lock on the <c>.lock</c> file of the
+ * directory, so that only one JVM evicts at a time.</li>
+ * </ul>
+ * Reading an entity updates the modification date of its file, which is used
+ * as its last access date.
+ */
+public class EntityStore {
+	public static final long DEFAULT_MAX_SIZE = 256L << 20;
+	private static final String SUFFIX = ".vhd";
+	private static final String LOCK_FILE = ".lock";
+
+	/**
+	 * Proportion of the maximal size kept after an eviction, so that the store
+	 * is not evicted again at every insertion.
+	 */
+	private static final double EVICTION_RATIO = 0.8;
+
+	/**
+	 * File locks are held by the whole JVM : stores opened on the same
+	 * directory within a JVM also have to synchronize on a common monitor.
+	 */
+	private static final ConcurrentHashMap<String, Object> monitors = new ConcurrentHashMap<>();
+
+	private final File directory;
+	private final long maxSize;
+	private final Object monitor;
+	private final AtomicLong size;
+
+	/**
+	 * Opens the store, creating its directory if needed.
+	 *
+	 * @param directory	The directory of the store
+	 * @param maxSize	Size in bytes above which entities are evicted
+	 */
+	public EntityStore(File directory, long maxSize) throws IOException {
+		if (maxSize <= 0)
+			throw new IllegalArgumentException("Store size must be positive, got "+maxSize);
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create entity store "+directory);
+		this.directory = directory;
+		this.maxSize = maxSize;
+		this.monitor = monitors.computeIfAbsent(directory.getCanonicalPath(), (String path) -> new Object());
+		this.size = new AtomicLong(totalSize(entityFiles()));
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Computes the key of an entity.
+	 *
+	 * @param bodyHash		The hash of the syntax tree of the function, as
+	 * 						computed by {@link FunctionFingerprint}
+	 * @param configuration	The description of every setting of the compiler
+	 * 						that can change the generated code
+	 */
+	public static String key(String bodyHash, String configuration) {
+		return BuildCache.hash((bodyHash + "\n" + configuration).getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Returns the code of the entity stored under the key, or null if the store
+	 * does not hold it.
+	 */
+	public String get(String key) {
+		File file = entityFile(key);
+		try {
+			String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+			file.setLastModified(System.currentTimeMillis());
+			return text;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	public void put(String key, String text) throws IOException {
+		File file = entityFile(key);
+		if (file.exists()) {
+			file.setLastModified(System.currentTimeMillis());
+			return;
+		}
+		byte[] contents = text.getBytes(StandardCharsets.UTF_8);
+		File temporary = File.createTempFile(key, ".tmp", directory);
+		try {
+			Files.write(temporary.toPath(), contents);
+			try {
+				Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			temporary.delete();
+		}
+		if (size.addAndGet(contents.length) > maxSize)
+			evict();
+	}
+
+	/**
+	 * Deletes the least recently used entities until the store is back under
+	 * its eviction threshold. The size is computed again from the directory,
+	 * as other JVMs may have added or evicted entities.
+	 */
+	public void evict() throws IOException {
+		synchronized (monitor) {
+			try (RandomAccessFile lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+					FileChannel channel = lockFile.getChannel();
+					FileLock lock = channel.lock()) {
+				File[] files = entityFiles();
+				long total = totalSize(files);
+				long threshold = (long) (maxSize * EVICTION_RATIO);
+				if (total > threshold) {
+					long[] dates = new long[files.length];
+					Integer[] order = new Integer[files.length];
+					for (int k = 0; k < files.length; ++k) {
+						dates[k] = files[k].lastModified();
+						order[k] = k;
+					}
+					Arrays.sort(order, Comparator.comparingLong((Integer k) -> dates[k]));
+					for (int k = 0; k < order.length && total > threshold; ++k) {
+						long length = files[order[k]].length();
+						if (files[order[k]].delete())
+							total -= length;
+					}
+				}
+				size.set(total);
+			}
+		}
+	}
+
+	private File entityFile(String key) {
+		return new File(directory, key + SUFFIX);
+	}
+
+	private File[] entityFiles() {
+		File[] files = directory.listFiles((File dir, String name) -> name.endsWith(SUFFIX));
+		return files == null ? new File[0] : files;
+	}
+
+	private static long totalSize(File[] files) {
+		long total = 0;
+		for (File file : files)
+			total += file.length();
+		return total;
+	}
+}
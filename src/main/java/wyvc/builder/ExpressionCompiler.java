@@ -1,12 +1,12 @@
 package wyvc.builder;
 
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Map;
 
 import wyil.lang.Bytecode;
 import wyil.lang.Bytecode.Const;
-import wyil.lang.Bytecode.Operator;
 import wyil.lang.Bytecode.VariableAccess;
 import wyil.lang.Bytecode.Invoke;
 import wyil.lang.SyntaxTree.Location;
@@ -16,6 +16,7 @@ import wyvc.lang.TypedValue.Port;
 import wyvc.lang.TypedValue.Port.Mode;
 import wyvc.lang.TypedValue.Signal;
 import wyvc.builder.ArchitectureCompiler.ArchitectureData;
+import wyvc.builder.ArchitectureCompiler.Invocation;
 import wyvc.lang.Component;
 import wyvc.lang.Expression;
 import wyvc.lang.Expression.*;
@@ -24,61 +25,113 @@ import wyvc.lang.Statement.ConcurrentStatement;
 import wyvc.lang.Statement.StatementGroup;
 import wyvc.lang.Statement.ComponentInstance;
 import wyvc.lang.Statement.SignalAssignment;
-import wyvc.lang.LexicalElement.UnsupportedException;
 
 public class ExpressionCompiler {
+	/**
+	 * Compiles an expression of a given opcode.
+	 */
+	@FunctionalInterface
+	public static interface Handler {
+		Expression compile(ExpressionCompiler compiler, Location<?> location) throws VHDLException;
+	}
+
+	static final ExpressionDAG.Operator ADD = Add::new;
+	static final ExpressionDAG.Operator SUB = Sub::new;
+	static final ExpressionDAG.Operator MUL = Mul::new;
+	static final ExpressionDAG.Operator DIV = Div::new;
+	static final ExpressionDAG.Operator REM = Rem::new;
+	static final ExpressionDAG.Operator AND = And::new;
+	private static final ExpressionDAG.Operator OR = Or::new;
+	private static final ExpressionDAG.Operator XOR = Xor::new;
+
+	/**
+	 * Handlers of the expressions, and operators into which the binary
+	 * operations are compiled : an opcode has an entry in one table at most.
+	 */
+	private static final OpcodeTable<Handler> handlers = registerHandlers(new OpcodeTable.Builder<>("expression")).build();
+	private static final OpcodeTable<ExpressionDAG.Operator> operators = registerOperators(new OpcodeTable.Builder<>("operator")).build();
+
+	@SuppressWarnings("unchecked")
+	private static OpcodeTable.Builder<Handler> registerHandlers(OpcodeTable.Builder<Handler> handlers) {
+		return handlers
+			.register(Bytecode.OPCODE_varcopy, (ExpressionCompiler c, Location<?> l) -> c.compileVariableAccess((Location<VariableAccess>) l))
+			.register(Bytecode.OPCODE_varmove, (ExpressionCompiler c, Location<?> l) -> c.compileVariableAccess((Location<VariableAccess>) l))
+			.register(Bytecode.OPCODE_const, (ExpressionCompiler c, Location<?> l) -> c.compileConst((Location<Const>) l))
+			.register(Bytecode.OPCODE_invoke, (ExpressionCompiler c, Location<?> l) -> c.compileInvoke((Location<Invoke>) l).get(0));
+	}
+
+	private static OpcodeTable.Builder<ExpressionDAG.Operator> registerOperators(OpcodeTable.Builder<ExpressionDAG.Operator> operators) {
+		return operators
+			.register(Bytecode.OPCODE_add, ADD)
+			.register(Bytecode.OPCODE_sub, SUB)
+			.register(Bytecode.OPCODE_mul, MUL)
+			.register(Bytecode.OPCODE_div, DIV)
+			.register(Bytecode.OPCODE_rem, REM)
+			.register(Bytecode.OPCODE_bitwiseand, AND)
+			.register(Bytecode.OPCODE_logicaland, AND)
+			.register(Bytecode.OPCODE_bitwiseor, OR)
+			.register(Bytecode.OPCODE_logicalor, OR)
+			.register(Bytecode.OPCODE_bitwisexor, XOR);
+	}
+
 	private ArchitectureData architecture;
 
 	public ExpressionCompiler(ArchitectureData architecture) {
 		this.architecture = architecture;
 	}
 
-	@SuppressWarnings("unchecked")
-	public Expression compile(Location<?> location) throws VHDLException {
-		Bytecode bytecode = location.getBytecode();
-		if (bytecode instanceof VariableAccess)
-			return compileVariableAccess((Location<VariableAccess>) location);
-		if (bytecode instanceof Operator)
-			return compileOperator((Location<Operator>) location);
-		if (bytecode instanceof Const)
-			return compileConst((Location<Const>) location);
-		if (bytecode instanceof Invoke)
-			return compileInvoke((Location<Invoke>) location).get(0);
-		throw new UnsupportedException(bytecode.getClass());
+	public ArchitectureData getArchitecture() {
+		return architecture;
 	}
 
-	private Expression compileVariableAccess(Location<VariableAccess> location) throws VHDLException {
-		assert(architecture.values.containsKey(location.getBytecode().getOperand(0)));
-		return new Access(architecture.values.get(location.getBytecode().getOperand(0)));
+	/**
+	 * Compiles the expression. Binary operations are compiled with explicit
+	 * stacks, holding the locations and the operators still to compile and
+	 * the compiled operands, so that the depth of the expression is not
+	 * bounded by the depth of the call stack.
+	 */
+	public Expression compile(Location<?> location) throws VHDLException {
+		ArrayDeque<Object> pending = new ArrayDeque<>();
+		ArrayDeque<Expression> operands = new ArrayDeque<>();
+		pending.push(location);
+		while (!pending.isEmpty()) {
+			Object next = pending.pop();
+			if (next instanceof ExpressionDAG.Operator) {
+				Expression arg2 = operands.pop();
+				operands.push(architecture.simplifier.operation(architecture.expressions, (ExpressionDAG.Operator) next, operands.pop(), arg2));
+			}
+			else {
+				Location<?> l = (Location<?>) next;
+				architecture.locations++;
+				if (operators.isSupported(l.getBytecode().opcode())) {
+					pending.push(operators.get(l.getBytecode()));
+					pending.push(l.getOperand(1));
+					pending.push(l.getOperand(0));
+				}
+				else
+					operands.push(handlers.get(l.getBytecode()).compile(this, l));
+			}
+		}
+		return operands.pop();
 	}
 
-	private Expression compileOperator(Location<Operator> location) throws VHDLException {
-		switch (location.getBytecode().kind()) {
-		case ADD:
-			return new Add(compile(location.getOperand(0)), compile(location.getOperand(1)));
-		case SUB:
-			return new Sub(compile(location.getOperand(0)), compile(location.getOperand(1)));
-		case BITWISEAND:
-		case AND:
-			return new And(compile(location.getOperand(0)), compile(location.getOperand(1)));
-		case BITWISEOR:
-		case OR:
-			return new Or (compile(location.getOperand(0)), compile(location.getOperand(1)));
-		case BITWISEXOR:
-			return new Xor(compile(location.getOperand(0)), compile(location.getOperand(1)));
-
-
-		default:
-			throw new UnsupportedException(Expression.class);
-		}
+	private Expression compileVariableAccess(Location<VariableAccess> location) throws VHDLException {
+		assert(architecture.values.contains(location.getBytecode().getOperand(0)));
+		TypedValue value = architecture.values.get(location.getBytecode().getOperand(0));
+		Expression constant = architecture.simplifier.constant(value);
+		return constant != null ? constant : architecture.expressions.access(value);
 	}
 
 	private Expression compileConst(Location<Const> location) throws VHDLException {
-		return new Value(new Signed(31,0), location.getBytecode().constant().toString());
+		return architecture.widths.constant(architecture.expressions, location.getBytecode().constant());
 	}
 
 	public ArrayList<Expression> compileInvoke(Location<Invoke> location) throws VHDLException {
 		String fct = location.getBytecode().name().name();
+		if (architecture.timing.handshake)
+			return compileHandshakeInvoke(location, fct);
+		if (architecture.timing.isSynchronous())
+			throw new Pipeliner.PipelineException(Invoke.class, "the latency of "+fct+" is unknown");
 		if (! architecture.components.containsKey(fct))
 			architecture.components.put(fct, new Component(fct, ElementCompiler.compileInterface(fct, location.getBytecode().type())));
 		ArrayList<Signal> ports = new ArrayList<>();
@@ -95,13 +148,53 @@ public class ExpressionCompiler {
 			if (p.mode == Mode.OUT)
 				architecture.sensitive.add(s);
 			else
-				output.add(new Access(s));
+				output.add(architecture.expressions.access(s));
 		}
 		for (int k = 0 ; k < location.numberOfOperands() ; ++k)
-			architecture.processStatements.add(new SignalAssignment(ports.get(k), compile(location.getOperand(k))));
+			architecture.processStatements.add(new SignalAssignment(ports.get(k),
+				architecture.widths.fit(architecture.expressions, compile(location.getOperand(k)), ports.get(k).type)));
 		funGroup.add(new ComponentInstance(fct+"_"+nb, architecture.components.get(fct), ports.toArray(new Signal[0])));
 		architecture.statements.add(new StatementGroup(funGroup.toArray(new ConcurrentStatement[0])));
 
 		return output;
 	}
+
+	/**
+	 * Compiles an invocation in handshake mode : the arguments are assigned to
+	 * signals and the results read from other ones, which are connected to an
+	 * instance of the component by the {@link HandshakeBuilder}. The
+	 * arguments are compiled first, so that the components they invoke come
+	 * before this one.
+	 */
+	private ArrayList<Expression> compileHandshakeInvoke(Location<Invoke> location, String fct) throws VHDLException {
+		ArrayList<Expression> arguments = new ArrayList<>();
+		for (int k = 0 ; k < location.numberOfOperands() ; ++k)
+			arguments.add(compile(location.getOperand(k)));
+		if (! architecture.components.containsKey(fct))
+			architecture.components.put(fct, new Component(fct,
+				ElementCompiler.compileInterface(fct, location.getBytecode().type(), architecture.timing)));
+		Invocation invocation = new Invocation(fct+"_"+architecture.invocations.size(), architecture.components.get(fct));
+		ArrayList<Expression> output = new ArrayList<>();
+		wyil.lang.Type[] returns = location.getBytecode().type().returns();
+		for (Port p : invocation.component.interface_.ports) {
+			if (Timing.isControlPort(p))
+				continue;
+			Signal s = new Signal(invocation.ident+"_"+(p.mode == Mode.IN
+				? "in_"+invocation.arguments.size() : "out_"+invocation.results.size()), p.type);
+			architecture.signals.add(s);
+			if (p.mode == Mode.IN)
+				invocation.arguments.add(s);
+			else {
+				Range range = architecture.widths.range(returns[invocation.results.size()]);
+				invocation.results.add(s);
+				architecture.widths.declare(s, range);
+				output.add(architecture.widths.narrow(architecture.expressions, architecture.expressions.access(s), range));
+			}
+		}
+		for (int k = 0 ; k < arguments.size() ; ++k)
+			architecture.processStatements.add(new SignalAssignment(invocation.arguments.get(k),
+				architecture.widths.fit(architecture.expressions, arguments.get(k), invocation.arguments.get(k).type)));
+		architecture.invocations.add(invocation);
+		return output;
+	}
 }
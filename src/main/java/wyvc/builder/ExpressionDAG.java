@@ -0,0 +1,256 @@
+package wyvc.builder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import wyvc.lang.Expression;
+import wyvc.lang.Expression.Access;
+import wyvc.lang.Expression.BinaryOperation;
+import wyvc.lang.Expression.TypesMismatchException;
+import wyvc.lang.Expression.Value;
+import wyvc.lang.LexicalElement.VHDLException;
+import wyvc.lang.Statement.SequentialStatement;
+import wyvc.lang.Statement.SignalAssignment;
+import wyvc.lang.Statement.VariableAssignment;
+import wyvc.lang.Type;
+import wyvc.lang.TypedValue;
+import wyvc.lang.TypedValue.PortException;
+import wyvc.lang.TypedValue.Variable;
+
+/**
+ * The ExpressionDAG class interns the expressions of an architecture, so that
+ * structurally equal expressions share a single node : an operation is keyed
+ * on its operator and on the identity of its operands, which are interned
+ * before it.
+ *
+ * The variables of a process are assigned in sequence, so an access to a
+ * variable is keyed on the version of the variable, which increases with each
+ * assignment to it : two equal expressions reading a variable only share a
+ * node when the variable is not assigned between them.
+ *
+ * Once the statements of the process are compiled, each operation used more
+ * than once is hoisted into a variable of the process, assigned right before
+ * the first statement using it (see {@link #hoist}).
+ */
+public class ExpressionDAG {
+	/**
+	 * Builds the operation of the given operands. Operators are compared by
+	 * identity, so each of them has to be a single constant.
+	 */
+	@FunctionalInterface
+	public static interface Operator {
+		BinaryOperation build(Expression arg1, Expression arg2) throws TypesMismatchException;
+	}
+
+	private static final Object ACCESS = new Object();
+	private static final Object VALUE = new Object();
+
+	private static final class Key {
+		private final Object kind;
+		private final Object first;
+		private final Object second;
+
+		public Key(Object kind, Object first, Object second) {
+			this.kind = kind;
+			this.first = first;
+			this.second = second;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key))
+				return false;
+			Key key = (Key) other;
+			return key.kind == kind && Objects.equals(key.first, first) && Objects.equals(key.second, second);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * System.identityHashCode(kind) + Objects.hashCode(first)) + Objects.hashCode(second);
+		}
+	}
+
+	private final Map<Key, Expression> nodes = new HashMap<>();
+	private final Map<TypedValue, Integer> versions = new HashMap<>();
+	private int requests = 0;
+	private int hoisted = 0;
+
+	public Expression access(TypedValue value) throws PortException {
+		Key key = new Key(ACCESS, value, versions.get(value));
+		Expression node = lookup(key);
+		if (node == null)
+			nodes.put(key, node = new Access(value));
+		return node;
+	}
+
+	public Expression value(Type type, String value) {
+		Key key = new Key(VALUE, type, value);
+		Expression node = lookup(key);
+		if (node == null)
+			nodes.put(key, node = new Value(type, value));
+		return node;
+	}
+
+	public Expression operation(Operator operator, Expression arg1, Expression arg2) throws TypesMismatchException {
+		Key key = new Key(operator, arg1, arg2);
+		Expression node = lookup(key);
+		if (node == null)
+			nodes.put(key, node = operator.build(arg1, arg2));
+		return node;
+	}
+
+	private Expression lookup(Key key) {
+		++requests;
+		return nodes.get(key);
+	}
+
+	/**
+	 * Records an assignment to the variable, after which the accesses to it
+	 * are new nodes.
+	 */
+	public void assigned(Variable variable) {
+		Integer version = versions.get(variable);
+		versions.put(variable, version == null ? 1 : version + 1);
+	}
+
+	/**
+	 * Returns the number of nodes held by the DAG.
+	 */
+	public int getNodes() {
+		return nodes.size();
+	}
+
+	/**
+	 * Returns the number of nodes that would have been allocated without
+	 * interning.
+	 */
+	public int getEliminatedNodes() {
+		return requests - nodes.size();
+	}
+
+	/**
+	 * Returns the number of operations hoisted into variables.
+	 */
+	public int getHoistedNodes() {
+		return hoisted;
+	}
+
+	/**
+	 * Hoists the operations used several times by the statements into
+	 * variables, which are added to the given ones.
+	 *
+	 * An operation is used several times when it is the operand of several
+	 * statements or of several operations which are not themselves hoisted.
+	 * Its variable is assigned right before the first statement using it :
+	 * since the operands of an operation are keyed on their version, none of
+	 * them is assigned between this statement and the last one using it.
+	 *
+	 * @param statements	The statements of the process, in order
+	 * @param variables		The variables of the process
+	 * @return The statements of the process, including the assignments of the
+	 * 		   hoisted operations
+	 */
+	public List<SequentialStatement> hoist(List<SequentialStatement> statements, List<Variable> variables)
+			throws VHDLException {
+		IdentityHashMap<Expression, Integer> uses = new IdentityHashMap<>();
+		for (SequentialStatement s : statements)
+			if (expression(s) != null)
+				countUses(expression(s), uses);
+
+		IdentityHashMap<Expression, Expression> accesses = new IdentityHashMap<>();
+		List<SequentialStatement> hoistedStatements = new ArrayList<>(statements.size());
+		for (SequentialStatement s : statements) {
+			Expression expr = expression(s);
+			Expression rewritten = expr == null ? null : rewrite(expr, uses, accesses, variables, hoistedStatements);
+			if (rewritten == expr)
+				hoistedStatements.add(s);
+			else if (s instanceof VariableAssignment)
+				hoistedStatements.add(new VariableAssignment(((VariableAssignment) s).dest, rewritten));
+			else
+				hoistedStatements.add(new SignalAssignment(((SignalAssignment) s).dest, rewritten));
+		}
+		return hoistedStatements;
+	}
+
+	private static Expression expression(SequentialStatement statement) {
+		if (statement instanceof VariableAssignment)
+			return ((VariableAssignment) statement).expr;
+		if (statement instanceof SignalAssignment)
+			return ((SignalAssignment) statement).expr;
+		return null;
+	}
+
+	private static void countUses(Expression expr, IdentityHashMap<Expression, Integer> uses) {
+		ArrayDeque<Expression> pending = new ArrayDeque<>();
+		pending.push(expr);
+		while (!pending.isEmpty()) {
+			Expression next = pending.pop();
+			if (!(next instanceof BinaryOperation))
+				continue;
+			Integer count = uses.get(next);
+			uses.put(next, count == null ? 1 : count + 1);
+			if (count == null) {
+				pending.push(((BinaryOperation) next).arg2);
+				pending.push(((BinaryOperation) next).arg1);
+			}
+		}
+	}
+
+	/**
+	 * An operation whose operands are being rewritten.
+	 */
+	private static final class Rebuild {
+		public final BinaryOperation operation;
+
+		public Rebuild(BinaryOperation operation) {
+			this.operation = operation;
+		}
+	}
+
+	/**
+	 * Rewrites the expression in post-order, with explicit stacks so that its
+	 * depth is not bounded by the depth of the call stack. The operands of an
+	 * operation are rewritten from left to right before it.
+	 */
+	private Expression rewrite(Expression expr, IdentityHashMap<Expression, Integer> uses,
+			IdentityHashMap<Expression, Expression> accesses, List<Variable> variables,
+			List<SequentialStatement> statements) throws VHDLException {
+		ArrayDeque<Object> pending = new ArrayDeque<>();
+		ArrayDeque<Expression> rewritten = new ArrayDeque<>();
+		pending.push(expr);
+		while (!pending.isEmpty()) {
+			Object next = pending.pop();
+			if (next instanceof Rebuild) {
+				BinaryOperation op = ((Rebuild) next).operation;
+				Expression arg2 = rewritten.pop();
+				Expression arg1 = rewritten.pop();
+				BinaryOperation result = arg1 == op.arg1 && arg2 == op.arg2 ? op : op.with(arg1, arg2);
+				if (uses.get(op) < 2)
+					rewritten.push(result);
+				else {
+					Variable v = new Variable("cse" + hoisted++, result.getType());
+					variables.add(v);
+					statements.add(new VariableAssignment(v, result));
+					Expression access = new Access(v);
+					accesses.put(op, access);
+					rewritten.push(access);
+				}
+			}
+			else if (!(next instanceof BinaryOperation))
+				rewritten.push((Expression) next);
+			else if (accesses.containsKey(next))
+				rewritten.push(accesses.get(next));
+			else {
+				pending.push(new Rebuild((BinaryOperation) next));
+				pending.push(((BinaryOperation) next).arg2);
+				pending.push(((BinaryOperation) next).arg1);
+			}
+		}
+		return rewritten.pop();
+	}
+}
@@ -0,0 +1,84 @@
+package wyvc.builder;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+import wyil.lang.Bytecode.Invoke;
+import wyil.lang.SyntaxTree.Location;
+import wyil.lang.WyilFile.FunctionOrMethod;
+
+/**
+ * The FunctionFingerprint class summarizes what the entity compiled from a
+ * function depends on :
+ * <ul>
+ * <li> the hash of its body, computed over every location of its syntax tree,
+ * and over the ranges of the parameters and of the nominal types of the
+ * locations, which set the widths of its values (see {@link Widths}),</li>
+ * <li> the hash of its interface, as produced by
+ * {@link ElementCompiler#compileInterface},</li>
+ * <li> the interfaces of the functions it invokes. For a callee defined in the
+ * same file, this is the interface of its declaration, so that callers are
+ * recompiled when the entity they instantiate changes.</li>
+ * </ul>
+ * The entity generated during a previous build can be reused as long as the
+ * three of them are unchanged.
+ */
+public class FunctionFingerprint {
+	public final String key;
+	public final String bodyHash;
+	public final String interfaceHash;
+	public final Map<String, String> callees = new TreeMap<>();
+
+	/**
+	 * @param function		The function to fingerprint
+	 * @param interfaces	Hashes of the interfaces of the functions declared
+	 * 						in the same file, by name
+	 */
+	public FunctionFingerprint(FunctionOrMethod function, Map<String, String> interfaces) {
+		key = key(function);
+		interfaceHash = interfaceHash(function.name(), function.type());
+		MessageDigest digest = BuildCache.newDigest();
+		update(digest, key);
+		Widths widths = Widths.of(function);
+		update(digest, widths.describeParameters());
+		ArrayDeque<Location<?>> locations = new ArrayDeque<>();
+		locations.push(function.getBody());
+		while (!locations.isEmpty()) {
+			Location<?> location = locations.pop();
+			update(digest, location.toString());
+			for (wyil.lang.Type type : location.getTypes())
+				if (type instanceof wyil.lang.Type.Nominal)
+					update(digest, widths.range(type).toString());
+			if (location.getBytecode() instanceof Invoke) {
+				Invoke invoke = (Invoke) location.getBytecode();
+				String callee = invoke.name().name();
+				callees.put(callee, interfaces.containsKey(callee) ? interfaces.get(callee)
+				                                                  : interfaceHash(callee, invoke.type()));
+			}
+			for (int k = location.numberOfBlocks() - 1; k >= 0; --k)
+				locations.push(location.getBlock(k));
+			for (int g = location.numberOfOperandGroups() - 1; g >= 0; --g)
+				for (Location<?> l : location.getOperandGroup(g))
+					locations.push(l);
+			for (int k = location.numberOfOperands() - 1; k >= 0; --k)
+				locations.push(location.getOperand(k));
+		}
+		bodyHash = BuildCache.toHex(digest.digest());
+	}
+
+	public static String key(FunctionOrMethod function) {
+		return function.name() + " " + function.type().toString();
+	}
+
+	public static String interfaceHash(String name, wyil.lang.Type.FunctionOrMethod type) {
+		return BuildCache.hash(ElementCompiler.compileInterface(name, type).toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void update(MessageDigest digest, String s) {
+		digest.update(s.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+	}
+}
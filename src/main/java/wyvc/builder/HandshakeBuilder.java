@@ -0,0 +1,455 @@
+package wyvc.builder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import wyvc.builder.ArchitectureCompiler.ArchitectureData;
+import wyvc.builder.ArchitectureCompiler.Invocation;
+import wyvc.builder.Pipeliner.Dataflow;
+import wyvc.builder.Pipeliner.PipelineException;
+import wyvc.lang.Entity;
+import wyvc.lang.Expression;
+import wyvc.lang.Expression.Access;
+import wyvc.lang.Expression.And;
+import wyvc.lang.Expression.BinaryOperation;
+import wyvc.lang.Expression.Not;
+import wyvc.lang.Expression.Or;
+import wyvc.lang.Expression.Value;
+import wyvc.lang.LexicalElement.VHDLException;
+import wyvc.lang.Statement.ClockedProcess;
+import wyvc.lang.Statement.ComponentInstance;
+import wyvc.lang.Statement.ConditionalSignalAssignment;
+import wyvc.lang.Statement.IfStatement;
+import wyvc.lang.Statement.SequentialStatement;
+import wyvc.lang.Statement.SignalAssignment;
+import wyvc.lang.Type;
+import wyvc.lang.TypedValue.Port;
+import wyvc.lang.TypedValue.Port.Mode;
+import wyvc.lang.TypedValue.Signal;
+import wyvc.lang.TypedValue.Variable;
+
+/**
+ * The HandshakeBuilder class builds the datapath of an entity in handshake
+ * mode (see {@link Timing}).
+ *
+ * The datapath is cut at each invoked component into segments : the first one
+ * computes from the inputs of the entity, each of the next ones from the
+ * results of a component, and the last one computes the outputs of the
+ * entity. Each segment is a pipeline (see {@link Pipeliner}) with handshakes
+ * on both sides, whose inputs go through a skid buffer : the readiness of a
+ * segment is a register, so that the ready signals are not chained
+ * combinationally through the entities, and an item offered while the
+ * pipeline stalls is kept instead of being lost. The pipeline moves on unless
+ * its last stage holds a result which is not taken, so that it takes an item
+ * at each clock cycle as long as its results are taken.
+ *
+ * The values computed before a component and used after it go around it
+ * through a bypass buffer, a pipeline of <c>depth</c> stages without
+ * operations : the segment hands its results to the component and to the
+ * buffer at once, and the next segment takes them from both at once. The
+ * handshakes keep them together whatever the latency of the component, which
+ * runs at full rate as long as its latency does not exceed the depth of the
+ * buffer.
+ *
+ * The components are invoked in the order of the invocations, one after the
+ * other, even when they do not depend on each other.
+ */
+public class HandshakeBuilder {
+	private final ArchitectureData architecture;
+	private final Map<String, Port> controls;
+	private final Dataflow dataflow;
+	private final Expression low;
+
+	private final List<SequentialStatement> statements = new ArrayList<>();
+	private final List<Signal> registers = new ArrayList<>();
+	private final List<Variable> variables = new ArrayList<>();
+
+	/**
+	 * Segment in which each node of the datapath is computed, and last
+	 * segment in which it is used.
+	 */
+	private final IdentityHashMap<Expression, Integer> segments = new IdentityHashMap<>();
+	private final IdentityHashMap<Expression, Integer> uses = new IdentityHashMap<>();
+
+	/**
+	 * Index of the invocation of which each signal is a result.
+	 */
+	private final IdentityHashMap<Signal, Integer> results = new IdentityHashMap<>();
+
+	/**
+	 * @param architecture	Architecture of the entity, whose process is compiled
+	 * @param controls		Control ports of the entity, by name
+	 * @param dataflow		Expressions computed by the process
+	 */
+	public HandshakeBuilder(ArchitectureData architecture, Map<String, Port> controls, Dataflow dataflow) {
+		this.architecture = architecture;
+		this.controls = controls;
+		this.dataflow = dataflow;
+		this.low = architecture.expressions.value(Type.Std_logic, "'0'");
+	}
+
+	/**
+	 * A pipeline with handshakes on both sides, whose inputs go through a
+	 * skid buffer.
+	 */
+	private final class Segment {
+		private final String name;
+		private final List<Signal> sources;
+		private final Map<Signal, Signal> feeds = new IdentityHashMap<>();
+		private final List<Signal> skids = new ArrayList<>();
+		private final Signal skidValid;
+		private final Signal feedValid;
+		private final Signal enable;
+		private final Signal inReady;
+		private Signal outValid = null;
+		private int latency = 0;
+
+		/**
+		 * Adds the signals of the skid buffer and of the handshake of the
+		 * inputs to the architecture.
+		 *
+		 * @param name		Name of the segment, prefixing its signals
+		 * @param sources	Signals holding the inputs
+		 * @param inReady	Signal driven with the readiness of the segment,
+		 * 					or null to add one
+		 */
+		public Segment(String name, List<Signal> sources, Signal inReady) {
+			this.name = name;
+			this.sources = sources;
+			for (int k = 0; k < sources.size(); ++k) {
+				skids.add(signal("s_" + name + "_skid_" + k, sources.get(k).type));
+				feeds.put(sources.get(k), signal("s_" + name + "_feed_" + k, sources.get(k).type));
+			}
+			this.skidValid = signal("s_" + name + "_skid_valid", Type.Std_logic);
+			this.feedValid = signal("s_" + name + "_feed_valid", Type.Std_logic);
+			this.enable = signal("s_" + name + "_enable", Type.Std_logic);
+			this.inReady = inReady == null ? signal("s_" + name + "_in_ready", Type.Std_logic) : inReady;
+		}
+
+		/**
+		 * Returns the signal holding the input during the first stage, from
+		 * its source or from the skid buffer.
+		 */
+		public Signal feed(Signal source) {
+			return feeds.get(source);
+		}
+
+		/**
+		 * Builds the stages of the pipeline, which are updated when it is
+		 * enabled, and the skid buffer, which takes the offered item when it
+		 * is not.
+		 *
+		 * @param destinations	Registers of the last stage
+		 * @param results		Expression of each of them, in terms of the
+		 * 						feeds of the inputs
+		 * @param inValid		Validity of the inputs
+		 * @param outReady		Readiness of the consumer of the results
+		 * @param exact			Whether the pipeline has exactly
+		 * 						<c>depth</c> stages
+		 */
+		public void build(List<? extends Signal> destinations, List<Expression> results, Expression inValid,
+				Expression outReady, boolean exact) throws VHDLException {
+			Pipeliner pipeliner = new Pipeliner(architecture, destinations, results, architecture.timing.depth, exact);
+			latency = pipeliner.getLatency();
+			List<SequentialStatement> advance = new ArrayList<>();
+			pipeliner.build(advance, registers);
+			Signal previous = feedValid;
+			for (int k = 1; k <= latency; ++k) {
+				Signal valid = signal("s_" + name + "_valid_" + k, Type.Std_logic);
+				registers.add(valid);
+				advance.add(new SignalAssignment(valid, new Access(previous)));
+				previous = valid;
+			}
+			outValid = previous;
+			advance.add(new SignalAssignment(skidValid, low));
+
+			inValid = materialize("s_" + name + "_in_valid", inValid);
+			outReady = materialize("s_" + name + "_out_ready", outReady);
+			List<SequentialStatement> capture = new ArrayList<>();
+			capture.add(new SignalAssignment(skidValid, inValid));
+			for (int k = 0; k < sources.size(); ++k)
+				capture.add(new SignalAssignment(skids.get(k), new Access(sources.get(k))));
+			registers.add(skidValid);
+			registers.addAll(skids);
+			statements.add(new IfStatement(new Access(enable),
+				architecture.expressions.hoist(advance, variables).toArray(new SequentialStatement[0]),
+				new SequentialStatement[]{new IfStatement(new Not(new Access(skidValid)),
+					capture.toArray(new SequentialStatement[0]), new SequentialStatement[0])}));
+
+			architecture.statements.add(new SignalAssignment(inReady, new Not(new Access(skidValid))));
+			for (int k = 0; k < sources.size(); ++k)
+				architecture.statements.add(new ConditionalSignalAssignment(feed(sources.get(k)),
+					new Access(skidValid), new Access(skids.get(k)), new Access(sources.get(k))));
+			architecture.statements.add(new SignalAssignment(feedValid, new Or(new Access(skidValid), inValid)));
+			architecture.statements.add(new SignalAssignment(enable, new Or(outReady, new Not(new Access(outValid)))));
+		}
+	}
+
+	/**
+	 * Builds the segments, the bypass buffers and the instances of the
+	 * invoked components, and returns the clocked process updating them.
+	 */
+	public ClockedProcess build() throws VHDLException {
+		List<Invocation> invocations = architecture.invocations;
+		int n = invocations.size();
+		for (int k = 0; k < n; ++k)
+			for (Signal s : invocations.get(k).results)
+				results.put(s, k);
+		List<Expression> roots = new ArrayList<>(dataflow.results);
+		for (Invocation invocation : invocations)
+			for (Signal argument : invocation.arguments)
+				roots.add(argument(argument));
+		List<Expression> order = postOrder(roots);
+		for (Expression e : order)
+			segments.put(e, segment(e));
+		for (Expression e : order)
+			if (e instanceof BinaryOperation) {
+				use(((BinaryOperation) e).arg1, segments.get(e));
+				use(((BinaryOperation) e).arg2, segments.get(e));
+			}
+		for (int k = 0; k < n; ++k)
+			for (Signal argument : invocations.get(k).arguments) {
+				Expression e = argument(argument);
+				if (!(e instanceof Value) && segments.get(e) > k)
+					throw new PipelineException(Invocation.class, "the arguments of " + invocations.get(k).ident
+						+ " depend on a later invocation");
+				use(e, k);
+			}
+		for (Expression e : dataflow.results)
+			use(e, n);
+
+		List<Signal> inputs = new ArrayList<>();
+		for (Port p : architecture.entity.interface_.ports)
+			if (p.mode == Mode.IN && !Timing.isControlPort(p))
+				inputs.add(p);
+		Segment[] chain = new Segment[n + 1];
+		Segment[] bypasses = new Segment[n];
+		List<List<Expression>> carried = new ArrayList<>();
+		List<Map<Expression, Signal>> carriedOut = new ArrayList<>();
+		chain[0] = new Segment("segment0", inputs, controls.get(Timing.IN_READY));
+		for (int b = 0; b < n; ++b) {
+			carried.add(new ArrayList<>());
+			carriedOut.add(new IdentityHashMap<>());
+			for (Expression e : order)
+				if (!(e instanceof Value) && segments.get(e) <= b && b < uses.get(e))
+					carried.get(b).add(e);
+			List<Signal> carryIn = new ArrayList<>();
+			List<Signal> sources = new ArrayList<>(invocations.get(b).results);
+			for (int k = 0; k < carried.get(b).size(); ++k) {
+				Expression e = carried.get(b).get(k);
+				carryIn.add(signal("s_bypass" + b + "_in_" + k, e.getType()));
+				Signal out = signal("s_bypass" + b + "_out_" + k, e.getType());
+				carriedOut.get(b).put(e, out);
+				sources.add(out);
+			}
+			bypasses[b] = carryIn.isEmpty() ? null : new Segment("bypass" + b, carryIn, null);
+			chain[b + 1] = new Segment("segment" + (b + 1), sources, null);
+		}
+
+		Expression inValid = new Access(controls.get(Timing.IN_VALID));
+		for (int b = 0; b < n; ++b) {
+			Invocation invocation = invocations.get(b);
+			Segment bypass = bypasses[b];
+			Signal calleeInValid = signal("s_" + invocation.ident + "_in_valid", Type.Std_logic);
+			Signal calleeInReady = signal("s_" + invocation.ident + "_in_ready", Type.Std_logic);
+			Signal calleeOutValid = signal("s_" + invocation.ident + "_out_valid", Type.Std_logic);
+			Signal calleeOutReady = signal("s_" + invocation.ident + "_out_ready", Type.Std_logic);
+
+			List<Signal> destinations = new ArrayList<>(invocation.arguments);
+			List<Expression> values = new ArrayList<>();
+			IdentityHashMap<Expression, Expression> translated = new IdentityHashMap<>();
+			for (Signal argument : invocation.arguments)
+				values.add(translate(argument(argument), b, chain[b], b == 0 ? null : carriedOut.get(b - 1), translated));
+			for (int k = 0; k < carried.get(b).size(); ++k) {
+				destinations.add(bypass.sources.get(k));
+				values.add(translate(carried.get(b).get(k), b, chain[b], b == 0 ? null : carriedOut.get(b - 1), translated));
+			}
+			chain[b].build(destinations, values, inValid, bypass == null ? new Access(calleeInReady)
+				: new And(new Access(calleeInReady), new Access(bypass.inReady)), false);
+			architecture.statements.add(new SignalAssignment(calleeInValid, bypass == null ? new Access(chain[b].outValid)
+				: new And(new Access(chain[b].outValid), new Access(bypass.inReady))));
+
+			if (bypass != null) {
+				List<Signal> carryOut = new ArrayList<>();
+				List<Expression> feeds = new ArrayList<>();
+				for (int k = 0; k < carried.get(b).size(); ++k) {
+					carryOut.add(carriedOut.get(b).get(carried.get(b).get(k)));
+					feeds.add(new Access(bypass.feed(bypass.sources.get(k))));
+				}
+				bypass.build(carryOut, feeds, new And(new Access(chain[b].outValid), new Access(calleeInReady)),
+					new And(new Access(chain[b + 1].inReady), new Access(calleeOutValid)), true);
+			}
+			inValid = bypass == null ? new Access(calleeOutValid)
+				: new And(new Access(calleeOutValid), new Access(bypass.outValid));
+			architecture.statements.add(new SignalAssignment(calleeOutReady, bypass == null ? new Access(chain[b + 1].inReady)
+				: new And(new Access(chain[b + 1].inReady), new Access(bypass.outValid))));
+
+			List<Signal> ports = new ArrayList<>();
+			int argument = 0;
+			int result = 0;
+			for (Port p : invocation.component.interface_.ports) {
+				switch (p.ident) {
+				case Timing.CLOCK:		ports.add(controls.get(Timing.CLOCK)); break;
+				case Timing.RESET:		ports.add(controls.get(Timing.RESET)); break;
+				case Timing.IN_VALID:	ports.add(calleeInValid); break;
+				case Timing.IN_READY:	ports.add(calleeInReady); break;
+				case Timing.OUT_VALID:	ports.add(calleeOutValid); break;
+				case Timing.OUT_READY:	ports.add(calleeOutReady); break;
+				default:
+					ports.add(p.mode == Mode.IN ? invocation.arguments.get(argument++) : invocation.results.get(result++));
+				}
+			}
+			architecture.statements.add(new ComponentInstance(invocation.ident, invocation.component, ports.toArray(new Signal[0])));
+		}
+
+		List<Expression> values = new ArrayList<>();
+		IdentityHashMap<Expression, Expression> translated = new IdentityHashMap<>();
+		for (Expression e : dataflow.results)
+			values.add(translate(e, n, chain[n], n == 0 ? null : carriedOut.get(n - 1), translated));
+		chain[n].build(dataflow.outputs, values, inValid, new Access(controls.get(Timing.OUT_READY)), false);
+		architecture.statements.add(new SignalAssignment(controls.get(Timing.OUT_VALID), new Access(chain[n].outValid)));
+		architecture.entity.setLatency(n == 0 ? chain[0].latency : Entity.VARIABLE_LATENCY);
+		return new ClockedProcess("pipeline", controls.get(Timing.CLOCK), controls.get(Timing.RESET),
+			variables.toArray(new Variable[0]), registers.toArray(new Signal[0]), statements.toArray(new SequentialStatement[0]));
+	}
+
+	private Expression argument(Signal argument) throws PipelineException {
+		Expression e = dataflow.arguments.get(argument);
+		if (e == null)
+			throw new PipelineException(Invocation.class, "argument " + argument.ident + " is never assigned");
+		return e;
+	}
+
+	/**
+	 * Returns the segment computing the node : 0 for the inputs of the
+	 * entity, one more than the index of the invocation for its results, and
+	 * the last segment of its operands for an operation. Constants, which are
+	 * available in every segment, are in none.
+	 */
+	private int segment(Expression e) throws PipelineException {
+		if (e instanceof Value)
+			return -1;
+		if (e instanceof BinaryOperation)
+			return Math.max(0, Math.max(segments.get(((BinaryOperation) e).arg1), segments.get(((BinaryOperation) e).arg2)));
+		if (e instanceof Access && ((Access) e).value instanceof Port)
+			return 0;
+		if (e instanceof Access && results.containsKey(((Access) e).value))
+			return results.get(((Access) e).value) + 1;
+		throw new PipelineException(e.getClass(), "only the inputs and the results of the invocations can be read");
+	}
+
+	private void use(Expression e, int segment) {
+		if (e instanceof Value)
+			return;
+		Integer last = uses.get(e);
+		uses.put(e, last == null ? Math.max(segment, segments.get(e)) : Math.max(last, segment));
+	}
+
+	/**
+	 * An operation whose operands are being translated.
+	 */
+	private static final class Rebuild {
+		public final BinaryOperation operation;
+
+		public Rebuild(BinaryOperation operation) {
+			this.operation = operation;
+		}
+	}
+
+	/**
+	 * Translates the expression into the expression computing it in the
+	 * segment, in post-order with explicit stacks. The nodes computed by the
+	 * previous segments are read from the feeds of their bypass buffer, and
+	 * the inputs of the segment from their feeds.
+	 *
+	 * @param carriedOut	Signals carrying the nodes of the previous
+	 * 						segments out of their bypass buffer
+	 * @param translated	The nodes already translated for the segment
+	 */
+	private Expression translate(Expression expr, int index, Segment segment, Map<Expression, Signal> carriedOut,
+			IdentityHashMap<Expression, Expression> translated) throws VHDLException {
+		ArrayDeque<Object> pending = new ArrayDeque<>();
+		ArrayDeque<Expression> operands = new ArrayDeque<>();
+		pending.push(expr);
+		while (!pending.isEmpty()) {
+			Object next = pending.pop();
+			if (next instanceof Rebuild) {
+				BinaryOperation op = ((Rebuild) next).operation;
+				Expression arg2 = operands.pop();
+				Expression arg1 = operands.pop();
+				Expression result = op.with(arg1, arg2);
+				translated.put(op, result);
+				operands.push(result);
+			}
+			else if (next instanceof Value)
+				operands.push((Expression) next);
+			else if (translated.containsKey(next))
+				operands.push(translated.get(next));
+			else if (segments.get(next) < index) {
+				Expression result = new Access(segment.feed(carriedOut.get(next)));
+				translated.put((Expression) next, result);
+				operands.push(result);
+			}
+			else if (next instanceof BinaryOperation) {
+				pending.push(new Rebuild((BinaryOperation) next));
+				pending.push(((BinaryOperation) next).arg2);
+				pending.push(((BinaryOperation) next).arg1);
+			}
+			else {
+				Expression result = new Access(segment.feed((Signal) ((Access) next).value));
+				translated.put((Expression) next, result);
+				operands.push(result);
+			}
+		}
+		return operands.pop();
+	}
+
+	/**
+	 * Returns the nodes of the expressions, each operation after its operands.
+	 */
+	private static List<Expression> postOrder(List<Expression> roots) {
+		List<Expression> order = new ArrayList<>();
+		IdentityHashMap<Expression, Boolean> visited = new IdentityHashMap<>();
+		ArrayDeque<Object> pending = new ArrayDeque<>();
+		for (Expression root : roots) {
+			pending.push(root);
+			while (!pending.isEmpty()) {
+				Object next = pending.pop();
+				if (next instanceof Rebuild)
+					order.add(((Rebuild) next).operation);
+				else if (visited.put((Expression) next, true) == null) {
+					if (next instanceof BinaryOperation) {
+						pending.push(new Rebuild((BinaryOperation) next));
+						pending.push(((BinaryOperation) next).arg2);
+						pending.push(((BinaryOperation) next).arg1);
+					}
+					else
+						order.add((Expression) next);
+				}
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Returns the expression if it is a plain access, or an access to a new
+	 * signal assigned with it otherwise, so that it can be an operand of
+	 * another logical operator.
+	 */
+	private Expression materialize(String ident, Expression expr) throws VHDLException {
+		if (expr instanceof Access)
+			return expr;
+		Signal s = signal(ident, expr.getType());
+		architecture.statements.add(new SignalAssignment(s, expr));
+		return new Access(s);
+	}
+
+	private Signal signal(String ident, Type type) {
+		Signal s = new Signal(ident, type);
+		architecture.signals.add(s);
+		return s;
+	}
+}
@@ -0,0 +1,156 @@
+package wyvc.builder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The JfrEvents class emits the events of {@link CompileEvents} through the
+ * <c>jdk.jfr</c> API. It is only loaded by {@link CompileEvents} when the JVM
+ * has that API.
+ */
+final class JfrEvents extends CompileEvents {
+	@Name("wyvc.Phase")
+	@Label("Phase")
+	@Category({"Whiley", "VHDL Compiler"})
+	@Description("Phase of the compilation of a WyIL file")
+	static final class PhaseEvent extends Event {
+		@Label("Phase")
+		String phase;
+
+		@Label("Source")
+		String source;
+	}
+
+	@Name("wyvc.EntityCompilation")
+	@Label("Entity Compilation")
+	@Category({"Whiley", "VHDL Compiler"})
+	@Description("Compilation of the entity of a function, or its lookup in the caches")
+	static final class EntityCompilationEvent extends Event {
+		@Label("Source")
+		String source;
+
+		@Label("Entity")
+		String entity;
+
+		@Label("Cached")
+		boolean cached;
+
+		@Label("Failed")
+		boolean failed;
+
+		@Label("Locations")
+		int locations;
+
+		@Label("Expression Nodes")
+		int nodes;
+
+		@Label("Signals")
+		int signals;
+
+		@Label("Processes")
+		int processes;
+	}
+
+	@Name("wyvc.EntityWriting")
+	@Label("Entity Writing")
+	@Category({"Whiley", "VHDL Compiler"})
+	@Description("Tokenisation and writing of an entity, emitted once it is written")
+	static final class EntityWritingEvent extends Event {
+		@Label("Source")
+		String source;
+
+		@Label("Entity")
+		String entity;
+
+		@Label("Tokens")
+		int tokens;
+
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+
+		@Label("Tokenisation Time")
+		@Timespan
+		long tokeniseTime;
+
+		@Label("Writing Time")
+		@Timespan
+		long writeTime;
+	}
+
+	private JfrEvents() {
+	}
+
+	static CompileEvents create() {
+		return new JfrEvents();
+	}
+
+	@Override
+	Object beginPhase() {
+		PhaseEvent event = new PhaseEvent();
+		if (!event.isEnabled())
+			return null;
+		event.begin();
+		return event;
+	}
+
+	@Override
+	void endPhase(Object event, CompileMetrics.Phase phase, String source) {
+		if (event == null)
+			return;
+		PhaseEvent e = (PhaseEvent) event;
+		e.end();
+		if (e.shouldCommit()) {
+			e.phase = phase.name().toLowerCase();
+			e.source = source;
+			e.commit();
+		}
+	}
+
+	@Override
+	Object beginEntity() {
+		EntityCompilationEvent event = new EntityCompilationEvent();
+		if (!event.isEnabled())
+			return null;
+		event.begin();
+		return event;
+	}
+
+	@Override
+	void endEntity(Object event, EntityStatistics statistics, boolean failed) {
+		if (event == null)
+			return;
+		EntityCompilationEvent e = (EntityCompilationEvent) event;
+		e.end();
+		if (e.shouldCommit()) {
+			e.source = statistics.source;
+			e.entity = statistics.entity;
+			e.cached = statistics.cached;
+			e.failed = failed;
+			e.locations = statistics.locations;
+			e.nodes = statistics.nodes;
+			e.signals = statistics.signals;
+			e.processes = statistics.processes;
+			e.commit();
+		}
+	}
+
+	@Override
+	void written(EntityStatistics statistics) {
+		EntityWritingEvent e = new EntityWritingEvent();
+		if (e.shouldCommit()) {
+			e.source = statistics.source;
+			e.entity = statistics.entity;
+			e.tokens = statistics.tokens;
+			e.bytes = statistics.bytes;
+			e.tokeniseTime = statistics.tokeniseTime;
+			e.writeTime = statistics.writeTime;
+			e.commit();
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package wyvc.builder;
+
+import java.io.PrintStream;
+
+import wyil.lang.Bytecode;
+import wyvc.lang.LexicalElement.UnsupportedException;
+
+/**
+ * The OpcodeTable class maps the opcodes of the WyIL bytecodes to the handlers
+ * compiling them. A compiler holds one table for each kind of bytecode it
+ * compiles, and looks its handlers up with an array access instead of a chain
+ * of type tests, so that a bytecode can be supported by registering a handler
+ * for its opcode.
+ *
+ * Tables are shared by every compilation, from several threads : they are
+ * filled by a {@link Builder}, in the static initializer of their compiler,
+ * and cannot be modified once built.
+ */
+public final class OpcodeTable<H> {
+	private static final int SIZE = 256;
+
+	private final String kind;
+	private final Object[] handlers;
+
+	private OpcodeTable(Builder<H> builder) {
+		this.kind = builder.kind;
+		this.handlers = builder.handlers.clone();
+	}
+
+	public boolean isSupported(int opcode) {
+		return opcode >= 0 && opcode < SIZE && handlers[opcode] != null;
+	}
+
+	@SuppressWarnings("unchecked")
+	public H get(Bytecode bytecode) throws UnhandledOpcodeException {
+		int opcode = bytecode.opcode();
+		if (!isSupported(opcode))
+			throw new UnhandledOpcodeException(kind, bytecode);
+		return (H) handlers[opcode];
+	}
+
+
+	/**
+	 * The Builder class registers the handlers of a table before it is
+	 * built.
+	 */
+	public static final class Builder<H> {
+		private final String kind;
+		private final Object[] handlers = new Object[SIZE];
+
+		/**
+		 * @param kind	What the bytecodes of the table are, for the diagnostics
+		 */
+		public Builder(String kind) {
+			this.kind = kind;
+		}
+
+		/**
+		 * Registers the handler of the opcode, replacing the previous one.
+		 */
+		public Builder<H> register(int opcode, H handler) {
+			if (opcode < 0 || opcode >= SIZE)
+				throw new IllegalArgumentException("Opcode out of range : "+opcode);
+			handlers[opcode] = handler;
+			return this;
+		}
+
+		public OpcodeTable<H> build() {
+			return new OpcodeTable<>(this);
+		}
+	}
+
+
+	public static class UnhandledOpcodeException extends UnsupportedException {
+		private static final long serialVersionUID = -4410930146390874233L;
+		private final String kind;
+		private final int opcode;
+
+		public UnhandledOpcodeException(String kind, Bytecode bytecode) {
+			super(bytecode.getClass());
+			this.kind = kind;
+			this.opcode = bytecode.opcode();
+		}
+
+		@Override
+		protected void details(PrintStream out) {
+			out.println("    No "+kind+" handler for opcode "+opcode);
+		}
+	}
+}
@@ -0,0 +1,341 @@
+package wyvc.builder;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import wyvc.builder.ArchitectureCompiler.ArchitectureData;
+import wyvc.lang.Expression;
+import wyvc.lang.Expression.Access;
+import wyvc.lang.Expression.BinaryOperation;
+import wyvc.lang.Expression.Mul;
+import wyvc.lang.Expression.Value;
+import wyvc.lang.LexicalElement.UnsupportedException;
+import wyvc.lang.LexicalElement.VHDLException;
+import wyvc.lang.Statement.ClockedProcess;
+import wyvc.lang.Statement.SequentialStatement;
+import wyvc.lang.Statement.SignalAssignment;
+import wyvc.lang.Statement.VariableAssignment;
+import wyvc.lang.TypedValue.Port;
+import wyvc.lang.TypedValue.Signal;
+import wyvc.lang.TypedValue.Variable;
+
+/**
+ * The Pipeliner class turns the process compiled for an architecture into a
+ * pipelined datapath, updated by a single clocked process.
+ *
+ * The assignments of the process are first replaced by the expression of each
+ * output in terms of the inputs (see {@link #resolve}). Each operation is then
+ * given a level, its
+ * distance to the inputs, and the levels are spread evenly over the stages of
+ * the pipeline : with <c>D</c> levels and <c>L</c> stages, an operation of
+ * level <c>l</c> is computed in stage <c>ceil(l * L / D)</c>. A value used in
+ * a later stage than its own goes through one register per stage, and the
+ * outputs are the registers of the last stage.
+ *
+ * The number of stages is the requested depth, bounded by the number of
+ * levels unless it is exact, and extended when the registers of the DSP
+ * blocks computing the products need more stages (see {@link Arithmetic}) :
+ * the resulting latency is given by {@link #getLatency}. An architecture can hold several pipelines, as the
+ * {@link HandshakeBuilder} builds one per segment of its datapath.
+ */
+public class Pipeliner {
+	public static class PipelineException extends UnsupportedException {
+		private static final long serialVersionUID = 5087463937453160123L;
+		private final String reason;
+
+		public PipelineException(Class<?> element, String reason) {
+			super(element);
+			this.reason = reason;
+		}
+
+		@Override
+		protected void details(PrintStream out) {
+			out.println("    Cannot pipeline : " + reason);
+		}
+	}
+
+	/**
+	 * The expressions computed by the process of an architecture, in terms of
+	 * the inputs of the entity and of the outputs of the components it
+	 * invokes.
+	 */
+	public static final class Dataflow {
+		/**
+		 * Expression of each output of the entity.
+		 */
+		public final List<Port> outputs = new ArrayList<>();
+		public final List<Expression> results = new ArrayList<>();
+
+		/**
+		 * Expression assigned to each signal feeding an invoked component.
+		 */
+		public final Map<Signal, Expression> arguments = new IdentityHashMap<>();
+	}
+
+	private final ArchitectureData architecture;
+
+	/**
+	 * Registers of the last stage, and their expressions in terms of the
+	 * inputs of the pipeline.
+	 */
+	private final List<? extends Signal> destinations;
+	private final List<Expression> results;
+
+	private final IdentityHashMap<Expression, Integer> stages = new IdentityHashMap<>();
+	private final IdentityHashMap<Expression, Expression> inlined = new IdentityHashMap<>();
+	private final IdentityHashMap<Expression, Signal[]> registers = new IdentityHashMap<>();
+	private List<Signal> registerList;
+	private List<SequentialStatement> statements;
+	private final int latency;
+
+	/**
+	 * @param architecture	Architecture to which the registers are added
+	 * @param destinations	Registers of the last stage
+	 * @param results		Expression of each of them, whose leaves are the
+	 * 						inputs of the pipeline
+	 * @param depth			Number of stages
+	 * @param exact			Whether the number of stages is the depth even if
+	 * 						the expressions have fewer levels
+	 */
+	public Pipeliner(ArchitectureData architecture, List<? extends Signal> destinations, List<Expression> results,
+			int depth, boolean exact) {
+		this.architecture = architecture;
+		this.destinations = destinations;
+		this.results = results;
+		IdentityHashMap<Expression, Integer> levels = levels();
+		int maxLevel = 0;
+		for (Expression e : results)
+			maxLevel = Math.max(maxLevel, levels.get(e));
+		int latency = exact ? depth : Math.min(depth, Math.max(maxLevel, 1));
+		for (Map.Entry<Expression, Integer> e : levels.entrySet())
+			if (e.getKey() instanceof BinaryOperation)
+				stages.put(e.getKey(), Math.max(1, (e.getValue() * latency + maxLevel - 1) / maxLevel));
+		this.latency = Math.max(latency, registerProducts(architecture.arithmetic));
+	}
+
+	/**
+	 * Moves the products, which are mapped onto DSP blocks, to a later stage
+	 * than their operands when the inputs of the DSP blocks are registered,
+	 * and the operations using them to a later stage than theirs when their
+	 * outputs are, so that the registers of the stages are the ones of the
+	 * DSP blocks. The operations depending on a moved one are moved along
+	 * with it. Returns the last stage of the operations.
+	 */
+	private int registerProducts(Arithmetic arithmetic) {
+		int last = 0;
+		for (Expression e : postOrder())
+			if (e instanceof BinaryOperation) {
+				BinaryOperation op = (BinaryOperation) e;
+				int stage = stages.get(op);
+				for (Expression arg : new Expression[]{op.arg1, op.arg2})
+					if (!(arg instanceof Value)) {
+						boolean registered = arithmetic.inputRegisters && op instanceof Mul
+							|| arithmetic.outputRegisters && arg instanceof Mul;
+						stage = Math.max(stage, (stages.containsKey(arg) ? stages.get(arg) : 1) + (registered ? 1 : 0));
+					}
+				stages.put(op, stage);
+				last = Math.max(last, stage);
+			}
+		return last;
+	}
+
+	/**
+	 * Returns the number of clock cycles between the inputs and the outputs.
+	 */
+	public int getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Replaces the accesses to the variables by the expressions assigned to
+	 * them, from the first statement of the process to the last, and returns
+	 * the expression of each output and of each argument of the invoked
+	 * components.
+	 */
+	public static Dataflow resolve(ArchitectureData architecture) throws VHDLException {
+		Dataflow dataflow = new Dataflow();
+		Map<Variable, Expression> values = new HashMap<>();
+		IdentityHashMap<Expression, Expression> resolved = new IdentityHashMap<>();
+		for (SequentialStatement s : architecture.processStatements) {
+			if (s instanceof VariableAssignment)
+				values.put(((VariableAssignment) s).dest, resolve(((VariableAssignment) s).expr, values, resolved));
+			else if (s instanceof SignalAssignment && ((SignalAssignment) s).dest instanceof Port) {
+				dataflow.outputs.add((Port) ((SignalAssignment) s).dest);
+				dataflow.results.add(resolve(((SignalAssignment) s).expr, values, resolved));
+			}
+			else if (s instanceof SignalAssignment)
+				dataflow.arguments.put(((SignalAssignment) s).dest, resolve(((SignalAssignment) s).expr, values, resolved));
+			else
+				throw new PipelineException(s.getClass(), "only the outputs of the entity can be assigned");
+		}
+		return dataflow;
+	}
+
+	/**
+	 * An operation whose operands are being resolved.
+	 */
+	private static final class Rebuild {
+		public final BinaryOperation operation;
+
+		public Rebuild(BinaryOperation operation) {
+			this.operation = operation;
+		}
+	}
+
+	/**
+	 * Resolves the expression in post-order, with explicit stacks, as
+	 * {@link ExpressionDAG} rewrites its expressions. Operations whose operands
+	 * are unchanged are kept, and each node is resolved once, so that the
+	 * resolved expressions share their nodes as the original ones do.
+	 */
+	private static Expression resolve(Expression expr, Map<Variable, Expression> values,
+			IdentityHashMap<Expression, Expression> resolved) throws VHDLException {
+		ArrayDeque<Object> pending = new ArrayDeque<>();
+		ArrayDeque<Expression> operands = new ArrayDeque<>();
+		pending.push(expr);
+		while (!pending.isEmpty()) {
+			Object next = pending.pop();
+			if (next instanceof Rebuild) {
+				BinaryOperation op = ((Rebuild) next).operation;
+				Expression arg2 = operands.pop();
+				Expression arg1 = operands.pop();
+				Expression result = arg1 == op.arg1 && arg2 == op.arg2 ? op : op.with(arg1, arg2);
+				resolved.put(op, result);
+				operands.push(result);
+			}
+			else if (resolved.containsKey(next))
+				operands.push(resolved.get(next));
+			else if (next instanceof BinaryOperation) {
+				pending.push(new Rebuild((BinaryOperation) next));
+				pending.push(((BinaryOperation) next).arg2);
+				pending.push(((BinaryOperation) next).arg1);
+			}
+			else if (next instanceof Access && ((Access) next).value instanceof Variable) {
+				Expression value = values.get(((Access) next).value);
+				if (value == null)
+					throw new PipelineException(Access.class, "variable " + ((Access) next).value.ident
+						+ " read before being assigned");
+				operands.push(value);
+			}
+			else
+				operands.push((Expression) next);
+		}
+		return operands.pop();
+	}
+
+	/**
+	 * Computes the level of each node of the outputs : 0 for the inputs and
+	 * the constants, and one more than the level of its operands for an
+	 * operation.
+	 */
+	private IdentityHashMap<Expression, Integer> levels() {
+		IdentityHashMap<Expression, Integer> levels = new IdentityHashMap<>();
+		for (Expression e : postOrder())
+			levels.put(e, e instanceof BinaryOperation ? 1 + Math.max(
+				levels.get(((BinaryOperation) e).arg1), levels.get(((BinaryOperation) e).arg2)) : 0);
+		return levels;
+	}
+
+	/**
+	 * Returns the nodes of the outputs, each operation after its operands.
+	 */
+	private List<Expression> postOrder() {
+		List<Expression> order = new ArrayList<>();
+		IdentityHashMap<Expression, Boolean> visited = new IdentityHashMap<>();
+		ArrayDeque<Object> pending = new ArrayDeque<>();
+		for (Expression result : results) {
+			pending.push(result);
+			while (!pending.isEmpty()) {
+				Object next = pending.pop();
+				if (next instanceof Rebuild)
+					order.add(((Rebuild) next).operation);
+				else if (visited.put((Expression) next, true) == null) {
+					if (next instanceof BinaryOperation) {
+						pending.push(new Rebuild((BinaryOperation) next));
+						pending.push(((BinaryOperation) next).arg2);
+						pending.push(((BinaryOperation) next).arg1);
+					}
+					else
+						order.add((Expression) next);
+				}
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Builds the clocked process of a pipeline computing the outputs of the
+	 * architecture. The signals of its registers are added to the
+	 * architecture, and the variables holding the operations shared within a
+	 * stage to the given list.
+	 */
+	public static ClockedProcess build(ArchitectureData architecture, Dataflow dataflow, Port clock, Port reset,
+			int depth, List<Variable> variables) throws VHDLException {
+		if (!dataflow.arguments.isEmpty())
+			throw new PipelineException(SignalAssignment.class, "only the outputs of the entity can be assigned");
+		Pipeliner pipeliner = new Pipeliner(architecture, dataflow.outputs, dataflow.results, depth, false);
+		List<SequentialStatement> statements = new ArrayList<>();
+		List<Signal> registers = new ArrayList<>();
+		pipeliner.build(statements, registers);
+		architecture.entity.setLatency(pipeliner.getLatency());
+		List<SequentialStatement> process = architecture.expressions.hoist(statements, variables);
+		return new ClockedProcess("pipeline", clock, reset, variables.toArray(new Variable[0]),
+			registers.toArray(new Signal[0]), process.toArray(new SequentialStatement[0]));
+	}
+
+	/**
+	 * Adds the assignments of the registers of each stage to the statements,
+	 * and the registers, which have to be reset, to the list. The signals of
+	 * the registers are added to the architecture.
+	 */
+	public void build(List<SequentialStatement> statements, List<Signal> registers) throws VHDLException {
+		this.statements = statements;
+		this.registerList = registers;
+		for (Expression e : postOrder())
+			if (e instanceof BinaryOperation) {
+				BinaryOperation op = (BinaryOperation) e;
+				int stage = stages.get(op);
+				inlined.put(op, op.with(operand(op.arg1, stage), operand(op.arg2, stage)));
+			}
+		for (int k = 0; k < destinations.size(); ++k) {
+			registerList.add(destinations.get(k));
+			statements.add(new SignalAssignment(destinations.get(k), operand(results.get(k), latency)));
+		}
+	}
+
+	/**
+	 * Returns the expression of the value of the node during the stage.
+	 */
+	private Expression operand(Expression e, int stage) throws VHDLException {
+		if (e instanceof Value)
+			return e;
+		int own = stages.containsKey(e) ? stages.get(e) : 1;
+		if (own == stage)
+			return inlined.containsKey(e) ? inlined.get(e) : e;
+		return new Access(register(e, stage - 1));
+	}
+
+	/**
+	 * Returns the register holding the value of the node at the end of the
+	 * stage, creating it and the registers of the previous stages if needed.
+	 */
+	private Signal register(Expression e, int stage) throws VHDLException {
+		Signal[] chain = registers.get(e);
+		if (chain == null)
+			registers.put(e, chain = new Signal[latency + 1]);
+		int own = stages.containsKey(e) ? stages.get(e) : 1;
+		for (int k = own; k <= stage; ++k)
+			if (chain[k] == null) {
+				chain[k] = new Signal("s_stage" + k + "_" + architecture.signals.size(), e.getType());
+				architecture.signals.add(chain[k]);
+				registerList.add(chain[k]);
+				statements.add(new SignalAssignment(chain[k], k == own ? operand(e, k) : new Access(chain[k - 1])));
+			}
+		return chain[stage];
+	}
+}
@@ -0,0 +1,201 @@
+package wyvc.builder;
+
+import java.math.BigInteger;
+
+/**
+ * The Range class represents the interval of the values an integer can take,
+ * each of its bounds being possibly unknown. Ranges are derived from the
+ * types and the constraints of the values, and from the ranges of the
+ * operands of the operations (see {@link Widths}).
+ */
+public final class Range {
+	public static final Range UNBOUNDED = new Range(null, null);
+
+	/**
+	 * Bounds of the range, included, or null when unknown.
+	 */
+	public final BigInteger min;
+	public final BigInteger max;
+
+	public Range(BigInteger min, BigInteger max) {
+		this.min = min;
+		this.max = max;
+	}
+
+	public static Range of(BigInteger value) {
+		return new Range(value, value);
+	}
+
+	/**
+	 * Returns the range of the values of a signed vector of the width.
+	 */
+	public static Range signed(int width) {
+		return new Range(BigInteger.ONE.shiftLeft(width - 1).negate(), BigInteger.ONE.shiftLeft(width - 1).subtract(BigInteger.ONE));
+	}
+
+	/**
+	 * Returns the range of the values of an unsigned vector of the width.
+	 */
+	public static Range unsigned(int width) {
+		return new Range(BigInteger.ZERO, BigInteger.ONE.shiftLeft(width).subtract(BigInteger.ONE));
+	}
+
+	public boolean isBounded() {
+		return min != null && max != null;
+	}
+
+	public boolean isNonNegative() {
+		return min != null && min.signum() >= 0;
+	}
+
+	/**
+	 * Returns the values of both ranges. Contradictory ranges give this one,
+	 * as nothing can be deduced from them.
+	 */
+	public Range intersect(Range other) {
+		BigInteger min = this.min == null ? other.min : other.min == null ? this.min : this.min.max(other.min);
+		BigInteger max = this.max == null ? other.max : other.max == null ? this.max : this.max.min(other.max);
+		if (min != null && max != null && min.compareTo(max) > 0)
+			return this;
+		return new Range(min, max);
+	}
+
+	/**
+	 * Checks whether every value of the other range is in this one.
+	 */
+	public boolean contains(Range other) {
+		return (min == null || (other.min != null && min.compareTo(other.min) <= 0))
+			&& (max == null || (other.max != null && max.compareTo(other.max) >= 0));
+	}
+
+	public Range add(Range other) {
+		return new Range(min == null || other.min == null ? null : min.add(other.min),
+			max == null || other.max == null ? null : max.add(other.max));
+	}
+
+	public Range subtract(Range other) {
+		return new Range(min == null || other.max == null ? null : min.subtract(other.max),
+			max == null || other.min == null ? null : max.subtract(other.min));
+	}
+
+	/**
+	 * Returns the range of the products of the values of both ranges, which
+	 * is bounded by the products of their bounds.
+	 */
+	public Range multiply(Range other) {
+		if (!isBounded() || !other.isBounded())
+			return UNBOUNDED;
+		BigInteger[] products = {min.multiply(other.min), min.multiply(other.max),
+			max.multiply(other.min), max.multiply(other.max)};
+		BigInteger low = products[0];
+		BigInteger high = products[0];
+		for (BigInteger p : products) {
+			low = low.min(p);
+			high = high.max(p);
+		}
+		return new Range(low, high);
+	}
+
+	public Range shiftLeft(int amount) {
+		return new Range(min == null ? null : min.shiftLeft(amount), max == null ? null : max.shiftLeft(amount));
+	}
+
+	/**
+	 * Returns the range of the arithmetic right shift of the values, which
+	 * rounds them toward minus infinity.
+	 */
+	public Range shiftRight(int amount) {
+		return new Range(min == null ? null : min.shiftRight(amount), max == null ? null : max.shiftRight(amount));
+	}
+
+	/**
+	 * Returns the range of the quotients, truncated toward zero, of the values
+	 * of this range by the other ones : they are not greater than the
+	 * dividends in absolute value, which a division by -1 can reach.
+	 */
+	public Range divide(Range other) {
+		if (!isBounded())
+			return UNBOUNDED;
+		BigInteger m = magnitude();
+		return new Range(isNonNegative() && other.isNonNegative() ? BigInteger.ZERO : m.negate(), m);
+	}
+
+	/**
+	 * Returns the range of the remainders of the truncated division of the
+	 * values of this range by the other ones, which have the sign of the
+	 * dividend and are smaller than the divisor in absolute value.
+	 */
+	public Range remainder(Range other) {
+		BigInteger m = isBounded() ? magnitude() : null;
+		if (other.isBounded())
+			m = m == null ? other.magnitude().subtract(BigInteger.ONE) : m.min(other.magnitude().subtract(BigInteger.ONE));
+		if (m == null)
+			return UNBOUNDED;
+		return new Range(isNonNegative() ? BigInteger.ZERO : m.negate(), max != null && max.signum() <= 0 ? BigInteger.ZERO : m);
+	}
+
+	/**
+	 * Returns the range of the modulos of the values of this range by the
+	 * other ones, which have the sign of the divisor and are smaller than it
+	 * in absolute value.
+	 */
+	public Range modulo(Range other) {
+		if (!other.isBounded())
+			return UNBOUNDED;
+		BigInteger m = other.magnitude().subtract(BigInteger.ONE);
+		return new Range(other.isNonNegative() ? BigInteger.ZERO : m.negate(), other.max.signum() <= 0 ? BigInteger.ZERO : m);
+	}
+
+	/**
+	 * Returns the greatest absolute value of the range, which is bounded.
+	 */
+	public BigInteger magnitude() {
+		return min.abs().max(max.abs());
+	}
+
+	/**
+	 * Returns the range of the bitwise conjunction, or of another bitwise
+	 * operation, of the values of both ranges. The result of a bitwise
+	 * operation of non negative values has no more bits than them, and their
+	 * conjunction with a non negative value is not greater than it.
+	 */
+	public Range bitwise(Range other, boolean conjunction) {
+		if (conjunction && (isNonNegative() && isBounded() || other.isNonNegative() && other.isBounded()))
+			return new Range(BigInteger.ZERO, isNonNegative() && isBounded() && other.isNonNegative() && other.isBounded()
+				? max.min(other.max) : isNonNegative() && isBounded() ? max : other.max);
+		if (isNonNegative() && other.isNonNegative() && isBounded() && other.isBounded())
+			return unsigned(Math.max(max.bitLength(), other.max.bitLength()));
+		if (isBounded() && other.isBounded())
+			return signed(Math.max(signedWidth(), other.signedWidth()));
+		return UNBOUNDED;
+	}
+
+	/**
+	 * Returns the number of bits of the two's complement representation of
+	 * the values, sign bit included, or -1 if the range is not bounded.
+	 */
+	public int signedWidth() {
+		if (!isBounded())
+			return -1;
+		return Math.max(min.bitLength(), max.bitLength()) + 1;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof Range))
+			return false;
+		Range range = (Range) other;
+		return (min == null ? range.min == null : min.equals(range.min))
+			&& (max == null ? range.max == null : max.equals(range.max));
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (min == null ? 0 : min.hashCode()) + (max == null ? 0 : max.hashCode());
+	}
+
+	@Override
+	public String toString() {
+		return "[" + (min == null ? "-inf" : min) + ", " + (max == null ? "+inf" : max) + "]";
+	}
+}
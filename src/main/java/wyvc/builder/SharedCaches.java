@@ -0,0 +1,52 @@
+package wyvc.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The SharedCaches class keeps the build caches and the entity stores opened
+ * by the builds of a long-running JVM, so that the following builds reuse
+ * them instead of loading them again.
+ *
+ * A build cache whose manifest was changed by another process since it was
+ * loaded is loaded again.
+ */
+public class SharedCaches {
+	private final Map<File, BuildCache> buildCaches = new HashMap<>();
+	private final Map<File, EntityStore> entityStores = new HashMap<>();
+
+	/**
+	 * Returns the build cache of the manifest, with its counters reset.
+	 */
+	public synchronized BuildCache getBuildCache(File manifest) throws IOException {
+		File key = manifest.getCanonicalFile();
+		BuildCache cache = buildCaches.get(key);
+		if (cache == null || cache.isStale()) {
+			cache = BuildCache.load(manifest);
+			buildCaches.put(key, cache);
+		}
+		cache.resetCounters();
+		return cache;
+	}
+
+	/**
+	 * Returns the entity store of the directory, opening it with the given
+	 * maximal size if it is not opened yet.
+	 */
+	public synchronized EntityStore getEntityStore(File directory, long maxSize) throws IOException {
+		File key = directory.getCanonicalFile();
+		EntityStore store = entityStores.get(key);
+		if (store == null || store.getMaxSize() != maxSize) {
+			store = new EntityStore(directory, maxSize);
+			entityStores.put(key, store);
+		}
+		return store;
+	}
+
+	public synchronized void clear() {
+		buildCaches.clear();
+		entityStores.clear();
+	}
+}
@@ -0,0 +1,332 @@
+package wyvc.builder;
+
+import java.math.BigInteger;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import wyvc.lang.Expression;
+import wyvc.lang.Expression.Add;
+import wyvc.lang.Expression.And;
+import wyvc.lang.Expression.BinaryOperation;
+import wyvc.lang.Expression.Div;
+import wyvc.lang.Expression.Mod;
+import wyvc.lang.Expression.Mul;
+import wyvc.lang.Expression.MultiplicativeBinaryOperation;
+import wyvc.lang.Expression.Nand;
+import wyvc.lang.Expression.Nor;
+import wyvc.lang.Expression.Or;
+import wyvc.lang.Expression.Rem;
+import wyvc.lang.Expression.Sub;
+import wyvc.lang.Expression.Value;
+import wyvc.lang.Expression.Xnor;
+import wyvc.lang.Expression.Xor;
+import wyvc.lang.LexicalElement.VHDLException;
+import wyvc.lang.Type;
+import wyvc.lang.Type.Signed;
+import wyvc.lang.Type.Unsigned;
+import wyvc.lang.TypedValue;
+
+/**
+ * The Simplifier class simplifies the operations of an architecture as they
+ * are built :
+ * <ul>
+ * <li> the operations of constants are folded into constants,</li>
+ * <li> the identities of the additive, multiplicative and logical operators
+ * are applied : <c>x + 0 = x</c>, <c>x - x = 0</c>, <c>x * 1 = x</c>,
+ * <c>x rem 1 = 0</c>, <c>x and x = x</c>, <c>x or '1' = '1'</c>,
+ * <c>x xor x = 0</c>...</li>
+ * <li> the constants added to or subtracted from a sum are gathered, and
+ * <c>(x + y) - y</c> is <c>x</c>,</li>
+ * <li> the variables assigned with a constant are replaced by it where they
+ * are read : the statements of a process are compiled in sequence, without
+ * branches, so the value of a variable is the one of its last
+ * assignment.</li>
+ * </ul>
+ * The identities giving the negation of an operand, like <c>x nand '1'</c>,
+ * are left as they are, as the negation is not an operation of the DAG.
+ *
+ * The divisions by a constant zero are left as they are. The other
+ * operations are built by the {@link Widths}, or mapped by the
+ * {@link ArithmeticMapper} for the multiplicative ones. The operations removed
+ * are counted by operator, for the statistics of the entity.
+ */
+public class Simplifier {
+	private static final Pattern LITERAL = Pattern.compile("(-?[0-9]+)|to_(?:un)?signed\\((-?[0-9]+), [0-9]+\\)");
+
+	private final Widths widths;
+	private final ArithmeticMapper mapper;
+	private final IdentityHashMap<TypedValue, Expression> constants = new IdentityHashMap<>();
+	private final Map<String, Integer> removed = new TreeMap<>();
+	private int removedOperations = 0;
+
+	public Simplifier(Widths widths, ArithmeticMapper mapper) {
+		this.widths = widths;
+		this.mapper = mapper;
+	}
+
+	/**
+	 * Records an assignment of the variable, whose value is known from now on
+	 * if the expression is a constant.
+	 */
+	public void assigned(TypedValue variable, Expression expr) {
+		if (expr instanceof Value)
+			constants.put(variable, expr);
+		else
+			constants.remove(variable);
+	}
+
+	/**
+	 * Returns the constant held by the variable, or null if it is unknown.
+	 */
+	public Expression constant(TypedValue variable) {
+		return constants.get(variable);
+	}
+
+	/**
+	 * Returns the number of operations removed.
+	 */
+	public int getRemovedOperations() {
+		return removedOperations;
+	}
+
+	/**
+	 * Describes the number of operations removed for each operator.
+	 */
+	public String describeRemovedOperations() {
+		StringBuilder description = new StringBuilder();
+		for (Map.Entry<String, Integer> e : removed.entrySet())
+			(description.length() == 0 ? description : description.append(", "))
+				.append(e.getKey()).append(' ').append(e.getValue());
+		return description.toString();
+	}
+
+	/**
+	 * Returns the simplified operation, which is built by the widths, or
+	 * mapped by the mapper, when it cannot be simplified.
+	 */
+	public Expression operation(ExpressionDAG dag, ExpressionDAG.Operator operator, Expression arg1, Expression arg2)
+			throws VHDLException {
+		BinaryOperation probe = operator.build(arg1, arg2);
+		Expression simplified = simplify(dag, probe, arg1, arg2);
+		if (simplified == null)
+			return probe instanceof MultiplicativeBinaryOperation ? mapper.operation(dag, operator, arg1, arg2)
+				: widths.operation(dag, operator, arg1, arg2);
+		removed.merge(probe.getClass().getSimpleName().toLowerCase(), 1, Integer::sum);
+		removedOperations++;
+		return simplified;
+	}
+
+	private Expression simplify(ExpressionDAG dag, BinaryOperation op, Expression arg1, Expression arg2)
+			throws VHDLException {
+		BigInteger c1 = integer(arg1);
+		BigInteger c2 = integer(arg2);
+		if (c1 != null && c2 != null && arg1.getType() instanceof Signed && arg2.getType() instanceof Signed) {
+			BigInteger value = fold(op, c1, c2);
+			return value == null ? null : widths.literal(dag, value);
+		}
+		Boolean b1 = bit(arg1);
+		Boolean b2 = bit(arg2);
+		if (b1 != null && b2 != null) {
+			BigInteger value = fold(op, b1 ? BigInteger.ONE : BigInteger.ZERO, b2 ? BigInteger.ONE : BigInteger.ZERO);
+			return value == null ? null : bit(dag, value.testBit(0));
+		}
+		Type type = op.getType();
+		if (op instanceof Add) {
+			if (isZero(arg2))
+				return arg1;
+			if (isZero(arg1))
+				return arg2;
+			return c1 != null ? gather(dag, arg2, c1, true) : c2 != null ? gather(dag, arg1, c2, true) : cancel(arg1, arg2, true);
+		}
+		if (op instanceof Sub) {
+			if (isZero(arg2))
+				return arg1;
+			if (arg1 == arg2)
+				return zero(dag, type);
+			return c2 != null ? gather(dag, arg1, c2, false) : cancel(arg1, arg2, false);
+		}
+		if (op instanceof Mul) {
+			if (isZero(arg1) || isZero(arg2))
+				return zero(dag, type);
+			if (isOne(arg2))
+				return arg1;
+			return isOne(arg1) ? arg2 : null;
+		}
+		if (op instanceof Div) {
+			if (isOne(arg2))
+				return arg1;
+			return isZero(arg1) ? zero(dag, type) : null;
+		}
+		if (op instanceof Rem || op instanceof Mod)
+			return isZero(arg1) || c2 != null && c2.abs().equals(BigInteger.ONE) ? zero(dag, type) : null;
+		if (op instanceof And) {
+			if (arg1 == arg2 || isOnes(arg2))
+				return arg1;
+			if (isOnes(arg1))
+				return arg2;
+			return isZero(arg1) || isZero(arg2) ? zero(dag, type) : null;
+		}
+		if (op instanceof Or) {
+			if (arg1 == arg2 || isZero(arg2))
+				return arg1;
+			if (isZero(arg1))
+				return arg2;
+			return isOnes(arg1) || isOnes(arg2) ? ones(dag, type) : null;
+		}
+		if (op instanceof Xor) {
+			if (arg1 == arg2)
+				return zero(dag, type);
+			if (isZero(arg2))
+				return arg1;
+			return isZero(arg1) ? arg2 : null;
+		}
+		if (op instanceof Nand)
+			return isZero(arg1) || isZero(arg2) ? ones(dag, type) : null;
+		if (op instanceof Nor)
+			return isOnes(arg1) || isOnes(arg2) ? zero(dag, type) : null;
+		if (op instanceof Xnor)
+			return arg1 == arg2 ? ones(dag, type) : null;
+		return null;
+	}
+
+	/**
+	 * Returns the operation of the constants, or null if it is not folded.
+	 */
+	private static BigInteger fold(BinaryOperation op, BigInteger c1, BigInteger c2) {
+		if (op instanceof Add)
+			return c1.add(c2);
+		if (op instanceof Sub)
+			return c1.subtract(c2);
+		if (op instanceof Mul)
+			return c1.multiply(c2);
+		if (op instanceof MultiplicativeBinaryOperation && c2.signum() == 0)
+			return null;
+		if (op instanceof Div)
+			return c1.divide(c2);
+		if (op instanceof Rem)
+			return c1.remainder(c2);
+		if (op instanceof Mod) {
+			BigInteger modulo = c1.mod(c2.abs());
+			return c2.signum() < 0 && modulo.signum() != 0 ? modulo.add(c2) : modulo;
+		}
+		if (op instanceof And)
+			return c1.and(c2);
+		if (op instanceof Or)
+			return c1.or(c2);
+		if (op instanceof Xor)
+			return c1.xor(c2);
+		if (op instanceof Nand)
+			return c1.and(c2).not();
+		if (op instanceof Nor)
+			return c1.or(c2).not();
+		if (op instanceof Xnor)
+			return c1.xor(c2).not();
+		return null;
+	}
+
+	/**
+	 * Gathers the constant added to, or subtracted from, the sum with the
+	 * constant of the sum : <c>(x + 2) - 3</c> is <c>x - 1</c>. Returns null
+	 * if the sum does not end with a constant.
+	 */
+	private Expression gather(ExpressionDAG dag, Expression sum, BigInteger constant, boolean add) throws VHDLException {
+		if (!(sum instanceof Add || sum instanceof Sub) || !(sum.getType() instanceof Signed))
+			return null;
+		BigInteger inner = integer(((BinaryOperation) sum).arg2);
+		if (inner == null)
+			return null;
+		BigInteger value = (sum instanceof Add ? inner : inner.negate()).add(add ? constant : constant.negate());
+		Expression base = ((BinaryOperation) sum).arg1;
+		if (value.signum() == 0)
+			return base;
+		return widths.operation(dag, value.signum() > 0 ? ExpressionCompiler.ADD : ExpressionCompiler.SUB, base,
+			widths.literal(dag, value.abs()));
+	}
+
+	/**
+	 * Returns the operand of the sum which remains once the other one is
+	 * subtracted from it : <c>(x + y) - y</c> and <c>(x - y) + y</c> are
+	 * <c>x</c>. Returns null if nothing cancels out.
+	 */
+	private static Expression cancel(Expression arg1, Expression arg2, boolean add) {
+		if (add ? arg1 instanceof Sub : arg1 instanceof Add) {
+			BinaryOperation sum = (BinaryOperation) arg1;
+			if (sum.arg2 == arg2)
+				return sum.arg1;
+			if (!add && sum.arg1 == arg2)
+				return sum.arg2;
+		}
+		if (add && arg2 instanceof Sub && ((BinaryOperation) arg2).arg2 == arg1)
+			return ((BinaryOperation) arg2).arg1;
+		return null;
+	}
+
+	/**
+	 * Returns the value of the integer literal, or null if the expression is
+	 * not one.
+	 */
+	static BigInteger integer(Expression expr) {
+		if (!(expr instanceof Value) || !(expr.getType() instanceof Signed || expr.getType() instanceof Unsigned))
+			return null;
+		Matcher matcher = LITERAL.matcher(((Value) expr).value);
+		if (!matcher.matches())
+			return null;
+		return new BigInteger(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+	}
+
+	/**
+	 * Returns the value of the <c>std_logic</c> literal, or null if the
+	 * expression is not one.
+	 */
+	private static Boolean bit(Expression expr) {
+		if (!(expr instanceof Value) || !expr.getType().isCompatible(Type.Std_logic))
+			return null;
+		String value = ((Value) expr).value;
+		return "'1'".equals(value) ? Boolean.TRUE : "'0'".equals(value) ? Boolean.FALSE : null;
+	}
+
+	private static Expression bit(ExpressionDAG dag, boolean value) {
+		return dag.value(Type.Std_logic, value ? "'1'" : "'0'");
+	}
+
+	private static boolean isZero(Expression expr) {
+		BigInteger value = integer(expr);
+		return value != null ? value.signum() == 0 : Boolean.FALSE.equals(bit(expr));
+	}
+
+	private static boolean isOne(Expression expr) {
+		return BigInteger.ONE.equals(integer(expr));
+	}
+
+	/**
+	 * Checks whether every bit of the constant is set.
+	 */
+	private static boolean isOnes(Expression expr) {
+		BigInteger value = integer(expr);
+		return value != null ? expr.getType() instanceof Signed && value.equals(BigInteger.ONE.negate())
+			: Boolean.TRUE.equals(bit(expr));
+	}
+
+	/**
+	 * Returns the constant of the type whose bits are cleared, or null when
+	 * it is not an integer literal nor a <c>std_logic</c>.
+	 */
+	private Expression zero(ExpressionDAG dag, Type type) {
+		if (type instanceof Signed)
+			return widths.literal(dag, BigInteger.ZERO);
+		return type.isCompatible(Type.Std_logic) ? bit(dag, false) : null;
+	}
+
+	/**
+	 * Returns the constant of the type whose bits are set, or null when it is
+	 * not an integer literal nor a <c>std_logic</c>.
+	 */
+	private Expression ones(ExpressionDAG dag, Type type) {
+		if (type instanceof Signed)
+			return widths.literal(dag, BigInteger.ONE.negate());
+		return type.isCompatible(Type.Std_logic) ? bit(dag, true) : null;
+	}
+}
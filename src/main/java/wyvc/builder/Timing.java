@@ -0,0 +1,107 @@
+package wyvc.builder;
+
+import wyvc.lang.Type;
+import wyvc.lang.TypedValue.Port;
+import wyvc.lang.TypedValue.Port.Mode;
+
+/**
+ * The Timing class describes how the entities are clocked. By default, an
+ * entity is combinational : its outputs are computed by a single process
+ * sensitive to its inputs. In synchronous mode, the entities get a clock and a
+ * reset port, and their datapath is cut by pipeline registers into at most
+ * <c>depth</c> stages (see {@link Pipeliner}), so that a result comes out at
+ * each clock cycle after a latency of as many cycles.
+ *
+ * In handshake mode, the entities are pipelined as well, and their inputs and
+ * outputs are wrapped into valid/ready handshakes (see
+ * {@link HandshakeBuilder}) : an item is taken in when <c>in_valid</c> and
+ * <c>in_ready</c> are both high at a clock edge, and given out when
+ * <c>out_valid</c> and <c>out_ready</c> are. The pipeline stalls while its
+ * result is not taken, so that entities can be chained, and can invoke each
+ * other, without knowing their latencies.
+ */
+public final class Timing {
+	public static final Timing COMBINATIONAL = new Timing(0, false);
+
+	public static final String CLOCK = "clk";
+	public static final String RESET = "rst";
+	public static final String IN_VALID = "in_valid";
+	public static final String IN_READY = "in_ready";
+	public static final String OUT_VALID = "out_valid";
+	public static final String OUT_READY = "out_ready";
+
+	/**
+	 * Maximal number of register stages, or 0 for combinational entities.
+	 */
+	public final int depth;
+
+	/**
+	 * Whether the ports are wrapped into valid/ready handshakes.
+	 */
+	public final boolean handshake;
+
+	private Timing(int depth, boolean handshake) {
+		this.depth = depth;
+		this.handshake = handshake;
+	}
+
+	public static Timing pipelined(int depth) {
+		if (depth < 1)
+			throw new IllegalArgumentException("Pipeline depth must be positive, got "+depth);
+		return new Timing(depth, false);
+	}
+
+	public static Timing handshake(int depth) {
+		if (depth < 1)
+			throw new IllegalArgumentException("Pipeline depth must be positive, got "+depth);
+		return new Timing(depth, true);
+	}
+
+	public boolean isSynchronous() {
+		return depth > 0;
+	}
+
+	/**
+	 * Returns the ports added to the interfaces in synchronous mode, before
+	 * the ports of the parameters.
+	 */
+	public Port[] controlPorts() {
+		if (!isSynchronous())
+			return new Port[0];
+		if (!handshake)
+			return new Port[]{new Port(CLOCK, Type.Std_logic, Mode.IN), new Port(RESET, Type.Std_logic, Mode.IN)};
+		return new Port[]{
+			new Port(CLOCK, Type.Std_logic, Mode.IN),
+			new Port(RESET, Type.Std_logic, Mode.IN),
+			new Port(IN_VALID, Type.Std_logic, Mode.IN),
+			new Port(IN_READY, Type.Std_logic, Mode.OUT),
+			new Port(OUT_VALID, Type.Std_logic, Mode.OUT),
+			new Port(OUT_READY, Type.Std_logic, Mode.IN)};
+	}
+
+	/**
+	 * Checks whether the port is one of the control ports. The ports of the
+	 * parameters and of the returns are prefixed, and cannot be mistaken for
+	 * them.
+	 */
+	public static boolean isControlPort(Port port) {
+		switch (port.ident) {
+		case CLOCK:
+		case RESET:
+		case IN_VALID:
+		case IN_READY:
+		case OUT_VALID:
+		case OUT_READY:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Describes the timing in the configuration of the compiler.
+	 */
+	public String describe() {
+		return isSynchronous() ? (handshake ? " handshake " : " pipelined ") + depth : "";
+	}
+}
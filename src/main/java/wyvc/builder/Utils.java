@@ -1,19 +1,48 @@
 package wyvc.builder;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
 import wyil.lang.Bytecode.Assign;
 import wyil.lang.SyntaxTree;
 import wyil.lang.SyntaxTree.Location;
 
 public class Utils {
-	public static void printLocation(Location<?> a, String n) {
-		System.out.println(n+a.toString());
-		for(Location<?> l : a.getOperands())
-			printLocation(l, n+" |  ");
-		if (a.getBytecode() instanceof Assign) {
-			for(Location<?> l : a.getOperandGroup(SyntaxTree.LEFTHANDSIDE))
-				printLocation(l, n+" |<-");
-			for(Location<?> l : a.getOperandGroup(SyntaxTree.RIGHTHANDSIDE))
-				printLocation(l, n+" |->");
+	private static final class Line {
+		public final Location<?> location;
+		public final String prefix;
+
+		public Line(Location<?> location, String prefix) {
+			this.location = location;
+			this.prefix = prefix;
+		}
+	}
+
+	/**
+	 * Describes the tree of the location, one line per location, each
+	 * prefixed with its depth and its role in its parent.
+	 */
+	public static List<String> describeLocation(Location<?> a) {
+		List<String> lines = new ArrayList<>();
+		ArrayDeque<Line> pending = new ArrayDeque<>();
+		pending.push(new Line(a, ""));
+		while (!pending.isEmpty()) {
+			Line line = pending.pop();
+			String n = line.prefix;
+			lines.add(n+line.location.toString());
+			ArrayList<Line> children = new ArrayList<>();
+			for(Location<?> l : line.location.getOperands())
+				children.add(new Line(l, n+" |  "));
+			if (line.location.getBytecode() instanceof Assign) {
+				for(Location<?> l : line.location.getOperandGroup(SyntaxTree.LEFTHANDSIDE))
+					children.add(new Line(l, n+" |<-"));
+				for(Location<?> l : line.location.getOperandGroup(SyntaxTree.RIGHTHANDSIDE))
+					children.add(new Line(l, n+" |->"));
+			}
+			for (int k = children.size() - 1; k >= 0; --k)
+				pending.push(children.get(k));
 		}
+		return lines;
 	}
 }
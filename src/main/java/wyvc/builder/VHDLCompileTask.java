@@ -1,16 +1,21 @@
 package wyvc.builder;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import wybs.lang.Build;
 import wybs.lang.Build.Graph;
 import wybs.lang.Build.Project;
 import wyil.lang.WyilFile.FunctionOrMethod;
-import wyvc.Activator;
+import wyvc.builder.BuildCache.FunctionRecord;
+import wyvc.io.VHDLFileWritter;
 import wycc.util.Logger;
 import wycc.util.Pair;
 import wyfs.lang.Path;
@@ -18,74 +23,422 @@ import wyfs.lang.Path.Entry;
 import wyfs.lang.Path.Root;
 import wyil.lang.WyilFile;
 import wyvc.lang.Entity;
-import wyvc.lang.LexicalElement.VHDLException;
-import wyvc.lang.VHDLFile;
 import wyvc.builder.ElementCompiler;
 
 public class VHDLCompileTask implements Build.Task {
-	private Logger logger = Logger.NULL;
+	/**
+	 * Version of the code generation, to increase whenever a change of the
+	 * compiler alters the code generated for a given function, so that the
+	 * entities of the store compiled by previous versions are not reused.
+	 */
+	private static final int CONFIGURATION_VERSION = 5;
+
+	private Logger logger = new Logger.Default(System.err);
+
+	/**
+	 * Verbosity of the messages sent to the logger.
+	 */
+	private Diagnostics.Level diagnosticLevel = Diagnostics.Level.ERROR;
+
+	/**
+	 * Names of the functions whose compilation is traced, or null to trace
+	 * every function when the level is TRACE.
+	 */
+	private Collection<String> tracedFunctions = null;
 
 	private Build.Project project;
 
+	/**
+	 * Number of threads used to compile the functions of a file. The value 1
+	 * compiles them in sequence on the calling thread.
+	 */
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Number of files that can wait between two stages of the pipeline.
+	 */
+	private int pipelineCapacity = 4;
+
+	/**
+	 * Manifest of the build cache, or null to recompile every file of the
+	 * delta.
+	 */
+	private File buildCache = null;
+
+	/**
+	 * Caches kept in memory between the builds of a JVM, or null to load the
+	 * build cache at each build.
+	 */
+	private SharedCaches sharedCaches = null;
+
+	/**
+	 * Store of entities shared with other builds, or null to compile every
+	 * function missing from the build cache.
+	 */
+	private EntityStore entityStore = null;
+
+	/**
+	 * Whether each entity is written as soon as it is compiled, instead of
+	 * compiling a whole file before writing it.
+	 */
+	private boolean streaming = false;
+
+	/**
+	 * Whether the VHDL code is written without indentation nor alignment.
+	 */
+	private boolean compact = false;
+
+	/**
+	 * Maximal number of pipeline stages of the entities, or 0 to generate
+	 * combinational entities.
+	 */
+	private int pipelineDepth = 0;
+
+	/**
+	 * Whether the ports of the entities are wrapped into valid/ready
+	 * handshakes.
+	 */
+	private boolean handshake = false;
+
+	/**
+	 * Whether the operands of the products of DSP blocks are registered, in
+	 * synchronous mode.
+	 */
+	private boolean multiplierInputRegisters = false;
+
+	/**
+	 * Whether the products of DSP blocks are registered, in synchronous mode.
+	 */
+	private boolean multiplierOutputRegisters = false;
+
+	/**
+	 * Maximal number of non zero digits of a constant factor decomposed into
+	 * shifts and additions.
+	 */
+	private int shiftAddTerms = Arithmetic.DEFAULT_SHIFT_ADD_TERMS;
+
+	/**
+	 * Whether the divisions by a variable are computed by a multi-cycle
+	 * divider in handshake mode.
+	 */
+	private boolean multiCycleDivider = false;
+
+	/**
+	 * File receiving the measures of each build, in JSON or CSV, or null.
+	 */
+	private File metricsReport = null;
+
 	public VHDLCompileTask(Build.Project project) {
 		this.project = project;
-		System.out.println("VHDL compile task !!");
 	}
 
 	public Project project() {
 		return project;
 	}
 
+	public void setLogger(Logger logger) {
+		this.logger = logger;
+	}
+
+	public Diagnostics.Level getDiagnosticLevel() {
+		return diagnosticLevel;
+	}
+
+	public void setDiagnosticLevel(Diagnostics.Level diagnosticLevel) {
+		this.diagnosticLevel = diagnosticLevel;
+	}
+
+	/**
+	 * Restricts the traces to the functions of the given names, or traces
+	 * every function if null.
+	 */
+	public void setTracedFunctions(Collection<String> tracedFunctions) {
+		this.tracedFunctions = tracedFunctions;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("Parallelism level must be positive, got "+parallelism);
+		this.parallelism = parallelism;
+	}
+
+	public int getPipelineCapacity() {
+		return pipelineCapacity;
+	}
+
+	public void setPipelineCapacity(int pipelineCapacity) {
+		if (pipelineCapacity < 1)
+			throw new IllegalArgumentException("Pipeline capacity must be positive, got "+pipelineCapacity);
+		this.pipelineCapacity = pipelineCapacity;
+	}
+
+	public File getBuildCache() {
+		return buildCache;
+	}
+
+	public void setBuildCache(File manifest) {
+		this.buildCache = manifest;
+	}
+
+	public SharedCaches getSharedCaches() {
+		return sharedCaches;
+	}
+
+	public void setSharedCaches(SharedCaches sharedCaches) {
+		this.sharedCaches = sharedCaches;
+	}
+
+	public EntityStore getEntityStore() {
+		return entityStore;
+	}
+
+	public void setEntityStore(EntityStore entityStore) {
+		this.entityStore = entityStore;
+	}
+
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	public boolean isCompact() {
+		return compact;
+	}
+
+	/**
+	 * Sets whether the VHDL code is written without indentation nor
+	 * alignment. The mode is part of the configuration recorded in the build
+	 * cache and in the keys of the entity store : switching it compiles the
+	 * files generated in the other mode again.
+	 */
+	public void setCompact(boolean compact) {
+		this.compact = compact;
+	}
+
+	public int getPipelineDepth() {
+		return pipelineDepth;
+	}
+
+	/**
+	 * Sets the maximal number of pipeline stages of the entities, which are
+	 * then clocked, or 0 to generate combinational entities.
+	 */
+	public void setPipelineDepth(int pipelineDepth) {
+		if (pipelineDepth < 0)
+			throw new IllegalArgumentException("Pipeline depth cannot be negative, got "+pipelineDepth);
+		this.pipelineDepth = pipelineDepth;
+	}
+
+	public boolean isHandshake() {
+		return handshake;
+	}
+
+	/**
+	 * Sets whether the ports of the entities are wrapped into valid/ready
+	 * handshakes. Handshake entities are pipelined with at least one stage.
+	 */
+	public void setHandshake(boolean handshake) {
+		this.handshake = handshake;
+	}
+
+	private Timing getTiming() {
+		if (handshake)
+			return Timing.handshake(Math.max(pipelineDepth, 1));
+		return pipelineDepth == 0 ? Timing.COMBINATIONAL : Timing.pipelined(pipelineDepth);
+	}
+
+	public boolean hasMultiplierInputRegisters() {
+		return multiplierInputRegisters;
+	}
+
+	public boolean hasMultiplierOutputRegisters() {
+		return multiplierOutputRegisters;
+	}
+
+	/**
+	 * Sets whether the operands and the results of the products of DSP
+	 * blocks are registered, which adds stages to the synchronous entities.
+	 */
+	public void setMultiplierRegisters(boolean input, boolean output) {
+		this.multiplierInputRegisters = input;
+		this.multiplierOutputRegisters = output;
+	}
+
+	public int getShiftAddTerms() {
+		return shiftAddTerms;
+	}
+
+	/**
+	 * Sets the maximal number of non zero digits of a constant factor
+	 * decomposed into shifts and additions, or 0 to map every product onto
+	 * DSP blocks.
+	 */
+	public void setShiftAddTerms(int shiftAddTerms) {
+		if (shiftAddTerms < 0)
+			throw new IllegalArgumentException("Number of shift-add terms cannot be negative, got "+shiftAddTerms);
+		this.shiftAddTerms = shiftAddTerms;
+	}
+
+	public boolean isMultiCycleDivider() {
+		return multiCycleDivider;
+	}
+
+	/**
+	 * Sets whether the divisions by a variable are computed by a multi-cycle
+	 * divider, in handshake mode only.
+	 */
+	public void setMultiCycleDivider(boolean multiCycleDivider) {
+		this.multiCycleDivider = multiCycleDivider;
+	}
+
+	private Arithmetic getArithmetic() {
+		return new Arithmetic(multiplierInputRegisters, multiplierOutputRegisters, shiftAddTerms, multiCycleDivider);
+	}
+
+	public File getMetricsReport() {
+		return metricsReport;
+	}
+
+	/**
+	 * Sets the file receiving the measures of each build, written in JSON
+	 * when its name ends with <c>.json</c>, and in CSV otherwise.
+	 */
+	public void setMetricsReport(File metricsReport) {
+		this.metricsReport = metricsReport;
+	}
+
+	/**
+	 * Describes the settings of the compiler that change the generated code.
+	 */
+	public String getConfiguration() {
+		return "wyvc " + CONFIGURATION_VERSION + (compact ? " compact" : "") + getTiming().describe()
+			+ getArithmetic().describe();
+	}
+
 	public Set<Entry<?>> build(Collection<Pair<Entry<?>, Root>> delta, Graph graph) throws IOException {
 		Runtime runtime = Runtime.getRuntime();
 		long start = System.currentTimeMillis();
 		long memory = runtime.freeMemory();
 
-		HashSet<Path.Entry<?>> generatedFiles = new HashSet<Path.Entry<?>>();
-
-
-		for (Pair<Path.Entry<?>, Path.Root> p : delta) {
-			Path.Root dst = p.second();
-			System.out.println(p.toString());
-			@SuppressWarnings("unchecked")
-			Path.Entry<WyilFile> source = (Path.Entry<WyilFile>) p.first();
-			WyilFile f = source.read();
-			System.out.println(f.toString());
-
-			ArrayList<Entity> entities = new ArrayList<Entity>();
-
-			try {
-				for (FunctionOrMethod fct : f.functionOrMethods()){
-					entities.add(ElementCompiler.compileEntity(fct));
-				}
-			} catch (VHDLException e) {
-				e.printStackTrace();
-				e.info();
-			} catch (VHDLCompilationException e) {
-				e.printStackTrace();
-				System.err.println("Unsupported");
-			}
-
-			Path.Entry<VHDLFile> target = dst.create(source.id(), Activator.ContentType);
-			graph.registerDerivation(source, target);
-			generatedFiles.add(target);
-			//*
-			VHDLFile contents = new VHDLFile(entities.toArray(new Entity[0]));
-			/*/
-			VHDLFile contents = new VHDLFile();
-			//*/
-			target.write(contents);
-
+		Set<Path.Entry<?>> generatedFiles;
+		BuildCache cache = buildCache == null ? null
+			: sharedCaches != null ? sharedCaches.getBuildCache(buildCache) : BuildCache.load(buildCache);
+		ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		CompileMetrics metrics = new CompileMetrics();
+		Diagnostics diagnostics = new Diagnostics(logger, diagnosticLevel, tracedFunctions);
+		try {
+			if (cache != null)
+				cache.setConfiguration(getConfiguration());
+			CompileContext context = new CompileContext(pool, cache, entityStore, getConfiguration(), compact, getTiming(),
+				getArithmetic(), diagnostics, metrics);
+			generatedFiles = new CompilePipeline(context, pipelineCapacity, streaming).run(delta, graph);
+		} finally {
+			if (pool != null)
+				pool.shutdown();
+			if (cache != null)
+				cache.save();
 		}
+		if (cache != null)
+			diagnostics.log(Diagnostics.Level.INFO, "Wyil => VHDL: build cache " + cache.getHits() + " hit(s), "
+				+ cache.getMisses() + " miss(es), " + cache.getFunctionHits() + " function(s) reused, "
+				+ cache.getFunctionMisses() + " compiled");
 
+		diagnostics.log(Diagnostics.Level.VERBOSE, "Wyil => VHDL: " + metrics.describePhases());
+		if (metricsReport != null)
+			metrics.writeReport(metricsReport);
 
 		long endTime = System.currentTimeMillis();
-		logger.logTimedMessage("Wyil => VHDL: compiled " + delta.size() + " file(s)", endTime - start,
+		diagnostics.log(Diagnostics.Level.INFO, "Wyil => VHDL: compiled " + delta.size() + " file(s)", endTime - start,
 				memory - runtime.freeMemory());
 		return generatedFiles;
 	}
 
 
+	/**
+	 * Compiles every function of the file into its own entity. When a pool is
+	 * given, functions are compiled concurrently; the entities are returned in
+	 * the order of the file either way, to the given list.  A function that
+	 * fails to compile is reported and left out, without preventing the others
+	 * from compiling : returns whether every function compiled.
+	 *
+	 * When the context holds caches, the functions that have not changed since
+	 * the previous build are not compiled again, and the records of the
+	 * functions of the file are updated.
+	 */
+	static boolean compileEntities(WyilFile f, CompileContext context, Path.Entry<?> source, List<Entity> entities) {
+		Map<String, String> interfaces = interfaces(f, context);
+		ArrayList<EntityCompilation> compilations = new ArrayList<>();
+		for (FunctionOrMethod fct : f.functionOrMethods())
+			compilations.add(new EntityCompilation(fct, context, source, interfaces));
+		if (context.pool == null || compilations.size() < 2)
+			for (EntityCompilation c : compilations)
+				c.compile();
+		else
+			context.pool.invoke(new EntityCompilation.CompileRange(compilations.toArray(new EntityCompilation[0]), 0, compilations.size()));
+
+		boolean complete = true;
+		Map<String, FunctionRecord> records = new HashMap<>();
+		for (EntityCompilation c : compilations) {
+			c.report();
+			if (!c.failed())
+				entities.add(c.getEntity());
+			else
+				complete = false;
+			if (c.getRecord() != null)
+				records.put(FunctionFingerprint.key(c.function), c.getRecord());
+		}
+		if (context.cache != null)
+			context.cache.recordFunctions(source, records);
+		return complete;
+	}
+
+
+	/**
+	 * Compiles the functions of the file one at a time, writing each entity
+	 * as soon as it is compiled, so that only one entity is held in memory.
+	 * Errors are handled as in {@link #compileEntities} : returns whether every
+	 * function compiled.
+	 */
+	static boolean streamEntities(WyilFile f, CompileContext context, Path.Entry<?> source, VHDLFileWritter writer)
+			throws IOException {
+		Map<String, String> interfaces = interfaces(f, context);
+		boolean complete = true;
+		Map<String, FunctionRecord> records = new HashMap<>();
+		for (FunctionOrMethod fct : f.functionOrMethods()) {
+			EntityCompilation c = new EntityCompilation(fct, context, source, interfaces).compile();
+			c.report();
+			if (!c.failed())
+				writer.write(c.getEntity());
+			else
+				complete = false;
+			if (c.getRecord() != null)
+				records.put(FunctionFingerprint.key(c.function), c.getRecord());
+		}
+		if (context.cache != null)
+			context.cache.recordFunctions(source, records);
+		return complete;
+	}
+
+	/**
+	 * Computes the hashes of the interfaces of the functions of the file, by
+	 * name, when they are needed to look up entities in the caches.
+	 */
+	private static Map<String, String> interfaces(WyilFile f, CompileContext context) {
+		Map<String, String> interfaces = new HashMap<>();
+		if (context.usesCaches())
+			for (FunctionOrMethod fct : f.functionOrMethods())
+				interfaces.put(fct.name(), FunctionFingerprint.interfaceHash(fct.name(), fct.type()));
+		return interfaces;
+	}
+
+
 	public static class VHDLCompilationException extends Exception {
 		private static final long serialVersionUID = 1062123869833614980L;
 
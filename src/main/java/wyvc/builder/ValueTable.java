@@ -0,0 +1,59 @@
+package wyvc.builder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import wyvc.lang.TypedValue;
+import wyvc.lang.TypedValue.Port;
+
+/**
+ * The ValueTable class maps the locations of a WyIL function body to the VHDL
+ * values holding them. Locations are indexed densely from 0, so the values are
+ * held in an array indexed by location, which grows as locations are added.
+ * The output ports, which have no location, are held in separate slots
+ * numbered from 1 in the order of the returns of the function.
+ */
+public class ValueTable {
+	private static final int INITIAL_CAPACITY = 16;
+
+	private TypedValue[] values = new TypedValue[INITIAL_CAPACITY];
+	private final ArrayList<Port> outputs = new ArrayList<>();
+	private int size = 0;
+
+	public TypedValue get(int location) {
+		return location < values.length ? values[location] : null;
+	}
+
+	public boolean contains(int location) {
+		return get(location) != null;
+	}
+
+	public void put(int location, TypedValue value) {
+		if (location >= values.length)
+			values = Arrays.copyOf(values, Math.max(2 * values.length, location + 1));
+		if (values[location] == null)
+			++size;
+		values[location] = value;
+	}
+
+	/**
+	 * Returns the k-th output port, starting from 1.
+	 */
+	public Port getOutput(int k) {
+		return outputs.get(k - 1);
+	}
+
+	/**
+	 * Adds the next output port.
+	 */
+	public void addOutput(Port port) {
+		outputs.add(port);
+	}
+
+	/**
+	 * Returns the number of values of the table, output ports included.
+	 */
+	public int size() {
+		return size + outputs.size();
+	}
+}
@@ -0,0 +1,440 @@
+package wyvc.builder;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import wyil.lang.Bytecode;
+import wyil.lang.Bytecode.OperatorKind;
+import wyil.lang.NameID;
+import wyil.lang.SyntaxTree.Location;
+import wyil.lang.WyilFile;
+import wyil.lang.WyilFile.FunctionOrMethod;
+import wyvc.lang.Expression;
+import wyvc.lang.Expression.Access;
+import wyvc.lang.Expression.Add;
+import wyvc.lang.Expression.AdditiveBinaryOperation;
+import wyvc.lang.Expression.And;
+import wyvc.lang.Expression.BinaryOperation;
+import wyvc.lang.Expression.Div;
+import wyvc.lang.Expression.Mod;
+import wyvc.lang.Expression.Mul;
+import wyvc.lang.Expression.MultiplicativeBinaryOperation;
+import wyvc.lang.Expression.Or;
+import wyvc.lang.Expression.Rem;
+import wyvc.lang.Expression.Resize;
+import wyvc.lang.Expression.ShiftLeft;
+import wyvc.lang.Expression.ShiftRight;
+import wyvc.lang.Expression.Sub;
+import wyvc.lang.Expression.Value;
+import wyvc.lang.Expression.Xor;
+import wyvc.lang.LexicalElement.VHDLException;
+import wyvc.lang.Type;
+import wyvc.lang.Type.Signed;
+import wyvc.lang.Type.Unsigned;
+import wyvc.lang.Type.VectorType;
+import wyvc.lang.TypedValue;
+
+/**
+ * The Widths class infers the narrowest VHDL type of the values of a
+ * function from their WyIL types : a <c>bool</c> is a <c>std_logic</c>, a
+ * <c>byte</c> an unsigned vector of 8 bits, and an <c>int</c> a signed vector
+ * wide enough for its range, which is known when its type is a nominal type
+ * declared in the file of the function with a <c>where</c> invariant bounding
+ * it, or when it is a parameter bounded by the preconditions of the function.
+ * Integers are never wider than {@link #DEFAULT_WIDTH} bits, the width of the
+ * unbounded ones.
+ *
+ * The range of each operation is derived from the ranges of its operands, so
+ * that it is computed on just enough bits for its result to never overflow.
+ * Its operands are resized to its width, as are the values assigned to
+ * variables, outputs or arguments of another width, except for the operands
+ * of the multiplicative operations, whose width numeric_std derives from
+ * theirs.
+ *
+ * The integers of the interfaces keep the default width, so that callers and
+ * callees compiled separately always agree on their ports : an entity resizes
+ * its inputs to their ranges as it reads them.
+ */
+public class Widths {
+	public static final int DEFAULT_WIDTH = 32;
+
+	/**
+	 * Maximal number of nominal types followed to find the range of a type.
+	 */
+	private static final int MAX_NOMINAL_DEPTH = 16;
+
+	private static final ExpressionDAG.Operator RESIZE = Resize::new;
+	private static final ExpressionDAG.Operator SHIFT_LEFT = ShiftLeft::new;
+	private static final ExpressionDAG.Operator SHIFT_RIGHT = ShiftRight::new;
+
+	private final WyilFile file;
+	private final List<Range> parameters;
+	private final IdentityHashMap<Expression, Range> ranges = new IdentityHashMap<>();
+	private final IdentityHashMap<TypedValue, Range> values = new IdentityHashMap<>();
+
+	/**
+	 * Widths of a function whose types are unknown : every integer has the
+	 * default width.
+	 */
+	public Widths() {
+		this(null, Collections.emptyList());
+	}
+
+	private Widths(WyilFile file, List<Range> parameters) {
+		this.file = file;
+		this.parameters = parameters;
+	}
+
+	/**
+	 * Returns the widths of the function, whose parameters are bounded by its
+	 * types and its preconditions.
+	 */
+	public static Widths of(FunctionOrMethod function) {
+		Widths widths = new Widths(function.parent(), new ArrayList<>());
+		wyil.lang.Type[] params = function.type().params();
+		for (int k = 0; k < params.length; ++k) {
+			Range range = widths.range(params[k]);
+			for (Location<?> precondition : function.getPrecondition())
+				range = constrain(range, precondition, k);
+			widths.parameters.add(range);
+		}
+		return widths;
+	}
+
+	/**
+	 * Returns the range of the k-th parameter of the function.
+	 */
+	public Range getParameter(int k) {
+		return k < parameters.size() ? parameters.get(k) : Range.UNBOUNDED;
+	}
+
+	/**
+	 * Describes the ranges of the parameters, on which the entity of the
+	 * function depends.
+	 */
+	public String describeParameters() {
+		return parameters.toString();
+	}
+
+	/**
+	 * Returns the type of the ports of a value of the WyIL type.
+	 */
+	public static Type interfaceType(wyil.lang.Type type) {
+		if (type instanceof wyil.lang.Type.Bool)
+			return Type.Std_logic;
+		if (type instanceof wyil.lang.Type.Byte)
+			return Unsigned.of(7, 0);
+		return Signed.of(DEFAULT_WIDTH - 1, 0);
+	}
+
+	/**
+	 * Returns the narrowest type of a value of the WyIL type.
+	 */
+	public Type type(wyil.lang.Type type) {
+		if (type instanceof wyil.lang.Type.Bool || type instanceof wyil.lang.Type.Byte)
+			return interfaceType(type);
+		return type(range(type));
+	}
+
+	/**
+	 * Returns the narrowest signed type holding the values of the range.
+	 */
+	public static Signed type(Range range) {
+		return Signed.of(width(range) - 1, 0);
+	}
+
+	static int width(Range range) {
+		int width = range.signedWidth();
+		return width == -1 ? DEFAULT_WIDTH : Math.max(2, Math.min(width, DEFAULT_WIDTH));
+	}
+
+	/**
+	 * Returns the range of the values of the WyIL type : the integers of a
+	 * nominal type declared in the file of the function are bounded by its
+	 * invariant.
+	 */
+	public Range range(wyil.lang.Type type) {
+		Range range = Range.UNBOUNDED;
+		for (int depth = 0; depth < MAX_NOMINAL_DEPTH && type instanceof wyil.lang.Type.Nominal && file != null; ++depth) {
+			NameID name = ((wyil.lang.Type.Nominal) type).name();
+			WyilFile.Type declaration = name.module().equals(file.id()) ? file.type(name.name()) : null;
+			if (declaration == null)
+				break;
+			for (Location<?> invariant : declaration.getInvariant())
+				range = constrain(range, invariant, 0);
+			type = declaration.type();
+		}
+		return range;
+	}
+
+	/**
+	 * Returns the range restricted by the condition on the variable declared
+	 * at the given location. Only the comparisons of the variable with
+	 * integer constants, and their conjunctions, are taken into account.
+	 */
+	private static Range constrain(Range range, Location<?> condition, int variable) {
+		if (!(condition.getBytecode() instanceof Bytecode.Operator) || condition.numberOfOperands() != 2)
+			return range;
+		OperatorKind kind = ((Bytecode.Operator) condition.getBytecode()).kind();
+		if (kind == OperatorKind.AND)
+			return constrain(constrain(range, condition.getOperand(0), variable), condition.getOperand(1), variable);
+		BigInteger left = constant(condition.getOperand(0));
+		BigInteger right = constant(condition.getOperand(1));
+		if (right != null && isVariable(condition.getOperand(0), variable))
+			return range.intersect(bound(kind, right));
+		if (left != null && isVariable(condition.getOperand(1), variable))
+			return range.intersect(bound(mirror(kind), left));
+		return range;
+	}
+
+	/**
+	 * Returns the range of the values <c>x</c> such that <c>x kind value</c>.
+	 */
+	private static Range bound(OperatorKind kind, BigInteger value) {
+		switch (kind) {
+		case LT:	return new Range(null, value.subtract(BigInteger.ONE));
+		case LTEQ:	return new Range(null, value);
+		case GT:	return new Range(value.add(BigInteger.ONE), null);
+		case GTEQ:	return new Range(value, null);
+		case EQ:	return Range.of(value);
+		default:	return Range.UNBOUNDED;
+		}
+	}
+
+	/**
+	 * Returns the comparison of the operands in the reverse order.
+	 */
+	private static OperatorKind mirror(OperatorKind kind) {
+		switch (kind) {
+		case LT:	return OperatorKind.GT;
+		case LTEQ:	return OperatorKind.GTEQ;
+		case GT:	return OperatorKind.LT;
+		case GTEQ:	return OperatorKind.LTEQ;
+		default:	return kind;
+		}
+	}
+
+	private static BigInteger constant(Location<?> location) {
+		if (location.getBytecode() instanceof Bytecode.Const
+				&& ((Bytecode.Const) location.getBytecode()).constant() instanceof wyil.lang.Constant.Integer)
+			return ((wyil.lang.Constant.Integer) ((Bytecode.Const) location.getBytecode()).constant()).value();
+		return null;
+	}
+
+	private static boolean isVariable(Location<?> location, int variable) {
+		return location.getBytecode() instanceof Bytecode.VariableAccess
+			&& location.getBytecode().getOperand(0) == variable;
+	}
+
+	/**
+	 * Records the range of the values held by the variable, port or signal.
+	 */
+	public void declare(TypedValue value, Range range) {
+		values.put(value, range.intersect(range(value.type)));
+	}
+
+	/**
+	 * Returns the range of the values of the expression.
+	 */
+	public Range range(Expression expr) {
+		Range range = ranges.get(expr);
+		if (range != null)
+			return range;
+		if (isLiteral(expr))
+			return Range.of(new BigInteger(((Value) expr).value));
+		if (expr instanceof Access && values.containsKey(((Access) expr).value))
+			return values.get(((Access) expr).value);
+		return range(expr.getType());
+	}
+
+	private static Range range(Type type) {
+		if (type instanceof Signed)
+			return Range.signed(((VectorType) type).lenght());
+		if (type instanceof Unsigned)
+			return Range.unsigned(((VectorType) type).lenght());
+		return Range.UNBOUNDED;
+	}
+
+	private static boolean isLiteral(Expression expr) {
+		return expr instanceof Value && ((Value) expr).value.matches("-?[0-9]+");
+	}
+
+	/**
+	 * Checks whether the expression is a non negative integer literal, which
+	 * can be an operand of an addition as it is : a negative one would be
+	 * read as the negation of the whole sum.
+	 */
+	private static boolean isNatural(Expression expr) {
+		return isLiteral(expr) && !((Value) expr).value.startsWith("-");
+	}
+
+	/**
+	 * Returns the value of the constant, in the narrowest type holding it.
+	 */
+	public Expression constant(ExpressionDAG dag, wyil.lang.Constant constant) {
+		if (constant instanceof wyil.lang.Constant.Bool)
+			return dag.value(Type.Std_logic, ((wyil.lang.Constant.Bool) constant).value() ? "'1'" : "'0'");
+		if (constant instanceof wyil.lang.Constant.Integer)
+			return literal(dag, ((wyil.lang.Constant.Integer) constant).value());
+		return dag.value(Signed.of(DEFAULT_WIDTH - 1, 0), constant.toString());
+	}
+
+	/**
+	 * Returns the integer literal, in the narrowest type holding it. Values
+	 * beyond {@link #DEFAULT_WIDTH} bits wrap around, as they do in the
+	 * operations.
+	 */
+	public Expression literal(ExpressionDAG dag, BigInteger value) {
+		if (value.bitLength() >= DEFAULT_WIDTH) {
+			value = value.and(BigInteger.ONE.shiftLeft(DEFAULT_WIDTH).subtract(BigInteger.ONE));
+			if (value.testBit(DEFAULT_WIDTH - 1))
+				value = value.subtract(BigInteger.ONE.shiftLeft(DEFAULT_WIDTH));
+		}
+		return dag.value(type(Range.of(value)), value.toString());
+	}
+
+	/**
+	 * Builds the operation, computed on as many bits as its result and its
+	 * operands need. Its operands are resized to this width, except for the
+	 * non negative integer literals added to a vector, which adapt to it.
+	 */
+	public Expression operation(ExpressionDAG dag, ExpressionDAG.Operator operator, Expression arg1, Expression arg2)
+			throws VHDLException {
+		if (!(arg1.getType() instanceof Signed) || !(arg2.getType() instanceof Signed))
+			return dag.operation(operator, arg1, arg2);
+		BinaryOperation probe = operator.build(arg1, arg2);
+		Range range = range(probe, range(arg1), range(arg2));
+		if (probe instanceof MultiplicativeBinaryOperation)
+			return multiplicative(dag, operator, probe instanceof Div, arg1, arg2, range);
+		int width = Math.min(DEFAULT_WIDTH, Math.max(width(range),
+			Math.max(((VectorType) arg1.getType()).lenght(), ((VectorType) arg2.getType()).lenght())));
+		Signed type = Signed.of(width - 1, 0);
+		boolean adapts = probe instanceof AdditiveBinaryOperation && !(isLiteral(arg1) && isLiteral(arg2));
+		Expression result = dag.operation(operator, adapts && isNatural(arg1) ? arg1 : fit(dag, arg1, type),
+			adapts && isNatural(arg2) ? arg2 : fit(dag, arg2, type));
+		ranges.put(result, range.signedWidth() != -1 && range.signedWidth() <= width ? range : Range.signed(width));
+		return result;
+	}
+
+	/**
+	 * Builds the multiplicative operation, whose operands keep their widths,
+	 * from which numeric_std sizes its result. Only the dividend of a
+	 * quotient is widened, for the quotient of its most negative value by -1
+	 * to fit. The result is then resized to the width of its range.
+	 */
+	private Expression multiplicative(ExpressionDAG dag, ExpressionDAG.Operator operator, boolean quotient,
+			Expression arg1, Expression arg2, Range range) throws VHDLException {
+		int width = width(range);
+		if (isLiteral(arg1))
+			arg1 = fit(dag, arg1, type(range(arg1)));
+		if (isLiteral(arg2))
+			arg2 = fit(dag, arg2, type(range(arg2)));
+		if (quotient && ((VectorType) arg1.getType()).lenght() < width)
+			arg1 = fit(dag, arg1, Signed.of(width - 1, 0));
+		Expression result = dag.operation(operator, arg1, arg2);
+		int length = ((VectorType) result.getType()).lenght();
+		ranges.put(result, range.signedWidth() != -1 && range.signedWidth() <= length ? range : Range.signed(length));
+		return length > width ? fit(dag, result, Signed.of(width - 1, 0)) : result;
+	}
+
+	/**
+	 * Returns the expression shifted left by the amount, computed on as many
+	 * bits as its result needs.
+	 */
+	public Expression shiftLeft(ExpressionDAG dag, Expression expr, int amount) throws VHDLException {
+		Range range = range(expr).shiftLeft(amount);
+		Signed type = type(range);
+		Expression shifted = dag.operation(SHIFT_LEFT, fit(dag, expr, type), dag.value(type, Integer.toString(amount)));
+		ranges.put(shifted, range.signedWidth() != -1 && range.signedWidth() <= type.lenght() ? range : Range.signed(type.lenght()));
+		return shifted;
+	}
+
+	/**
+	 * Returns the expression shifted right by the amount, which rounds it
+	 * toward minus infinity, narrowed to the range of the result.
+	 */
+	public Expression shiftRight(ExpressionDAG dag, Expression expr, int amount) throws VHDLException {
+		Range range = range(expr).shiftRight(amount);
+		Expression shifted = dag.operation(SHIFT_RIGHT, expr, dag.value(expr.getType(), Integer.toString(amount)));
+		ranges.put(shifted, range);
+		return narrow(dag, shifted, range);
+	}
+
+	/**
+	 * Returns the expression narrowed to the range of its values, when it is
+	 * known to be tighter than the one derived from its operations. The
+	 * expressions wider than the integers, such as the products by the
+	 * reciprocal of a divisor, keep their width.
+	 */
+	public Expression restrict(ExpressionDAG dag, Expression expr, Range range) throws VHDLException {
+		if (!(expr.getType() instanceof Signed))
+			return expr;
+		range = range.intersect(range(expr));
+		ranges.put(expr, range);
+		int width = range.signedWidth();
+		return width != -1 && width <= DEFAULT_WIDTH ? narrow(dag, expr, range) : expr;
+	}
+
+	private static Range range(BinaryOperation operation, Range range1, Range range2) {
+		if (operation instanceof Mul)
+			return range1.multiply(range2);
+		if (operation instanceof Div)
+			return range1.divide(range2);
+		if (operation instanceof Rem)
+			return range1.remainder(range2);
+		if (operation instanceof Mod)
+			return range1.modulo(range2);
+		if (operation instanceof Add)
+			return range1.add(range2);
+		if (operation instanceof Sub)
+			return range1.subtract(range2);
+		if (operation instanceof And)
+			return range1.bitwise(range2, true);
+		if (operation instanceof Or || operation instanceof Xor)
+			return range1.bitwise(range2, false);
+		if (range1.isBounded() && range2.isBounded())
+			return Range.signed(Math.max(range1.signedWidth(), range2.signedWidth()));
+		return Range.UNBOUNDED;
+	}
+
+	/**
+	 * Returns the expression converted to the type, if it is an integer of
+	 * another width, or an integer literal.
+	 */
+	public Expression fit(ExpressionDAG dag, Expression expr, Type type) throws VHDLException {
+		if (!(type instanceof Signed || type instanceof Unsigned))
+			return expr;
+		if (isLiteral(expr)) {
+			Expression literal = dag.value(type, (type instanceof Signed ? "to_signed(" : "to_unsigned(")
+				+ ((Value) expr).value + ", " + ((VectorType) type).lenght() + ")");
+			ranges.put(literal, range(expr));
+			return literal;
+		}
+		if (type.isCompatible(expr.getType()) || !(expr.getType() instanceof VectorType)
+				|| !((VectorType) type).isSameVectorType((VectorType) expr.getType()))
+			return expr;
+		Expression resized = dag.operation(RESIZE, expr, dag.value(type, Integer.toString(((VectorType) type).lenght())));
+		Range range = range(expr);
+		ranges.put(resized, range(type).contains(range) ? range : range(type));
+		return resized;
+	}
+
+	/**
+	 * Returns the expression narrowed to the range, which is known to hold
+	 * its values.
+	 */
+	public Expression narrow(ExpressionDAG dag, Expression expr, Range range) throws VHDLException {
+		if (!(expr.getType() instanceof Signed))
+			return expr;
+		range = range.intersect(range(expr));
+		Signed type = type(range);
+		if (((VectorType) type).lenght() >= ((VectorType) expr.getType()).lenght())
+			return expr;
+		Expression narrowed = fit(dag, expr, type);
+		ranges.put(narrowed, range);
+		return narrowed;
+	}
+}
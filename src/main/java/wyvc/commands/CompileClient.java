@@ -0,0 +1,89 @@
+package wyvc.commands;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import wyvc.commands.DaemonProtocol.Connection;
+import wyvc.commands.DaemonProtocol.State;
+
+/**
+ * The CompileClient class sends a compilation to the {@link CompileDaemon}
+ * and relays its output, exiting with its exit code.
+ *
+ * Since the daemon does not run in the directory of the client, the working
+ * directory of the client is sent along with the arguments, so that the
+ * daemon resolves their relative paths against it.
+ *
+ * Usage : <c>CompileClient [-state state_file] (-stop | arguments...)</c>
+ */
+public class CompileClient {
+	private static final int NO_DAEMON = 4;
+
+	public static void main(String[] args) throws IOException {
+		List<String> arguments = new ArrayList<>(Arrays.asList(args));
+		File stateFile = DaemonProtocol.defaultStateFile();
+		if (arguments.size() >= 2 && arguments.get(0).equals("-state")) {
+			stateFile = new File(arguments.get(1));
+			arguments = arguments.subList(2, arguments.size());
+		}
+		byte kind = DaemonProtocol.COMPILE;
+		if (arguments.size() == 1 && arguments.get(0).equals("-stop")) {
+			kind = DaemonProtocol.STOP;
+			arguments = new ArrayList<>();
+		}
+		System.exit(run(stateFile, kind, arguments));
+	}
+
+	/**
+	 * Sends the request to the daemon of the state file, and relays its output
+	 * to the standard output and error.
+	 *
+	 * @return	The exit code of the request
+	 */
+	public static int run(File stateFile, byte kind, List<String> args) throws IOException {
+		State state;
+		try {
+			state = State.read(stateFile);
+		} catch (IOException e) {
+			System.err.println("No compile daemon running (" + e.getMessage() + ")");
+			return NO_DAEMON;
+		}
+		Connection connection;
+		try {
+			connection = DaemonProtocol.connect(state);
+		} catch (IOException e) {
+			System.err.println("No compile daemon listening on " + state.address + " (" + e.getMessage() + ")");
+			return NO_DAEMON;
+		}
+		try (Connection c = connection;
+				DataOutputStream output = new DataOutputStream(new BufferedOutputStream(c.getOutputStream()));
+				DataInputStream input = new DataInputStream(new BufferedInputStream(c.getInputStream()))) {
+			DaemonProtocol.writeRequest(output, state.token, kind, new File(System.getProperty("user.dir")), args);
+			byte[] buffer = new byte[8192];
+			while (true) {
+				byte frame = input.readByte();
+				if (frame == DaemonProtocol.EXIT) {
+					System.out.flush();
+					return input.readInt();
+				}
+				OutputStream target = frame == DaemonProtocol.ERROR ? System.err : System.out;
+				for (int length = input.readInt(); length > 0;) {
+					int read = input.read(buffer, 0, Math.min(length, buffer.length));
+					if (read < 0)
+						throw new IOException("Connection to the compile daemon closed");
+					target.write(buffer, 0, read);
+					length -= read;
+				}
+				target.flush();
+			}
+		}
+	}
+}
@@ -0,0 +1,302 @@
+package wyvc.commands;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import wyc.commands.Compile;
+import wycc.util.Logger;
+import wyfs.lang.Content;
+import wyvc.builder.BuildCache;
+import wyvc.builder.Diagnostics;
+import wyvc.builder.EntityStore;
+import wyvc.builder.SharedCaches;
+import wyvc.commands.DaemonProtocol.Connection;
+import wyvc.commands.DaemonProtocol.FrameOutputStream;
+import wyvc.commands.DaemonProtocol.Listener;
+import wyvc.commands.DaemonProtocol.State;
+
+/**
+ * The CompileDaemon class runs the compilations requested by
+ * {@link CompileClient} in a long-running JVM, so that a build does not pay
+ * for the start of a JVM nor for the loading of the compilers, and reuses the
+ * build caches and entity stores kept in memory by the previous builds (see
+ * {@link SharedCaches}).
+ *
+ * Requests are accepted concurrently, but built one at a time. A client has
+ * {@link DaemonProtocol#REQUEST_TIMEOUT} milliseconds to send its request,
+ * after which its connection is closed. A stop request closes the socket of
+ * the daemon, which exits once the requests in progress are answered.
+ *
+ * Usage : <c>CompileDaemon [state_file]</c>
+ */
+public class CompileDaemon {
+	private final Content.Registry registry = new wyc.Activator.Registry();
+	private final SharedCaches caches = new SharedCaches();
+	private final Object buildLock = new Object();
+	private final File stateFile;
+	private final Listener listener;
+	private final String token;
+
+	/**
+	 * Closes the connections whose request has not arrived in time.
+	 */
+	private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "wyvc-daemon-watchdog");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Number of connections being served, guarded by the request lock.
+	 */
+	private final Object requestLock = new Object();
+	private int activeRequests = 0;
+	private volatile boolean stopped = false;
+
+	public CompileDaemon(File stateFile) throws IOException {
+		this.stateFile = stateFile;
+		this.listener = DaemonProtocol.listen(stateFile);
+		byte[] secret = new byte[32];
+		new SecureRandom().nextBytes(secret);
+		this.token = BuildCache.toHex(secret);
+	}
+
+	public static void main(String[] args) throws IOException {
+		CompileDaemon daemon = new CompileDaemon(args.length > 0 ? new File(args[0]) : DaemonProtocol.defaultStateFile());
+		daemon.run();
+	}
+
+	/**
+	 * Publishes the address of the daemon in its state file, and serves the
+	 * requests until a stop request. Returns once the requests in progress
+	 * are answered, so that no build is cut short by the exit of the JVM.
+	 */
+	public void run() throws IOException {
+		new State(listener.getAddress(), token).write(stateFile);
+		try {
+			for (int count = 0; !stopped; ++count) {
+				Connection connection;
+				try {
+					connection = listener.accept();
+				} catch (IOException e) {
+					if (stopped)
+						break; // Closed by a stop request.
+					throw e;
+				}
+				begin();
+				Thread thread = new Thread(() -> serve(connection), "wyvc-daemon-" + count);
+				thread.setDaemon(true);
+				thread.start();
+			}
+			awaitRequests();
+		} finally {
+			watchdog.shutdownNow();
+			stateFile.delete();
+		}
+	}
+
+	public void stop() throws IOException {
+		stopped = true;
+		listener.close();
+	}
+
+	private void begin() {
+		synchronized (requestLock) {
+			++activeRequests;
+		}
+	}
+
+	private void end() {
+		synchronized (requestLock) {
+			if (--activeRequests == 0)
+				requestLock.notifyAll();
+		}
+	}
+
+	private void awaitRequests() {
+		boolean interrupted = false;
+		synchronized (requestLock) {
+			while (activeRequests > 0)
+				try {
+					requestLock.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private void serve(Connection connection) {
+		ScheduledFuture<?> timeout = watchdog.schedule(() -> close(connection), DaemonProtocol.REQUEST_TIMEOUT,
+			TimeUnit.MILLISECONDS);
+		try (Connection c = connection;
+				DataInputStream input = new DataInputStream(new BufferedInputStream(c.getInputStream()));
+				DataOutputStream output = new DataOutputStream(new BufferedOutputStream(c.getOutputStream()))) {
+			if (!DaemonProtocol.checkToken(token, input.readUTF()))
+				return;
+			byte kind = input.readByte();
+			File directory = new File(input.readUTF());
+			List<String> args = DaemonProtocol.readArguments(input);
+			if (!timeout.cancel(false))
+				return; // Closed by the watchdog.
+			if (kind == DaemonProtocol.STOP) {
+				DaemonProtocol.writeExit(output, 0);
+				stop();
+				return;
+			}
+			PrintStream out = new PrintStream(new FrameOutputStream(output, DaemonProtocol.OUTPUT), true);
+			PrintStream err = new PrintStream(new FrameOutputStream(output, DaemonProtocol.ERROR), true);
+			int code;
+			try {
+				code = compile(directory, args, out, err);
+			} catch (IllegalArgumentException | IOException e) {
+				err.println(e.getMessage());
+				code = 2;
+			} catch (RuntimeException e) {
+				e.printStackTrace(err);
+				code = 3;
+			}
+			out.flush();
+			err.flush();
+			DaemonProtocol.writeExit(output, code);
+		} catch (IOException e) {
+			// The client went away : there is no one left to report to.
+		} finally {
+			timeout.cancel(false);
+			end();
+		}
+	}
+
+	private static void close(Connection connection) {
+		try {
+			connection.close();
+		} catch (IOException e) {
+			// Nothing more to do with a connection given up.
+		}
+	}
+
+	/**
+	 * Runs a compilation in the working directory of the client, with the
+	 * options of the VHDL compiler taken from the arguments, and the other
+	 * arguments passed to the Whiley compiler. The sources are read from, and
+	 * the WyIL and VHDL files written to, the working directory unless the
+	 * arguments tell otherwise : the relative paths of the arguments are
+	 * resolved against it, never against the directory of the daemon.
+	 */
+	private int compile(File directory, List<String> args, PrintStream out, PrintStream err) throws IOException {
+		VHDLCompile compile = new VHDLCompile(registry, new Logger.Default(err), out, err);
+		compile.setSharedCaches(caches);
+		compile.setWhileydir(directory);
+		compile.setWyildir(directory);
+		List<String> remaining = resolve(directory, configure(compile, directory, args));
+		synchronized (buildLock) {
+			return compile.execute(remaining.toArray(new String[0])) == Compile.Result.SUCCESS ? 0 : 1;
+		}
+	}
+
+	/**
+	 * Applies the options of the VHDL compiler to the command, resolving
+	 * their paths against the directory, and returns the other arguments :
+	 * <ul>
+	 * <li> <c>-parallelism n</c> : number of threads compiling a file,</li>
+	 * <li> <c>-buildcache file</c> : manifest of the build cache,</li>
+	 * <li> <c>-entitystore directory</c> : store of entities,</li>
+	 * <li> <c>-streaming</c> : writes entities as they are compiled,</li>
+	 * <li> <c>-compact</c> : writes without indentation nor alignment,</li>
+	 * <li> <c>-pipeline depth</c> : generates clocked entities with at most
+	 * <c>depth</c> pipeline stages,</li>
+	 * <li> <c>-handshake</c> : wraps the ports of the entities into valid/ready
+	 * handshakes,</li>
+	 * <li> <c>-dspregisters</c> : registers the operands and the results of
+	 * the products of DSP blocks,</li>
+	 * <li> <c>-shiftadd n</c> : decomposes the constant factors of at most
+	 * <c>n</c> non zero digits into shifts and additions,</li>
+	 * <li> <c>-multicycledivider</c> : divides by variables with multi-cycle
+	 * dividers in handshake mode,</li>
+	 * <li> <c>-metrics file</c> : report of the measures of the build,</li>
+	 * <li> <c>-diagnostics level</c> : ERROR, INFO, VERBOSE or TRACE.</li>
+	 * </ul>
+	 */
+	private List<String> configure(VHDLCompile compile, File directory, List<String> args) throws IOException {
+		List<String> remaining = new ArrayList<>();
+		Iterator<String> it = args.iterator();
+		while (it.hasNext()) {
+			String arg = it.next();
+			switch (arg) {
+			case "-parallelism":	compile.setParallelism(Integer.parseInt(value(arg, it))); break;
+			case "-buildcache":		compile.setBuildCache(resolve(directory, value(arg, it))); break;
+			case "-entitystore":	compile.setEntityStore(caches.getEntityStore(resolve(directory, value(arg, it)), EntityStore.DEFAULT_MAX_SIZE)); break;
+			case "-streaming":		compile.setStreaming(true); break;
+			case "-compact":		compile.setCompact(true); break;
+			case "-pipeline":		compile.setPipelineDepth(Integer.parseInt(value(arg, it))); break;
+			case "-handshake":		compile.setHandshake(true); break;
+			case "-dspregisters":	compile.setMultiplierRegisters(true, true); break;
+			case "-shiftadd":		compile.setShiftAddTerms(Integer.parseInt(value(arg, it))); break;
+			case "-multicycledivider":	compile.setMultiCycleDivider(true); break;
+			case "-metrics":		compile.setMetricsReport(resolve(directory, value(arg, it))); break;
+			case "-diagnostics":	compile.setDiagnosticLevel(Diagnostics.Level.valueOf(value(arg, it).toUpperCase())); break;
+			default:				remaining.add(arg);
+			}
+		}
+		return remaining;
+	}
+
+	/**
+	 * Resolves the paths of the arguments of the Whiley compiler against the
+	 * directory : the source files, the directories of its options and the
+	 * paths of its path lists.
+	 */
+	private static List<String> resolve(File directory, List<String> args) {
+		List<String> resolved = new ArrayList<>(args.size());
+		Iterator<String> it = args.iterator();
+		while (it.hasNext()) {
+			String arg = it.next();
+			resolved.add(arg);
+			switch (arg) {
+			case "-whileydir": case "-wd":
+			case "-wyildir": case "-od":
+			case "-wyaldir": case "-ad":
+			case "-wycsdir": case "-cd":
+				resolved.add(resolve(directory, value(arg, it)).getPath());
+				break;
+			case "-whileypath": case "-wp":
+			case "-bootpath": case "-bp":
+				StringBuilder paths = new StringBuilder();
+				for (String path : value(arg, it).split(File.pathSeparator))
+					(paths.length() == 0 ? paths : paths.append(File.pathSeparatorChar))
+						.append(resolve(directory, path).getPath());
+				resolved.add(paths.toString());
+				break;
+			default:
+				if (!arg.startsWith("-"))
+					resolved.set(resolved.size() - 1, resolve(directory, arg).getPath());
+			}
+		}
+		return resolved;
+	}
+
+	private static File resolve(File directory, String path) {
+		File file = new File(path);
+		return file.isAbsolute() ? file : new File(directory, path);
+	}
+
+	private static String value(String option, Iterator<String> it) {
+		if (!it.hasNext())
+			throw new IllegalArgumentException("Missing value of option " + option);
+		return it.next();
+	}
+}
@@ -0,0 +1,318 @@
+package wyvc.commands;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * The DaemonProtocol class holds what the compile daemon and its client share :
+ * the state file through which the client finds the daemon, and the format of
+ * their messages.
+ *
+ * The daemon listens on a Unix domain socket, next to the state file, when
+ * the JDK supports them (from Java 16), and on the loopback interface
+ * otherwise. Its address and a random token, which the client has to send
+ * with each request, are written in the state file, readable by its owner
+ * only, so that only the user who started the daemon can use it.
+ *
+ * A request holds the token, its kind, the working directory of the client,
+ * against which the daemon resolves the relative paths of the arguments, and
+ * a list of arguments. The daemon answers with frames of the standard output
+ * and error of the compilation, and a last frame holding the exit code.
+ */
+public final class DaemonProtocol {
+	public static final byte COMPILE = 'c';
+	public static final byte STOP = 's';
+
+	public static final byte OUTPUT = 'o';
+	public static final byte ERROR = 'e';
+	public static final byte EXIT = 'x';
+
+	private DaemonProtocol() {
+	}
+
+	/**
+	 * Returns the default state file, in the home directory of the user.
+	 */
+	public static File defaultStateFile() {
+		return new File(new File(System.getProperty("user.home"), ".wyvc"), "daemon");
+	}
+
+	/**
+	 * Time in milliseconds a client has to send its request once connected,
+	 * after which the daemon closes the connection.
+	 */
+	public static final long REQUEST_TIMEOUT = 10000;
+
+	private static final String UNIX_PREFIX = "unix:";
+
+	/**
+	 * Whether the JDK supports Unix domain sockets : the class using them is
+	 * only loaded when it does.
+	 */
+	private static final boolean UNIX_SOCKETS;
+
+	static {
+		boolean available;
+		try {
+			Class.forName("java.net.UnixDomainSocketAddress");
+			available = true;
+		} catch (ClassNotFoundException e) {
+			available = false;
+		}
+		UNIX_SOCKETS = available;
+	}
+
+	public static final class State {
+		/**
+		 * Address of the daemon : the path of its socket prefixed by
+		 * <c>unix:</c>, or its port on the loopback interface.
+		 */
+		public final String address;
+		public final String token;
+
+		public State(String address, String token) {
+			this.address = address;
+			this.token = token;
+		}
+
+		public static State read(File file) throws IOException {
+			List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+			if (lines.size() < 2)
+				throw new IOException("Invalid daemon state file " + file);
+			return new State(lines.get(0).trim(), lines.get(1).trim());
+		}
+
+		/**
+		 * Writes the state to the file, readable by its owner only where the
+		 * file system allows it. The directory of the file, when it has to be
+		 * created, and the file are created with these permissions, so that
+		 * the token is never readable by other users, even for a moment.
+		 */
+		public void write(File file) throws IOException {
+			Path target = file.toPath().toAbsolutePath();
+			boolean posix = isPosix();
+			createParent(target);
+			Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+			Files.deleteIfExists(temporary);
+			FileAttribute<?>[] attributes = posix ? new FileAttribute<?>[]{PosixFilePermissions.asFileAttribute(
+				PosixFilePermissions.fromString("rw-------"))} : new FileAttribute<?>[0];
+			try (SeekableByteChannel channel = Files.newByteChannel(temporary,
+					EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), attributes)) {
+				ByteBuffer contents = ByteBuffer.wrap((address + "\n" + token + "\n").getBytes(StandardCharsets.UTF_8));
+				while (contents.hasRemaining())
+					channel.write(contents);
+			}
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static boolean isPosix() {
+		return FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+	}
+
+	/**
+	 * Creates the directory of the file when it does not exist, accessible by
+	 * its owner only where the file system allows it.
+	 */
+	private static void createParent(Path file) throws IOException {
+		Path parent = file.getParent();
+		if (parent == null || Files.isDirectory(parent))
+			return;
+		if (isPosix())
+			Files.createDirectories(parent, PosixFilePermissions.asFileAttribute(
+				PosixFilePermissions.fromString("rwx------")));
+		else
+			Files.createDirectories(parent);
+	}
+
+	/**
+	 * A connection between the daemon and a client.
+	 */
+	public interface Connection extends Closeable {
+		InputStream getInputStream() throws IOException;
+		OutputStream getOutputStream() throws IOException;
+	}
+
+	/**
+	 * The socket on which the daemon accepts the connections of the clients.
+	 */
+	public interface Listener extends Closeable {
+		/**
+		 * Returns the address to write in the state file.
+		 */
+		String getAddress();
+
+		/**
+		 * Waits for the next connection, and throws an exception once the
+		 * listener is closed.
+		 */
+		Connection accept() throws IOException;
+	}
+
+	/**
+	 * Opens the socket of the daemon of the state file : a Unix domain socket
+	 * next to it when the JDK and the file system support them, and a socket
+	 * on the loopback interface otherwise.
+	 */
+	public static Listener listen(File stateFile) throws IOException {
+		if (UNIX_SOCKETS) {
+			Path socket = stateFile.toPath().toAbsolutePath().resolveSibling(stateFile.getName() + ".sock");
+			createParent(socket);
+			try {
+				return UnixDomainSockets.listen(socket, UNIX_PREFIX + socket);
+			} catch (IOException | UnsupportedOperationException e) {
+				// Path too long or no support from the platform : fall back on TCP.
+			}
+		}
+		ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		return new Listener() {
+			@Override
+			public String getAddress() {
+				return Integer.toString(server.getLocalPort());
+			}
+
+			@Override
+			public Connection accept() throws IOException {
+				return connection(server.accept());
+			}
+
+			@Override
+			public void close() throws IOException {
+				server.close();
+			}
+		};
+	}
+
+	/**
+	 * Connects to the daemon of the state.
+	 */
+	public static Connection connect(State state) throws IOException {
+		if (state.address.startsWith(UNIX_PREFIX)) {
+			if (!UNIX_SOCKETS)
+				throw new IOException("Unix domain sockets are not supported by this JDK");
+			return UnixDomainSockets.connect(Paths.get(state.address.substring(UNIX_PREFIX.length())));
+		}
+		try {
+			return connection(new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(state.address)));
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid daemon address " + state.address, e);
+		}
+	}
+
+	private static Connection connection(Socket socket) {
+		return new Connection() {
+			@Override
+			public InputStream getInputStream() throws IOException {
+				return socket.getInputStream();
+			}
+
+			@Override
+			public OutputStream getOutputStream() throws IOException {
+				return socket.getOutputStream();
+			}
+
+			@Override
+			public void close() throws IOException {
+				socket.close();
+			}
+		};
+	}
+
+	/**
+	 * Checks the token of a request in constant time, so that the time taken
+	 * tells nothing of the expected token.
+	 */
+	public static boolean checkToken(String expected, String received) {
+		return MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8),
+			received.getBytes(StandardCharsets.UTF_8));
+	}
+
+	public static void writeRequest(DataOutputStream output, String token, byte kind, File directory,
+			List<String> args) throws IOException {
+		output.writeUTF(token);
+		output.writeByte(kind);
+		output.writeUTF(directory.getAbsolutePath());
+		output.writeInt(args.size());
+		for (String arg : args)
+			output.writeUTF(arg);
+		output.flush();
+	}
+
+	public static List<String> readArguments(DataInputStream input) throws IOException {
+		int count = input.readInt();
+		if (count < 0)
+			throw new IOException("Invalid argument count " + count);
+		List<String> args = new ArrayList<>(count);
+		for (int k = 0; k < count; ++k)
+			args.add(input.readUTF());
+		return args;
+	}
+
+	/**
+	 * The FrameOutputStream class sends what is written to it as frames of the
+	 * given kind. Streams of different kinds can share the connection.
+	 */
+	public static final class FrameOutputStream extends OutputStream {
+		private final DataOutputStream output;
+		private final byte kind;
+
+		public FrameOutputStream(DataOutputStream output, byte kind) {
+			this.output = output;
+			this.kind = kind;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return;
+			synchronized (output) {
+				output.writeByte(kind);
+				output.writeInt(len);
+				output.write(b, off, len);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			synchronized (output) {
+				output.flush();
+			}
+		}
+	}
+
+	public static void writeExit(DataOutputStream output, int code) throws IOException {
+		synchronized (output) {
+			output.writeByte(EXIT);
+			output.writeInt(code);
+			output.flush();
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package wyvc.commands;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import wyvc.commands.DaemonProtocol.Connection;
+import wyvc.commands.DaemonProtocol.Listener;
+
+/**
+ * The UnixDomainSockets class opens the Unix domain sockets of the daemon and
+ * its clients. It uses the classes of Java 16, and is only loaded by
+ * {@link DaemonProtocol} when the JDK has them.
+ */
+final class UnixDomainSockets {
+	private UnixDomainSockets() {
+	}
+
+	/**
+	 * Binds a socket to the path, replacing the socket left by a previous
+	 * daemon. The socket file is deleted once the listener is closed.
+	 */
+	static Listener listen(Path path, String address) throws IOException {
+		Files.deleteIfExists(path);
+		ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		try {
+			server.bind(UnixDomainSocketAddress.of(path));
+		} catch (IOException | RuntimeException e) {
+			server.close();
+			throw e;
+		}
+		return new Listener() {
+			@Override
+			public String getAddress() {
+				return address;
+			}
+
+			@Override
+			public Connection accept() throws IOException {
+				return connection(server.accept());
+			}
+
+			@Override
+			public void close() throws IOException {
+				try {
+					server.close();
+				} finally {
+					Files.deleteIfExists(path);
+				}
+			}
+		};
+	}
+
+	static Connection connect(Path path) throws IOException {
+		return connection(SocketChannel.open(UnixDomainSocketAddress.of(path)));
+	}
+
+	private static Connection connection(SocketChannel channel) {
+		return new Connection() {
+			@Override
+			public InputStream getInputStream() {
+				return Channels.newInputStream(channel);
+			}
+
+			@Override
+			public OutputStream getOutputStream() {
+				return Channels.newOutputStream(channel);
+			}
+
+			@Override
+			public void close() throws IOException {
+				channel.close();
+			}
+		};
+	}
+}
@@ -1,6 +1,9 @@
 package wyvc.commands;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Collection;
 
 import wybs.util.StdBuildRule;
 import wybs.util.StdProject;
@@ -9,10 +12,30 @@ import wycc.util.Logger;
 import wyfs.lang.Content;
 import wyfs.lang.Content.Registry;
 import wyil.lang.WyilFile;
+import wyvc.builder.Arithmetic;
+import wyvc.builder.Diagnostics;
+import wyvc.builder.EntityStore;
+import wyvc.builder.SharedCaches;
 import wyvc.builder.VHDLCompileTask;
 
 
 public class VHDLCompile extends Compile {
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private File buildCache = null;
+	private EntityStore entityStore = null;
+	private SharedCaches sharedCaches = null;
+	private boolean streaming = false;
+	private boolean compact = false;
+	private int pipelineDepth = 0;
+	private boolean handshake = false;
+	private boolean multiplierInputRegisters = false;
+	private boolean multiplierOutputRegisters = false;
+	private int shiftAddTerms = Arithmetic.DEFAULT_SHIFT_ADD_TERMS;
+	private boolean multiCycleDivider = false;
+	private File metricsReport = null;
+	private Diagnostics.Level diagnosticLevel = null;
+	private Collection<String> tracedFunctions = null;
+
 	public VHDLCompile(Registry registry, Logger logger) {
 		super(registry, logger);
 	}
@@ -21,6 +44,122 @@ public class VHDLCompile extends Compile {
 	}
 
 
+	/**
+	 * Sets the number of threads used to compile the functions of a file.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Sets the manifest file used to skip WyIL files unchanged since the
+	 * previous build.
+	 */
+	public void setBuildCache(File manifest) {
+		this.buildCache = manifest;
+	}
+
+	/**
+	 * Sets the directory of the store of entities shared between builds, and
+	 * the size in bytes above which entities are evicted from it.
+	 */
+	public void setEntityStore(File directory, long maxSize) throws IOException {
+		this.entityStore = new EntityStore(directory, maxSize);
+	}
+
+	public void setEntityStore(File directory) throws IOException {
+		setEntityStore(directory, EntityStore.DEFAULT_MAX_SIZE);
+	}
+
+	public void setEntityStore(EntityStore entityStore) {
+		this.entityStore = entityStore;
+	}
+
+	/**
+	 * Sets the caches kept in memory between the builds of the JVM, so that
+	 * the build cache is not loaded again at each build.
+	 */
+	public void setSharedCaches(SharedCaches sharedCaches) {
+		this.sharedCaches = sharedCaches;
+	}
+
+	/**
+	 * Sets whether entities are written as soon as they are compiled, which
+	 * bounds memory by the largest entity rather than the largest file.
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	public void setCompact(boolean compact) {
+		this.compact = compact;
+	}
+
+	/**
+	 * Sets the maximal number of pipeline stages of the entities, which are
+	 * then clocked, or 0 to generate combinational entities.
+	 */
+	public void setPipelineDepth(int pipelineDepth) {
+		this.pipelineDepth = pipelineDepth;
+	}
+
+	/**
+	 * Sets whether the ports of the entities are wrapped into valid/ready
+	 * handshakes.
+	 */
+	public void setHandshake(boolean handshake) {
+		this.handshake = handshake;
+	}
+
+	/**
+	 * Sets whether the operands and the results of the products of DSP
+	 * blocks are registered, in synchronous mode.
+	 */
+	public void setMultiplierRegisters(boolean input, boolean output) {
+		this.multiplierInputRegisters = input;
+		this.multiplierOutputRegisters = output;
+	}
+
+	/**
+	 * Sets the maximal number of non zero digits of a constant factor
+	 * decomposed into shifts and additions.
+	 */
+	public void setShiftAddTerms(int shiftAddTerms) {
+		this.shiftAddTerms = shiftAddTerms;
+	}
+
+	/**
+	 * Sets whether the divisions by a variable are computed by a multi-cycle
+	 * divider, in handshake mode.
+	 */
+	public void setMultiCycleDivider(boolean multiCycleDivider) {
+		this.multiCycleDivider = multiCycleDivider;
+	}
+
+	/**
+	 * Sets the file receiving the measures of each build, in JSON when its
+	 * name ends with <c>.json</c> and in CSV otherwise.
+	 */
+	public void setMetricsReport(File metricsReport) {
+		this.metricsReport = metricsReport;
+	}
+
+	/**
+	 * Sets the verbosity of the messages of the VHDL compiler. By default, it
+	 * is VERBOSE in verbose mode and ERROR otherwise.
+	 */
+	public void setDiagnosticLevel(Diagnostics.Level diagnosticLevel) {
+		this.diagnosticLevel = diagnosticLevel;
+	}
+
+	/**
+	 * Restricts the traces of the TRACE level to the functions of the given
+	 * names.
+	 */
+	public void setTracedFunctions(Collection<String> tracedFunctions) {
+		this.tracedFunctions = tracedFunctions;
+	}
+
 	@Override
 	protected void addCompilationBuildRules(StdProject project) {
 		super.addCompilationBuildRules(project);
@@ -30,8 +169,22 @@ public class VHDLCompile extends Compile {
 		Content.Filter<WyilFile> wyilIncludes = Content.filter("**", WyilFile.ContentType);
 		Content.Filter<WyilFile> wyilExcludes = null;
 		VHDLCompileTask vhdlBuilder = new VHDLCompileTask(project);
-		//if(verbose)
-		//	jvmBuilder.setLogger(logger);
+		vhdlBuilder.setParallelism(parallelism);
+		vhdlBuilder.setBuildCache(buildCache);
+		vhdlBuilder.setSharedCaches(sharedCaches);
+		vhdlBuilder.setEntityStore(entityStore);
+		vhdlBuilder.setStreaming(streaming);
+		vhdlBuilder.setCompact(compact);
+		vhdlBuilder.setPipelineDepth(pipelineDepth);
+		vhdlBuilder.setHandshake(handshake);
+		vhdlBuilder.setMultiplierRegisters(multiplierInputRegisters, multiplierOutputRegisters);
+		vhdlBuilder.setShiftAddTerms(shiftAddTerms);
+		vhdlBuilder.setMultiCycleDivider(multiCycleDivider);
+		vhdlBuilder.setMetricsReport(metricsReport);
+		vhdlBuilder.setLogger(logger);
+		vhdlBuilder.setDiagnosticLevel(diagnosticLevel != null ? diagnosticLevel
+			: verbose ? Diagnostics.Level.VERBOSE : Diagnostics.Level.ERROR);
+		vhdlBuilder.setTracedFunctions(tracedFunctions);
 		project.add(new StdBuildRule(vhdlBuilder, wyildir, wyilIncludes, wyilExcludes, wyildir));
 	}
 }
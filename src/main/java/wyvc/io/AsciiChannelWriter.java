@@ -0,0 +1,93 @@
+package wyvc.io;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+
+/**
+ * The AsciiChannelWriter class writes text as ASCII bytes into a direct
+ * buffer, which is handed over to a channel whenever it is full or flushed.
+ *
+ * Generated VHDL code is pure ASCII : characters are stored in the buffer
+ * without going through a charset encoder, and a direct buffer lets a
+ * <c>FileChannel</c> write it without copying it again. Characters outside of
+ * the ASCII range are written as <c>?</c>.
+ *
+ * When a digest is given, it is updated with the bytes of the buffer before
+ * they are handed over, so that the hash of what is written is computed
+ * without going through a stream.
+ */
+public class AsciiChannelWriter extends Writer {
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+	private final MessageDigest digest;
+
+	public AsciiChannelWriter(WritableByteChannel channel, int capacity, MessageDigest digest) {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(capacity);
+		this.digest = digest;
+	}
+
+	public AsciiChannelWriter(WritableByteChannel channel, int capacity) {
+		this(channel, capacity, null);
+	}
+
+	public AsciiChannelWriter(WritableByteChannel channel) {
+		this(channel, DEFAULT_CAPACITY);
+	}
+
+	private static byte ascii(int c) {
+		return c < 0x80 ? (byte) c : (byte) '?';
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		if (!buffer.hasRemaining())
+			drain();
+		buffer.put(ascii(c));
+	}
+
+	@Override
+	public void write(char[] chars, int offset, int length) throws IOException {
+		for (int end = offset + length; offset < end; ) {
+			if (!buffer.hasRemaining())
+				drain();
+			for (int stop = Math.min(end, offset + buffer.remaining()); offset < stop; ++offset)
+				buffer.put(ascii(chars[offset]));
+		}
+	}
+
+	@Override
+	public void write(String string, int offset, int length) throws IOException {
+		for (int end = offset + length; offset < end; ) {
+			if (!buffer.hasRemaining())
+				drain();
+			for (int stop = Math.min(end, offset + buffer.remaining()); offset < stop; ++offset)
+				buffer.put(ascii(string.charAt(offset)));
+		}
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		if (digest != null)
+			digest.update(buffer.duplicate());
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	@Override
+	public void flush() throws IOException {
+		drain();
+	}
+
+	@Override
+	public void close() throws IOException {
+		drain();
+		channel.close();
+	}
+}
@@ -1,7 +1,14 @@
 package wyvc.io;
 
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.function.Function;
 
 import wyvc.lang.LexicalElement;
@@ -25,19 +32,30 @@ import java.io.OutputStream;
  * To make the produced VHDL code more readable, the <c>fill</c> edition method
  * enables to align the major parts of the lines.
  *
+ * The text is buffered, and only reaches the underlying stream when the buffer
+ * is full or when <c>flush</c> is called : the writer of a document has to
+ * flush the stream once it is done.  Indentation and filling are written from
+ * reusable buffers, without allocation.
+ *
  * @author Baptiste Pauget
  *
  */
 public class TextualOutputStream {
-	protected final OutputStreamWriter output;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	protected final Writer output;
+	private char[] spaces = new char[0];
+	private char[] fillChars = new char[0];
+	private char fillChar = ' ';
 	private int indentationLevel = 0;
 	private int indentationSize = 2;
 	private int lineLenght = 0;
 	private boolean isComment = false;
 	private boolean newLine = true;
+	private long written = 0;
 
 	public TextualOutputStream(OutputStream output){
-		this.output = new OutputStreamWriter(output);
+		this.output = new BufferedWriter(new OutputStreamWriter(output), BUFFER_SIZE);
 	}
 
 	public int getIndentationLevel() {
@@ -56,44 +74,108 @@ public class TextualOutputStream {
 		this.indentationSize = indentationSize;
 	}
 
-	public TextualOutputStream(OutputStreamWriter output){
+	public TextualOutputStream(Writer output){
 		this.output = output;
 	}
 
+	/**
+	 * Creates a stream writing ASCII text straight into the channel, through
+	 * an {@link AsciiChannelWriter}.
+	 */
+	public TextualOutputStream(WritableByteChannel channel){
+		this.output = new AsciiChannelWriter(channel);
+	}
+
+	private TextualOutputStream(WritableByteChannel channel, MessageDigest digest){
+		this.output = new AsciiChannelWriter(channel, AsciiChannelWriter.DEFAULT_CAPACITY, digest);
+	}
+
+	/**
+	 * Creates a stream writing through the channel of the output when it is a
+	 * file, and through a character stream otherwise.
+	 */
+	public static TextualOutputStream open(OutputStream output){
+		return open(output, null);
+	}
+
+	/**
+	 * Creates a stream as {@link #open(OutputStream)} does, updating the
+	 * digest with the bytes written when it is not null.
+	 */
+	public static TextualOutputStream open(OutputStream output, MessageDigest digest){
+		if (output instanceof FileOutputStream)
+			return new TextualOutputStream(((FileOutputStream) output).getChannel(), digest);
+		return new TextualOutputStream(digest == null ? output : new DigestOutputStream(output, digest));
+	}
+
+	/**
+	 * Returns the number of characters written to the stream so far.
+	 */
+	public long getWritten() {
+		return written;
+	}
+
 	public int getLineStart() {
 		return indentationLevel*indentationSize;
 	}
 
 	public void write(String content) throws IOException {
-		String[] lines = content.split("\n",-2);
-		int l = lines.length;
-		for(int k = 0; k < l - 1; ++k){
-			writeLine(lines[k]);
+		int start = 0;
+		for (int end = content.indexOf('\n'); end != -1; end = content.indexOf('\n', start)) {
+			writeLine(content, start, end);
 			endLine();
+			start = end + 1;
 		}
-		if (l > 0)
-			writeLine(lines[l-1]);
-		output.flush();
+		writeLine(content, start, content.length());
 	}
 
-	private void writeLine(String string) throws IOException {
-		if (string.length() == 0)
+	private void writeLine(String string, int start, int end) throws IOException {
+		if (end == start)
 			return;
+		startLine();
+		output.write(string, start, end - start);
+		lineLenght += end - start;
+		written += end - start;
+	}
+
+	private void startLine() throws IOException {
 		if (newLine){
 			if (isComment){
 				int a = Math.max(indentationLevel*indentationSize-2,0);
 				lineLenght += 2+a;
 				output.write("--");
-				output.write(new String(new char[a]).replace('\0', ' '));
+				written += 2;
+				writeSpaces(a);
 			}
 			else{
-				output.write(new String(new char[indentationLevel*indentationSize]).replace('\0', ' '));
+				writeSpaces(indentationLevel*indentationSize);
 				lineLenght += indentationLevel*indentationSize;
 			}
 			newLine = false;
 		}
-		output.write(string);
-		lineLenght += string.length();
+	}
+
+	private void writeSpaces(int n) throws IOException {
+		if (spaces.length < n) {
+			spaces = new char[Math.max(n, 2 * spaces.length)];
+			Arrays.fill(spaces, ' ');
+		}
+		output.write(spaces, 0, n);
+		written += n;
+	}
+
+	private void writeFill(int n, char c) throws IOException {
+		if (c == ' ') {
+			writeSpaces(n);
+			return;
+		}
+		if (fillChar != c || fillChars.length < n) {
+			fillChars = new char[Math.max(n, fillChars.length)];
+			Arrays.fill(fillChars, c);
+			fillChar = c;
+		}
+		output.write(fillChars, 0, n);
+		written += n;
 	}
 
 	public TextualOutputStream indent(){
@@ -122,8 +204,8 @@ public class TextualOutputStream {
 	public TextualOutputStream endLine() throws IOException {
 		newLine = true;
 		lineLenght = 0;
-		output.write("\n");
-		output.flush();
+		output.write('\n');
+		written++;
 		return this;
 	}
 
@@ -136,10 +218,13 @@ public class TextualOutputStream {
 		if (newLine && isComment)
 			n -= 2;
 		if (n > lineLenght){
+			int length = n-lineLenght;
 			int indent = indentationLevel;
 			indentationLevel = 0;
-			write(new String(new char[n-lineLenght]).replace('\0', c));
+			startLine();
 			indentationLevel = indent;
+			writeFill(length, c);
+			lineLenght += length;
 		}
 		return this;
 	}
@@ -12,47 +12,103 @@ public interface Tokenisable {
 	void addTokens(Token t);
 
 
+	/**
+	 * A Token is an element of a chain describing the text of a lexical
+	 * element, built by appending tokens with the <c>n</c> methods.
+	 *
+	 * Every token of a chain shares a reference to the last token of the chain,
+	 * so that appending to a chain from any of its tokens takes a constant
+	 * time.  Chains are written and aligned by iterating over their tokens,
+	 * which keeps the stack depth independent of their length.
+	 *
+	 * In compact mode, chains are written in a single pass : the alignment of
+	 * lists is neither computed nor written.
+	 */
 	public static abstract class Token {
-		private class SharedData {
+		private static class SharedData {
 			protected final TextualOutputStream output;
+			protected final boolean compact;
 			protected ArrayList<Integer> align = new ArrayList<>();
 			protected int index = 0;
+			protected int tokens = 0;
 
-			public SharedData(TextualOutputStream output) {
+			public SharedData(TextualOutputStream output, boolean compact) {
 				this.output = output;
+				this.compact = compact;
 			}
 		}
+
+		private static class Alignment {
+			protected final ArrayList<Integer> lengths;
+			protected int pos;
+			protected int index;
+
+			public Alignment(int pos, ArrayList<Integer> lengths, int index) {
+				this.pos = pos;
+				this.lengths = lengths;
+				this.index = index;
+			}
+		}
+
+		private static final class Chain {
+			private Token last;
+
+			public Chain(Token last) {
+				this.last = last;
+			}
+		}
+
 		private Token next = null;
-		protected SharedData data = null;
+		private Chain chain = null;
+
+		private Chain chain() {
+			if (chain == null)
+				chain = new Chain(this);
+			return chain;
+		}
 
 		private Token last(){
-			return next == null ? this : next.last();
+			return chain().last;
 		}
 
-		public Token alignement(int pos, ArrayList<Integer> lengths, int index) {
-			if (next != null)
-				next.alignement(pos, lengths, index);
+		public final Token alignement(int pos, ArrayList<Integer> lengths, int index) {
+			Alignment alignment = new Alignment(pos, lengths, index);
+			for (Token t = this; t != null; t = t.next)
+				t.align(alignment);
 			return this;
 		}
 
-		protected abstract void writeToken() throws IOException;
+		protected void align(Alignment alignment) {}
+
+		protected abstract void writeToken(SharedData data) throws IOException;
 
 		public void write(TextualOutputStream output) throws IOException {
-			write(new SharedData(output));
+			write(output, false);
+		}
+
+		/**
+		 * Writes the chain, and returns the number of tokens written.
+		 */
+		public int write(TextualOutputStream output, boolean compact) throws IOException {
+			SharedData data = new SharedData(output, compact);
+			write(data);
+			return data.tokens;
 		}
 
 		protected void write(SharedData data) throws IOException {
-			this.data = data;
-			writeToken();
-			if (next != null)
-				next.write(this.data);
-			this.data = null;
+			for (Token t = this; t != null; t = t.next) {
+				t.writeToken(data);
+				data.tokens++;
+			}
 		}
 
 
 		private final Token n(Token n) {
-			last().next = n;
-			return n.last();
+			Chain chain = chain();
+			chain.last.next = n;
+			n.chain = chain;
+			chain.last = n;
+			return n;
 		}
 
 		public final Token n(Tokenisable t) {
@@ -61,7 +117,13 @@ public interface Tokenisable {
 		}
 
 		public final Token n(String s) {
-			return n(new StringToken(s));
+			Token t = this;
+			int start = 0;
+			for (int end = s.indexOf('\n'); end != -1; end = s.indexOf('\n', start)) {
+				t = t.n(new StringToken(s.substring(start, end))).endLine();
+				start = end + 1;
+			}
+			return t.n(new StringToken(start == 0 ? s : s.substring(start)));
 		}
 
 		public final Token n(int i) {
@@ -141,78 +203,71 @@ public interface Tokenisable {
 
 		public static class StartToken extends Token {
 			@Override
-			protected void writeToken() throws IOException {};
+			protected void writeToken(SharedData data) throws IOException {};
 		}
 
 		private static class StringToken extends Token {
 			public final String string;
 
 			public StringToken(String s) {
-				int i = s.indexOf('\n');
-				if (i != -1){
-					string = s.substring(0, i);
-					endLine().n(s.substring(i));
-				}
-				else
-					string = s;
+				string = s;
 			}
 
 			@Override
-			public Token alignement(int pos, ArrayList<Integer> lengths, int index) {
-				int l = string.length();
-				lengths.set(index, Math.max(lengths.get(index), pos + l));
-				return super.alignement(pos + l, lengths, index);
+			protected void align(Alignment a) {
+				a.pos += string.length();
+				a.lengths.set(a.index, Math.max(a.lengths.get(a.index), a.pos));
 			}
 
 			@Override
-			protected void writeToken() throws IOException {
+			protected void writeToken(SharedData data) throws IOException {
 				data.output.w(string);
 			}
 		}
 
 		private static class EndLineToken extends Token {
 			@Override
-			protected void writeToken() throws IOException {
+			protected void writeToken(SharedData data) throws IOException {
 				data.output.endLine();
 			}
 
 			@Override
-			public Token alignement(int pos, ArrayList<Integer> lengths, int index) {
-				return super.alignement(0, lengths, index);
+			protected void align(Alignment a) {
+				a.pos = 0;
 			}
 		}
 
 		private static class SemiColonToken extends Token {
 			@Override
-			protected void writeToken() throws IOException{
+			protected void writeToken(SharedData data) throws IOException{
 				data.output.semiColon();
 			}
 		}
 
 		private static class IndentToken extends Token {
 			@Override
-			protected void writeToken() throws IOException {
+			protected void writeToken(SharedData data) throws IOException {
 				data.output.indent();
 			}
 		}
 
 		private static class DedentToken extends Token {
 			@Override
-			protected void writeToken() throws IOException {
+			protected void writeToken(SharedData data) throws IOException {
 				data.output.dedent();
 			}
 		}
 
 		private static class CommentToken extends Token {
 			@Override
-			protected void writeToken() throws IOException {
+			protected void writeToken(SharedData data) throws IOException {
 				data.output.comment();
 			}
 		}
 
 		private static class CodeToken extends Token {
 			@Override
-			protected void writeToken() throws IOException {
+			protected void writeToken(SharedData data) throws IOException {
 				data.output.code();
 			}
 		}
@@ -227,24 +282,27 @@ public interface Tokenisable {
 			}
 
 			@Override
-			protected void writeToken() throws IOException {
+			protected void writeToken(SharedData data) throws IOException {
 				data.output.fill(n, c);
 			}
 		}
 
 		private static class AlignToken extends Token {
 			@Override
-			protected void writeToken() throws IOException {
+			protected void writeToken(SharedData data) throws IOException {
+				if (data.compact)
+					return;
 				if (data.index < data.align.size())
 					data.output.fill(data.output.getLineStart() + data.align.get(data.index));
 				data.index++;
 			}
 
 			@Override
-			public Token alignement(int pos, ArrayList<Integer> lengths, int index) {
-				if (index == lengths.size() -1)
-					lengths.add(0);
-				return super.alignement(0, lengths, index+1);
+			protected void align(Alignment a) {
+				if (a.index == a.lengths.size() -1)
+					a.lengths.add(0);
+				a.pos = 0;
+				a.index++;
 			}
 		}
 
@@ -260,21 +318,32 @@ public interface Tokenisable {
 			}
 
 			@Override
-			protected void writeToken() throws IOException {
+			protected void writeToken(SharedData data) throws IOException {
+				if (data.compact) {
+					boolean first = true;
+					for(T t : list){
+						if (!first)
+							data.output.w(end);
+						getTokens.apply(t).write(data);
+						first = false;
+					}
+					return;
+				}
 				ArrayList<Token> tokens = new ArrayList<>();
-				SharedData data = new SharedData(this.data.output);
-				data.align.add(0);
+				SharedData elementData = new SharedData(data.output, false);
+				elementData.align.add(0);
 				for(T t : list)
-					tokens.add(getTokens.apply(t).alignement(0, data.align, 0));
+					tokens.add(getTokens.apply(t).alignement(0, elementData.align, 0));
 				if (!tokens.isEmpty()){
 					Token last = tokens.get(tokens.size() - 1);
 					for(Token t : tokens){
-						t.write(data);
-						data.index = 0;
+						t.write(elementData);
+						elementData.index = 0;
 						if (t != last)
-							this.data.output.w(end);
+							data.output.w(end);
 					}
 				}
+				data.tokens += elementData.tokens;
 			}
 		}
 	}
@@ -3,19 +3,83 @@ package wyvc.io;
 import java.io.IOException;
 
 import wyvc.io.Tokenisable.Token.StartToken;
+import wyvc.lang.Entity;
 import wyvc.lang.VHDLFile;
 
+/**
+ * The VHDLFileWritter class writes VHDL files, either from a whole
+ * {@link VHDLFile}, or one entity at a time : a file can then be written with
+ * <c>writeHeader</c>, followed by a call to <c>write</c> per entity and a final
+ * call to <c>flush</c>, without the whole file being held in memory.
+ *
+ * In compact mode, the code is neither indented nor aligned, which is faster
+ * to write and enough for synthesis tools.
+ *
+ * A {@link Listener} can be given to measure the writing of each entity.
+ */
 public class VHDLFileWritter {
+	public static interface Listener {
+		/**
+		 * Called once an entity has been written.
+		 *
+		 * @param tokens		Number of tokens written
+		 * @param characters	Number of characters written
+		 * @param tokenisation	Time spent building the tokens, in nanoseconds
+		 * @param writing		Time spent writing the tokens, in nanoseconds
+		 */
+		void written(Entity entity, int tokens, long characters, long tokenisation, long writing);
+	}
+
 	protected final TextualOutputStream output;
+	protected final boolean compact;
+	private Listener listener = null;
 
 	public VHDLFileWritter(TextualOutputStream output){
+		this(output, false);
+	}
+
+	public VHDLFileWritter(TextualOutputStream output, boolean compact){
 		this.output = output;
+		this.compact = compact;
+		if (compact)
+			output.setIndentationSize(0);
+	}
+
+	public boolean isCompact() {
+		return compact;
+	}
+
+	public void setListener(Listener listener) {
+		this.listener = listener;
 	}
 
 	public void write(VHDLFile vfile) throws IOException{
+		writeHeader();
+		for (Entity entity : vfile.entities)
+			write(entity);
+		output.flush();
+	}
+
+	public void writeHeader() throws IOException {
 		StartToken f = new StartToken();
-		vfile.addTokens(f);
-		f.write(output);
+		VHDLFile.addHeaderTokens(f);
+		f.write(output, compact);
+	}
+
+	public void write(Entity entity) throws IOException {
+		long start = System.nanoTime();
+		long characters = output.getWritten();
+		StartToken f = new StartToken();
+		entity.addTokens(f);
+		long tokenised = System.nanoTime();
+		int tokens = f.write(output, compact);
+		if (listener != null)
+			listener.written(entity, tokens, output.getWritten() - characters, tokenised - start,
+				System.nanoTime() - tokenised);
+	}
+
+	public void flush() throws IOException {
+		output.flush();
 	}
 
 
@@ -19,11 +19,11 @@ public class Architecture extends NamedElement {
 /*
 		// TODO Temporaire
 		signals = new Signal[] {
-			new Signal("oui", new Type.Signed(7,0)),
+			new Signal("oui", Type.Signed.of(7,0)),
 			new Signal("non", Type.Std_logic)
 		};
 		constants = new Constant[] {
-			new Constant("FIXE", new Type.Signed(7,0)),
+			new Constant("FIXE", Type.Signed.of(7,0)),
 			new Constant("INVARIABLE", Type.Std_logic)
 		};
 
@@ -0,0 +1,37 @@
+package wyvc.lang;
+
+
+/**
+ * The CachedEntity class stands for an entity whose VHDL code has already been
+ * generated, either during a previous build or by another thread. Its code is
+ * written back as is, so that it can be spliced into a {@link VHDLFile} among
+ * freshly compiled entities.
+ *
+ * The text must have been rendered exactly as the entity appears in a file,
+ * either by {@link Entity#toString()} or by a
+ * {@link wyvc.io.VHDLFileWritter} in compact mode when the file is compact.
+ */
+public class CachedEntity extends Entity {
+	public final String text;
+
+	public CachedEntity(String ident, Interface interface_, String text) {
+		super(ident, interface_);
+		this.text = text;
+	}
+
+	@Override
+	public void addTokens(Token t) {
+		int start = 0;
+		for (int end = text.indexOf('\n'); end != -1; end = text.indexOf('\n', start)) {
+			t.n(text.substring(start, end)).endLine();
+			start = end + 1;
+		}
+		if (start < text.length())
+			t.n(text.substring(start));
+	}
+
+	@Override
+	public String toString() {
+		return text;
+	}
+}
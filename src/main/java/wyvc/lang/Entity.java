@@ -13,6 +13,24 @@ public class Entity extends NamedElement {
 
 	private ArrayList<Architecture> architectures = new ArrayList<Architecture>();
 
+	/**
+	 * Latency of an entity waiting for handshaked components, whose number
+	 * of clock cycles is not known in advance.
+	 */
+	public static final int VARIABLE_LATENCY = -1;
+
+	/**
+	 * Number of clock cycles between the inputs and the outputs, 0 for a
+	 * combinational entity, or {@link #VARIABLE_LATENCY}.
+	 */
+	private int latency = 0;
+
+	/**
+	 * Entities instantiated by this one which are generated along with it,
+	 * and written before it.
+	 */
+	private ArrayList<Entity> dependencies = new ArrayList<Entity>();
+
 	public final ArrayList<Architecture> getArchitectures() {
 		return architectures;
 	}
@@ -21,6 +39,18 @@ public class Entity extends NamedElement {
 		architectures.add(architecture);
 	}
 
+	public void addDependency(Entity entity) {
+		dependencies.add(entity);
+	}
+
+	public int getLatency() {
+		return latency;
+	}
+
+	public void setLatency(int latency) {
+		this.latency = latency;
+	}
+
 	public Entity(String ident){
 		super(ident);
 		interface_ = new Interface();
@@ -34,8 +64,14 @@ public class Entity extends NamedElement {
 
 	@Override
 	public void addTokens(Token t) {
+		t.n(dependencies);
 		t.comment().fill(60, '-').endLine();
-		t.n(" Entity ").n(ident).code();
+		t.n(" Entity ").n(ident);
+		if (latency > 0)
+			t.endLine().n(" Latency ").n(latency).n(" clock cycle(s)");
+		else if (latency == VARIABLE_LATENCY)
+			t.endLine().n(" Latency variable");
+		t.code();
 		t.n("library ieee").semiColon();
 		t.n("use ieee.std_logic_1164.all").semiColon();
 		t.n("use ieee.numeric_std.all").semiColon().endLine();
@@ -1,5 +1,7 @@
 package wyvc.lang;
 
+import java.io.PrintStream;
+import java.util.ArrayDeque;
 
 import wyvc.lang.TypedValue.Port;
 import wyvc.lang.TypedValue.Port.Mode;
@@ -24,8 +26,8 @@ public interface Expression extends LexicalElement {
 		}
 
 		@Override
-		protected void typeExceptionDetails() {
-			System.err.println(expected.toString() + " expected");
+		protected void typeExceptionDetails(PrintStream out) {
+			out.println(expected.toString() + " expected");
 		}
 
 	}
@@ -56,20 +58,67 @@ public interface Expression extends LexicalElement {
 			this.precedence = precedence;
 		}
 
+		/**
+		 * Returns the same operation applied to other operands.
+		 */
+		public abstract BinaryOperation with(Expression arg1, Expression arg2) throws TypesMismatchException;
+
+		/**
+		 * Adds the tokens of the operation, and of its nested operations, with
+		 * an explicit stack holding the operands and the parentheses still to
+		 * add, so that the depth of the expression is not bounded by the depth
+		 * of the call stack.
+		 */
 		@Override
 		public final void addTokens(Token t) {
+			ArrayDeque<Object> pending = new ArrayDeque<>();
+			pending.push(this);
+			while (!pending.isEmpty()) {
+				Object next = pending.pop();
+				if (next instanceof String)
+					t = t.n((String) next);
+				else if (next instanceof BinaryOperation)
+					((BinaryOperation) next).pushTokens(pending);
+				else
+					t = t.n((Expression) next);
+			}
+		}
+
+		/**
+		 * Whether the operation is written as a call of a function of two
+		 * arguments, instead of an infix operator.
+		 */
+		protected boolean isFunctionCall() {
+			return false;
+		}
+
+		private void pushTokens(ArrayDeque<Object> pending) {
+			if (isFunctionCall()) {
+				pending.push(")");
+				pending.push(arg2);
+				pending.push(", ");
+				pending.push(arg1);
+				pending.push(op+"(");
+				return;
+			}
 			int p = getPrecedence();
 			int p1 = arg1.getPrecedence();
 			int p2 = arg2.getPrecedence();
-			if (p > p1)
-				t.n("(").n(arg1).n(")");
-			else
-				t.n(arg1);
-			t.n(" "+op+" ");
 			if (p2 > p)
-				t.n(arg2);
+				pending.push(arg2);
+			else {
+				pending.push(")");
+				pending.push(arg2);
+				pending.push("(");
+			}
+			pending.push(" "+op+" ");
+			if (p > p1) {
+				pending.push(")");
+				pending.push(arg1);
+				pending.push("(");
+			}
 			else
-				t.n("(").n(arg2).n(")");
+				pending.push(arg1);
 		}
 
 		@Override
@@ -84,7 +133,7 @@ public interface Expression extends LexicalElement {
 			}
 
 		private static final Type getType(Type t1, Type t2) throws TypesMismatchException{
-			if (t1.equals(t2))
+			if (t1.isCompatible(t2))
 				return t1;
 			if (t1 instanceof VectorType && t2 instanceof VectorType) {
 				VectorType vt1 = (VectorType) t1;
@@ -102,36 +151,66 @@ public interface Expression extends LexicalElement {
 		public And(Expression arg1, Expression arg2) throws TypesMismatchException {
 			super(arg1, "and", arg2);
 		}
+
+		@Override
+		public BinaryOperation with(Expression arg1, Expression arg2) throws TypesMismatchException {
+			return new And(arg1, arg2);
+		}
 	}
 
 	public static final class Nand extends LogicalBinaryOperation {
 		public Nand(Expression arg1, Expression arg2) throws TypesMismatchException {
 			super(arg1, "nand", arg2);
 		}
+
+		@Override
+		public BinaryOperation with(Expression arg1, Expression arg2) throws TypesMismatchException {
+			return new Nand(arg1, arg2);
+		}
 	}
 
 	public static final class Or extends LogicalBinaryOperation {
 		public Or(Expression arg1, Expression arg2) throws TypesMismatchException {
 			super(arg1, "or", arg2);
 		}
+
+		@Override
+		public BinaryOperation with(Expression arg1, Expression arg2) throws TypesMismatchException {
+			return new Or(arg1, arg2);
+		}
 	}
 
 	public static final class Nor extends LogicalBinaryOperation {
 		public Nor(Expression arg1, Expression arg2) throws TypesMismatchException {
 			super(arg1, "nor", arg2);
 		}
+
+		@Override
+		public BinaryOperation with(Expression arg1, Expression arg2) throws TypesMismatchException {
+			return new Nor(arg1, arg2);
+		}
 	}
 
 	public static final class Xor extends LogicalBinaryOperation {
 		public Xor(Expression arg1, Expression arg2) throws TypesMismatchException {
 			super(arg1, "xor", arg2);
 		}
+
+		@Override
+		public BinaryOperation with(Expression arg1, Expression arg2) throws TypesMismatchException {
+			return new Xor(arg1, arg2);
+		}
 	}
 
 	public static final class Xnor extends LogicalBinaryOperation {
 		public Xnor(Expression arg1, Expression arg2) throws TypesMismatchException {
 			super(arg1, "xnor", arg2);
 		}
+
+		@Override
+		public BinaryOperation with(Expression arg1, Expression arg2) throws TypesMismatchException {
+			return new Xnor(arg1, arg2);
+		}
 	}
 
 
@@ -148,15 +227,15 @@ public interface Expression extends LexicalElement {
 					!(((Unsigned) t1).isAscendant() ^ ((Unsigned) t2).isAscendant())) {
 				Unsigned vt1 = (Unsigned) t1;
 				Unsigned vt2 = (Unsigned) t2;
-				return vt1.isAscendant() ? new Unsigned(0, Math.max(vt1.lenght(), vt2.lenght())-1)
-				                         : new Unsigned(Math.max(vt1.lenght(), vt2.lenght())-1, 0);
+				return vt1.isAscendant() ? Unsigned.of(0, Math.max(vt1.lenght(), vt2.lenght())-1)
+				                         : Unsigned.of(Math.max(vt1.lenght(), vt2.lenght())-1, 0);
 			}
 			if (t1 instanceof Signed && t2 instanceof Signed &&
 					!(((Signed) t1).isAscendant() ^ ((Signed) t2).isAscendant())) {
 				Signed vt1 = (Signed) t1;
 				Signed vt2 = (Signed) t2;
-				return vt1.isAscendant() ? new Signed(0, Math.max(vt1.lenght(), vt2.lenght())-1)
-				                         : new Signed(Math.max(vt1.lenght(), vt2.lenght())-1, 0);
+				return vt1.isAscendant() ? Signed.of(0, Math.max(vt1.lenght(), vt2.lenght())-1)
+				                         : Signed.of(Math.max(vt1.lenght(), vt2.lenght())-1, 0);
 			}
 			throw new TypesMismatchException(LogicalBinaryOperation.class, t1, t2);
 		}
@@ -166,51 +245,206 @@ public interface Expression extends LexicalElement {
 		public Add(Expression arg1, Expression arg2) throws TypesMismatchException {
 			super(arg1, "+", arg2);
 		}
+
+		@Override
+		public BinaryOperation with(Expression arg1, Expression arg2) throws TypesMismatchException {
+			return new Add(arg1, arg2);
+		}
 	}
 
 	public static final class Sub extends AdditiveBinaryOperation {
 		public Sub(Expression arg1, Expression arg2) throws TypesMismatchException {
 			super(arg1, "-", arg2);
 		}
+
+		@Override
+		public BinaryOperation with(Expression arg1, Expression arg2) throws TypesMismatchException {
+			return new Sub(arg1, arg2);
+		}
+	}
+
+	/**
+	 * The conversion of a signed or unsigned value to another length, which
+	 * keeps the value when it fits in the new length. Its second operand is
+	 * the length, whose type is the resulting type.
+	 */
+	public static final class Resize extends BinaryOperation {
+		public Resize(Expression arg, Expression length) throws TypesMismatchException {
+			super(arg, "resize", length, Precedence.VAR_ACCESS, getType(arg.getType(), length.getType()));
+		}
+
+		private static final Type getType(Type t1, Type t2) throws TypesMismatchException {
+			if (t1 instanceof VectorType && t2 instanceof VectorType && (t1 instanceof Signed || t1 instanceof Unsigned)
+					&& ((VectorType) t1).isSameVectorType((VectorType) t2)
+					&& ((VectorType) t1).isAscendant() == ((VectorType) t2).isAscendant())
+				return t2;
+			throw new TypesMismatchException(Resize.class, t2, t1);
+		}
+
+		@Override
+		protected boolean isFunctionCall() {
+			return true;
+		}
+
+		@Override
+		public BinaryOperation with(Expression arg1, Expression arg2) throws TypesMismatchException {
+			return new Resize(arg1, arg2);
+		}
 	}
 
 
-/*
+	/**
+	 * The multiplicative operations of numeric_std, whose operands may have
+	 * different lengths : a product is as long as both operands together, a
+	 * quotient as its dividend, and a remainder or a modulo as its divisor.
+	 */
 	public static abstract class MultiplicativeBinaryOperation extends BinaryOperation {
-		public MultiplicativeBinaryOperation(Expression arg1, String op, Expression arg2, Type type) throws TypesMismatchException {
+		public MultiplicativeBinaryOperation(Expression arg1, String op, Expression arg2, Type type) {
 			super(arg1, op, arg2, Precedence.MULTIPL_OP, type);
 		}
 
-		public static final VectorType mulType(VectorType t1, VectorType t2) throws TypesMismatchException {
-			if (t1.isAscendant() ^ t2.isAscendant())
-				throw new TypesMismatchException(MultiplicativeBinaryOperation.class, t2.cloneType(t2.end, t2.start), t2);
-			int l = t1.lenght()+t2.lenght()-1;
-			if (t1 instanceof Unsigned && t2 instanceof Unsigned)
-				return t1.isAscendant() ? new Unsigned(0, l) : new Unsigned(l, 0);
-			if (t1 instanceof Signed && t2 instanceof Signed)
-				return t1.isAscendant() ? new Signed(0, l) : new Signed(l, 0);
-			throw new TypesMismatchException(MultiplicativeBinaryOperation.class, t1.cloneType(t2.start, t2.end), t2);
+		/**
+		 * Returns the type of a value of the given length, of the kind and
+		 * direction of both operands.
+		 */
+		protected static final VectorType getType(Type t1, Type t2, int length) throws TypesMismatchException {
+			if (!(t1 instanceof Signed && t2 instanceof Signed || t1 instanceof Unsigned && t2 instanceof Unsigned))
+				throw new TypesMismatchException(MultiplicativeBinaryOperation.class, t1, t2);
+			VectorType vt1 = (VectorType) t1;
+			if (vt1.isAscendant() ^ ((VectorType) t2).isAscendant())
+				throw new TypesMismatchException(MultiplicativeBinaryOperation.class, t1, t2);
+			return vt1.isAscendant() ? vt1.cloneType(0, length-1) : vt1.cloneType(length-1, 0);
+		}
+
+		protected static final int lenght(Expression arg) {
+			return arg.getType() instanceof VectorType ? ((VectorType) arg.getType()).lenght() : 0;
 		}
 	}
 
 	public static final class Mul extends MultiplicativeBinaryOperation {
 		public Mul(Expression arg1, Expression arg2) throws TypesMismatchException {
-			super(arg1, "*", arg2, mulType(arg1.getType(), arg2.getType()));
+			super(arg1, "*", arg2, getType(arg1.getType(), arg2.getType(), lenght(arg1)+lenght(arg2)));
+		}
+
+		@Override
+		public BinaryOperation with(Expression arg1, Expression arg2) throws TypesMismatchException {
+			return new Mul(arg1, arg2);
 		}
 	}
 
+	/**
+	 * The quotient of two values, truncated toward zero.
+	 */
 	public static final class Div extends MultiplicativeBinaryOperation {
+		public Div(Expression arg1, Expression arg2) throws TypesMismatchException {
+			super(arg1, "/", arg2, getType(arg1.getType(), arg2.getType(), lenght(arg1)));
+		}
 
+		@Override
+		public BinaryOperation with(Expression arg1, Expression arg2) throws TypesMismatchException {
+			return new Div(arg1, arg2);
+		}
 	}
 
+	/**
+	 * The modulo of two values, which has the sign of the divisor.
+	 */
 	public static final class Mod extends MultiplicativeBinaryOperation {
+		public Mod(Expression arg1, Expression arg2) throws TypesMismatchException {
+			super(arg1, "mod", arg2, getType(arg1.getType(), arg2.getType(), lenght(arg2)));
+		}
 
+		@Override
+		public BinaryOperation with(Expression arg1, Expression arg2) throws TypesMismatchException {
+			return new Mod(arg1, arg2);
+		}
 	}
 
+	/**
+	 * The remainder of the division of two values, which has the sign of the
+	 * dividend.
+	 */
 	public static final class Rem extends MultiplicativeBinaryOperation {
+		public Rem(Expression arg1, Expression arg2) throws TypesMismatchException {
+			super(arg1, "rem", arg2, getType(arg1.getType(), arg2.getType(), lenght(arg2)));
+		}
+
+		@Override
+		public BinaryOperation with(Expression arg1, Expression arg2) throws TypesMismatchException {
+			return new Rem(arg1, arg2);
+		}
+	}
+
+	/**
+	 * The shift of a signed or unsigned value, arithmetic for a signed one
+	 * shifted right, which keeps its length. Its second operand is the number
+	 * of bits, a natural literal.
+	 */
+	public static abstract class Shift extends BinaryOperation {
+		protected Shift(Expression arg, String op, Expression amount) throws TypesMismatchException {
+			super(arg, op, amount, Precedence.VAR_ACCESS, getType(arg.getType()));
+		}
+
+		private static final Type getType(Type type) throws TypesMismatchException {
+			if (type instanceof Signed || type instanceof Unsigned)
+				return type;
+			throw new TypesMismatchException(Shift.class, Signed.of(type instanceof VectorType
+				? ((VectorType) type).lenght()-1 : 0, 0), type);
+		}
+
+		@Override
+		protected boolean isFunctionCall() {
+			return true;
+		}
+	}
 
+	public static final class ShiftLeft extends Shift {
+		public ShiftLeft(Expression arg, Expression amount) throws TypesMismatchException {
+			super(arg, "shift_left", amount);
+		}
+
+		@Override
+		public BinaryOperation with(Expression arg1, Expression arg2) throws TypesMismatchException {
+			return new ShiftLeft(arg1, arg2);
+		}
+	}
+
+	public static final class ShiftRight extends Shift {
+		public ShiftRight(Expression arg, Expression amount) throws TypesMismatchException {
+			super(arg, "shift_right", amount);
+		}
+
+		@Override
+		public BinaryOperation with(Expression arg1, Expression arg2) throws TypesMismatchException {
+			return new ShiftRight(arg1, arg2);
+		}
+	}
+
+	/**
+	 * The logical negation of a value.
+	 */
+	public static final class Not extends TypedElement implements Expression {
+		public final Expression arg;
+
+		public Not(Expression arg) {
+			super(arg.getType());
+			this.arg = arg;
+		}
+
+		@Override
+		public int getPrecedence() {
+			return Precedence.UNARY_NOT;
+		}
+
+		@Override
+		public void addTokens(Token t) {
+			t.n("not ");
+			if (arg.getPrecedence() < Precedence.UNARY_NOT)
+				t.n("(").n(arg).n(")");
+			else
+				t.n(arg);
+		}
 	}
-*/
 
 	public static class Access extends TypedElement implements Expression {
 		public final TypedValue value;
@@ -236,6 +470,34 @@ public interface Expression extends LexicalElement {
 
 	}
 
+	/**
+	 * A bit of a vector signal or variable.
+	 */
+	public static final class Element extends TypedElement implements Expression {
+		public final TypedValue vector;
+		public final int index;
+
+		public Element(TypedValue vector, int index) throws TypesMismatchException {
+			super(Type.Std_logic);
+			if (!(vector.type instanceof VectorType) || index < Math.min(((VectorType) vector.type).start,
+					((VectorType) vector.type).end) || index > Math.max(((VectorType) vector.type).start,
+					((VectorType) vector.type).end))
+				throw new TypesMismatchException(Element.class, Signed.of(index, 0), vector.type);
+			this.vector = vector;
+			this.index = index;
+		}
+
+		@Override
+		public int getPrecedence() {
+			return Precedence.VAR_ACCESS;
+		}
+
+		@Override
+		public void addTokens(Token t) {
+			t.n(vector.ident).n("(").n(index).n(")");
+		}
+	}
+
 	public static class Value extends TypedElement implements Expression {
 		public final String value;
 
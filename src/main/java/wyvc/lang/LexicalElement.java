@@ -2,6 +2,7 @@ package wyvc.lang;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 
 import wyvc.io.TextualOutputStream;
 import wyvc.io.Tokenisable;
@@ -23,7 +24,9 @@ public interface LexicalElement extends Tokenisable {
 		try {
 			StartToken t = new StartToken();
 			element.addTokens(t);
-			t.write(new TextualOutputStream(baos));
+			TextualOutputStream output = new TextualOutputStream(baos);
+			t.write(output);
+			output.flush();
 		} catch (IOException e) {
 			return "Printing impossible";
 		}
@@ -75,11 +78,26 @@ public interface LexicalElement extends Tokenisable {
 		}
 
 		public final void info() {
-			System.err.println("VHDL error : " + elementName);
-			details();
+			info(System.err);
 		}
 
-		protected abstract void details();
+		public final void info(PrintStream out) {
+			out.println("VHDL error : " + elementName);
+			details(out);
+		}
+
+		/**
+		 * Returns the description of the error printed by <c>info</c>.
+		 */
+		public final String describe() {
+			ByteArrayOutputStream description = new ByteArrayOutputStream();
+			PrintStream out = new PrintStream(description);
+			info(out);
+			out.flush();
+			return description.toString().trim();
+		}
+
+		protected abstract void details(PrintStream out);
 	}
 
 	public static class UnsupportedException extends VHDLException {
@@ -89,8 +107,8 @@ public interface LexicalElement extends Tokenisable {
 			super(element);
 		}
 
-		protected void details() {
-			System.err.println("Unsupported feature");
+		protected void details(PrintStream out) {
+			out.println("Unsupported feature");
 		}
 	}
 }
@@ -9,6 +9,7 @@ import wyvc.lang.TypedValue.Port;
 import wyvc.lang.TypedValue.Port.Mode;
 import wyvc.lang.TypedValue.Signal;
 import wyvc.lang.TypedValue.Variable;
+import wyvc.lang.Type.VectorType;
 import wyvc.lang.TypedValue.PortException;
 import wyvc.lang.Expression.TypesMismatchException;
 
@@ -57,7 +58,7 @@ public interface Statement extends LexicalElement {
 		}
 
 		public SignalAssignment(Signal dest, Expression expr) throws TypesMismatchException, PortException {
-			if (!dest.type.equals(expr.getType()))
+			if (!dest.type.isCompatible(expr.getType()))
 				throw new TypesMismatchException(SignalAssignment.class, dest.type, expr.getType());
 			if (dest instanceof Port && ((Port) dest).mode == Mode.IN)
 				throw new PortException(SignalAssignment.class, (Port)dest);
@@ -66,6 +67,76 @@ public interface Statement extends LexicalElement {
 		}
 	}
 
+	/**
+	 * A concurrent assignment of one of two values to a signal, depending on
+	 * whether a <c>std_logic</c> condition is high.
+	 */
+	public static class ConditionalSignalAssignment implements ConcurrentStatement {
+		public final Signal dest;
+		public final Expression condition;
+		public final Expression whenHigh;
+		public final Expression whenLow;
+
+		public ConditionalSignalAssignment(Signal dest, Expression condition, Expression whenHigh, Expression whenLow)
+				throws TypesMismatchException, PortException {
+			if (!condition.getType().isCompatible(Type.Std_logic))
+				throw new TypesMismatchException(ConditionalSignalAssignment.class, Type.Std_logic, condition.getType());
+			if (!dest.type.isCompatible(whenHigh.getType()))
+				throw new TypesMismatchException(ConditionalSignalAssignment.class, dest.type, whenHigh.getType());
+			if (!dest.type.isCompatible(whenLow.getType()))
+				throw new TypesMismatchException(ConditionalSignalAssignment.class, dest.type, whenLow.getType());
+			if (dest instanceof Port && ((Port) dest).mode == Mode.IN)
+				throw new PortException(ConditionalSignalAssignment.class, (Port) dest);
+			this.dest = dest;
+			this.condition = condition;
+			this.whenHigh = whenHigh;
+			this.whenLow = whenLow;
+		}
+
+		@Override
+		public void addTokens(Token t) {
+			t.n(dest.ident).n(" <= ").n(whenHigh).n(" when ").n(condition).n(" = '1' else ").n(whenLow).semiColon();
+		}
+
+		@Override
+		public String toString(){
+			return stringFromStream(this);
+		}
+	}
+
+	/**
+	 * Runs one sequence of statements or the other, depending on whether a
+	 * <c>std_logic</c> condition is high.
+	 */
+	public static class IfStatement implements SequentialStatement {
+		public final Expression condition;
+		public final SequentialStatement[] whenHigh;
+		public final SequentialStatement[] whenLow;
+
+		public IfStatement(Expression condition, SequentialStatement[] whenHigh, SequentialStatement[] whenLow)
+				throws TypesMismatchException {
+			if (!condition.getType().isCompatible(Type.Std_logic))
+				throw new TypesMismatchException(IfStatement.class, Type.Std_logic, condition.getType());
+			this.condition = condition;
+			this.whenHigh = whenHigh;
+			this.whenLow = whenLow;
+		}
+
+		@Override
+		public void addTokens(Token t) {
+			t.n("if ").n(condition).n(" = '1' then").indent().endLine();
+			t.n(whenHigh).dedent();
+			if (whenLow.length > 0)
+				t.n("else").indent().endLine().n(whenLow).dedent();
+			t.n("end if").semiColon();
+		}
+
+		@Override
+		public String toString(){
+			return stringFromStream(this);
+		}
+	}
+
 	public static class VariableAssignment implements SequentialStatement {
 		public final Variable dest;
 		public final Expression expr;
@@ -81,7 +152,7 @@ public interface Statement extends LexicalElement {
 		}
 
 		public VariableAssignment(Variable dest, Expression expr) throws TypesMismatchException, PortException {
-			if (!dest.type.equals(expr.getType()))
+			if (!dest.type.isCompatible(expr.getType()))
 				throw new TypesMismatchException(SignalAssignment.class, dest.type, expr.getType());
 			this.dest = dest;
 			this.expr = expr;
@@ -138,5 +209,43 @@ public interface Statement extends LexicalElement {
 		}
 	}
 
+	/**
+	 * A process updating registers on the rising edges of a clock. When the
+	 * synchronous reset is high, every register is cleared; otherwise the
+	 * statements are run.
+	 */
+	public static class ClockedProcess implements ConcurrentStatement {
+		public final String ident;
+		public final Port clock;
+		public final Port reset;
+		public final Variable[] variables;
+		public final Signal[] registers;
+		public final SequentialStatement[] statements;
+
+		public ClockedProcess(String ident, Port clock, Port reset, Variable[] variables, Signal[] registers,
+				SequentialStatement[] statements) {
+			this.ident = ident;
+			this.clock = clock;
+			this.reset = reset;
+			this.variables = variables;
+			this.registers = registers;
+			this.statements = statements;
+		}
+
+		@Override
+		public void addTokens(Token t) {
+			t.n(ident+": process(").n(clock.ident).n(")").indent().endLine();
+			t.n(variables).dedent().n("begin").indent().endLine();
+			t.n("if rising_edge(").n(clock.ident).n(") then").indent().endLine();
+			t.n("if ").n(reset.ident).n(" = '1' then").indent().endLine();
+			t.n(registers, (Signal s, Token to) -> to.n(s.ident).n(" <= ").n(s.type instanceof VectorType
+				? "(others => '0')" : "'0'").semiColon(), "");
+			t.dedent().n("else").indent().endLine();
+			t.n(statements).dedent().n("end if").semiColon();
+			t.dedent().n("end if").semiColon();
+			t.dedent().n("end process "+ident).semiColon();
+		}
+	}
+
 
 }
@@ -2,10 +2,23 @@ package wyvc.lang;
 
 import static wyvc.lang.LexicalElement.stringFromStream;
 
-
+import java.io.PrintStream;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Types are canonical : structurally equal types share a single instance, which
+ * the <c>of</c> factories of each kind of type return. Comparing types for
+ * equality is then a reference comparison, and types can be used as keys of
+ * hash-based maps.
+ */
 public abstract class Type implements LexicalElement {
 
-	public abstract boolean equals(Type other);
+	/**
+	 * Checks whether a value of the other type can be assigned to a signal of
+	 * this type, that is whether both types have the same kind, length and
+	 * direction, regardless of the bounds of their ranges.
+	 */
+	public abstract boolean isCompatible(Type other);
 
 
 	@Override
@@ -24,12 +37,12 @@ public abstract class Type implements LexicalElement {
 		}
 
 		@Override
-		protected final void details() {
-			System.err.print("    Given type "+type.toString() + " unexpected : ");
-			typeExceptionDetails();
+		protected final void details(PrintStream out) {
+			out.print("    Given type "+type.toString() + " unexpected : ");
+			typeExceptionDetails(out);
 		}
 
-		protected abstract void typeExceptionDetails();
+		protected abstract void typeExceptionDetails(PrintStream out);
 	}
 
 
@@ -56,8 +69,8 @@ public abstract class Type implements LexicalElement {
 		}
 
 		@Override
-		public boolean equals(Type other) {
-			return other instanceof PrimitiveType && ((PrimitiveType)other).type == type;
+		public boolean isCompatible(Type other) {
+			return other == this;
 		}
 	}
 
@@ -65,13 +78,26 @@ public abstract class Type implements LexicalElement {
 
 
 	public static abstract class VectorType extends Type {
+		private static final ConcurrentHashMap<VectorType, VectorType> instances = new ConcurrentHashMap<>();
+
 		public final int start;
 		public final int end;
+		private final int hash;
 
 		protected VectorType(int start, int end){
 			// TODO empêcher vecteur taille 1
 			this.start = start;
 			this.end = end;
+			this.hash = 31 * (31 * getClass().hashCode() + start) + end;
+		}
+
+		/**
+		 * Returns the canonical instance of the type.
+		 */
+		@SuppressWarnings("unchecked")
+		protected static <T extends VectorType> T intern(T type) {
+			VectorType canonical = instances.putIfAbsent(type, type);
+			return canonical == null ? type : (T) canonical;
 		}
 
 		public final int lenght(){
@@ -94,7 +120,9 @@ public abstract class Type implements LexicalElement {
 		public abstract VectorType cloneType(int start, int end);
 
 		@Override
-		public final boolean equals(Type other){
+		public final boolean isCompatible(Type other){
+			if (other == this)
+				return true;
 			if (other instanceof VectorType){
 				VectorType vectorType = (VectorType) other;
 				return vectorType.lenght() == lenght() && vectorType.isAscendant() == isAscendant()
@@ -102,14 +130,33 @@ public abstract class Type implements LexicalElement {
 			}
 			return  false;
 		}
+
+		@Override
+		public final boolean equals(Object other) {
+			if (other == this)
+				return true;
+			if (other == null || other.getClass() != getClass())
+				return false;
+			VectorType vectorType = (VectorType) other;
+			return vectorType.start == start && vectorType.end == end;
+		}
+
+		@Override
+		public final int hashCode() {
+			return hash;
+		}
 	}
 
 	public static final class Std_vector extends VectorType {
 
-		public Std_vector(int start, int end) {
+		private Std_vector(int start, int end) {
 			super(start, end);
 		}
 
+		public static Std_vector of(int start, int end) {
+			return intern(new Std_vector(start, end));
+		}
+
 		@Override
 		protected Token addSubTypeTokens(Token t) {
 			return t.n("std_vector");
@@ -122,16 +169,20 @@ public abstract class Type implements LexicalElement {
 
 		@Override
 		public VectorType cloneType(int start, int end){
-			return new Std_vector(start, end);
+			return of(start, end);
 		}
 	}
 
 	public static final class Unsigned extends VectorType {
 
-		public Unsigned(int start, int end) {
+		private Unsigned(int start, int end) {
 			super(start, end);
 		}
 
+		public static Unsigned of(int start, int end) {
+			return intern(new Unsigned(start, end));
+		}
+
 		@Override
 		protected Token addSubTypeTokens(Token t) {
 			return t.n("unsigned");
@@ -144,16 +195,20 @@ public abstract class Type implements LexicalElement {
 
 		@Override
 		public VectorType cloneType(int start, int end){
-			return new Unsigned(start, end);
+			return of(start, end);
 		}
 	}
 
 	public static final class Signed extends VectorType {
 
-		public Signed(int start, int end) {
+		private Signed(int start, int end) {
 			super(start, end);
 		}
 
+		public static Signed of(int start, int end) {
+			return intern(new Signed(start, end));
+		}
+
 		@Override
 		protected Token addSubTypeTokens(Token t) {
 			return t.n("signed");
@@ -166,7 +221,7 @@ public abstract class Type implements LexicalElement {
 
 		@Override
 		public VectorType cloneType(int start, int end){
-			return new Signed(start, end);
+			return of(start, end);
 		}
 	}
 
@@ -2,6 +2,8 @@ package wyvc.lang;
 
 import static wyvc.lang.LexicalElement.stringFromStream;
 
+import java.io.PrintStream;
+
 
 public abstract class TypedValue implements LexicalElement {
 	public final Type type;
@@ -67,12 +69,12 @@ public abstract class TypedValue implements LexicalElement {
 
 		private final Port port;
 
-		public void details(){
-			System.err.print("    Bad port use : ");
+		public void details(PrintStream out){
+			out.print("    Bad port use : ");
 			if (port.mode == Port.Mode.IN)
-				System.err.println("Input port \""+port.ident+"\" cannot be written");
+				out.println("Input port \""+port.ident+"\" cannot be written");
 			else
-				System.err.println("Output port \""+port.ident+"\" cannot be read");
+				out.println("Output port \""+port.ident+"\" cannot be read");
 		}
 
 		public PortException(Class<?> element, Port port) {
@@ -32,11 +32,19 @@ public class VHDLFile implements LexicalElement {
 
 	@Override
 	public final void addTokens(Token t) {
+		addHeaderTokens(t);
+		t.n(entities);
+	}
+
+	/**
+	 * Adds the tokens of the comment starting every file, which the entities
+	 * follow.
+	 */
+	public static void addHeaderTokens(Token t) {
 		t.comment().fill(60, '-').endLine();
 		t.fill(15).n("VHDL file generated by").fill(58).n("--").endLine();
 		t.fill(16).n("Whiley2VHDLCompiler").fill(58).n("--").endLine();
 		t.fill(60, '-').endLine();
 		t.code().endLine();
-		t.n(entities);
 	}
 }